@@ -43,14 +43,22 @@
  */
 package org.jahia.modules.jcrestapi;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jahia.jaas.JahiaLoginModule;
 import org.jahia.modules.jcrestapi.accessors.*;
 import org.jahia.modules.jcrestapi.api.PreparedQuery;
 import org.jahia.modules.jcrestapi.json.APIObjectFactory;
+import org.jahia.modules.jcrestapi.json.JSONCount;
+import org.jahia.modules.jcrestapi.json.JSONNodeReference;
 import org.jahia.modules.jcrestapi.json.JSONQuery;
+import org.jahia.modules.jcrestapi.json.JSONQueryResult;
+import org.jahia.modules.jcrestapi.json.JSONRow;
 import org.jahia.modules.jcrestapi.json.JSONVersion;
 import org.jahia.modules.json.*;
 import org.jahia.modules.json.jcr.SessionAccess;
 import org.jahia.services.content.JCRSessionFactory;
+import org.jahia.services.usermanager.JahiaUser;
+import org.jahia.services.usermanager.JahiaUserManagerService;
 import org.jahia.utils.LanguageCodeConverters;
 import org.osgi.service.component.annotations.Component;
 
@@ -59,11 +67,19 @@ import javax.jcr.*;
 import javax.jcr.query.Query;
 import javax.jcr.query.QueryManager;
 import javax.jcr.query.QueryResult;
+import javax.jcr.query.Row;
+import javax.jcr.query.RowIterator;
+import javax.jcr.query.qom.Column;
+import javax.jcr.query.qom.QueryObjectModel;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -73,7 +89,7 @@ import java.util.*;
  */
 @Component
 @Path(API.API_PATH)
-@Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+@Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_SMILE, Utils.MEDIA_TYPE_APPLICATION_CBOR})
 public class API {
 
     public static final String SELF = "self";
@@ -97,8 +113,15 @@ public class API {
 
     public static final String INCLUDE_FULL_CHILDREN = "includeFullChildren";
     public static final String RESOLVE_REFERENCES = "resolveReferences";
+    public static final String REFERENCES_DEPTH = "referencesDepth";
     public static final String NO_LINKS = "noLinks";
+    public static final String LINKS = "links";
     public static final String CHILDREN_NODETYPE_FILTER = "childrenNodeTypes";
+    public static final String STREAM = "stream";
+    public static final String CHUNK_SIZE = "chunkSize";
+    public static final String CONTINUATION_TOKEN = "continuationToken";
+    public static final String CONTINUATION_TOKEN_HEADER = "X-Continuation-Token";
+    public static final String TRUNCATED_HEADER = "X-Results-Truncated";
 
     private static final ThreadLocal<Boolean> resolveReferences = new ThreadLocal<Boolean>() {
 
@@ -116,6 +139,11 @@ public class API {
         }
     };
 
+    private static final ThreadLocal<Set<String>> linkRelations = new ThreadLocal<Set<String>>();
+
+    private static final ThreadLocal<ReferenceResolver> referenceResolver = new ThreadLocal<ReferenceResolver>();
+    private static final ThreadLocal<PermissionDecisions> permissionDecisions = new ThreadLocal<PermissionDecisions>();
+
     private static final ThreadLocal<Boolean> includeFullChildren = new ThreadLocal<Boolean>() {
 
         @Override
@@ -126,7 +154,7 @@ public class API {
 
     protected static final Map<String, ElementAccessor> ACCESSORS = new HashMap<String, ElementAccessor>(7);
 
-    public static final String API_VERSION = "1.3";
+    public static final String API_VERSION = "1.4";
 
     private static final String JCRESTAPI_VERSION = "jcrestapi.version";
     private static final String JCRESTAPI_COMMIT_ID = "jcrestapi.commit.id";
@@ -161,16 +189,7 @@ public class API {
         final SpringBeansAccess access = SpringBeansAccess.getInstance();
         queryDisabled = access.isQueryDisabled();
         excludedNodeTypes = Collections.unmodifiableSet(access.getNodeTypesToSkip());
-        NODE_FILTER = new Filter.DefaultFilter() {
-            @Override
-            public boolean acceptChild(Node child) {
-                try {
-                    return !excludedNodeTypes.contains(child.getPrimaryNodeType().getName()) && SpringBeansAccess.getInstance().hasPermission("jcrestapi.child",child);
-                } catch (RepositoryException e) {
-                    throw new RuntimeException("Couldn't access primary node type of " + child, e);
-                }
-            }
-        };
+        NODE_FILTER = NodeTypeFilter.of(Collections.<String>emptySet(), excludedNodeTypes);
     }
 
     private static String getFullModuleVersion(String moduleVersion, String commitId, String commitBranch) {
@@ -201,14 +220,26 @@ public class API {
     private Repository repository;
     protected String workspace;
     protected String language;
+    protected Request request;
+    protected HttpHeaders headers;
 
     public API() {
     }
 
     public API(String workspace, String language, Repository repository, UriInfo context) {
+        this(workspace, language, repository, context, null);
+    }
+
+    public API(String workspace, String language, Repository repository, UriInfo context, Request request) {
+        this(workspace, language, repository, context, request, null);
+    }
+
+    public API(String workspace, String language, Repository repository, UriInfo context, Request request, HttpHeaders headers) {
         this.workspace = workspace;
         this.language = language;
         this.repository = repository;
+        this.request = request;
+        this.headers = headers;
         if (context != null) {
             URIUtils.setBaseURI(context.getBaseUri().toASCIIString());
         }
@@ -236,6 +267,39 @@ public class API {
         return setThreadLocalFlag(outputLinks, newOutputLinks);
     }
 
+    /**
+     * Specifies which HATEOAS link relations the API should generate in the node representations. This status is only valid for the current Thread.
+     * @param newLinkRelations the names of the link relations to output, <code>null</code> if all link relations should be output
+     * @return the link relations as they were before this method was called
+     */
+    public static Set<String> setLinkRelations(Set<String> newLinkRelations) {
+        final Set<String> old = linkRelations.get();
+        linkRelations.set(newLinkRelations);
+        return old;
+    }
+
+    /**
+     * Specifies the resolver in charge of resolving node references for the current Thread.
+     * @param newReferenceResolver the resolver to use, <code>null</code> if references are not resolved
+     * @return the resolver as it was before this method was called
+     */
+    public static ReferenceResolver setReferenceResolver(ReferenceResolver newReferenceResolver) {
+        final ReferenceResolver old = referenceResolver.get();
+        referenceResolver.set(newReferenceResolver);
+        return old;
+    }
+
+    /**
+     * Specifies the permission decisions made while processing the request handled by the current Thread.
+     * @param newPermissionDecisions the decisions to reuse, <code>null</code> if decisions shouldn't be remembered
+     * @return the decisions as they were before this method was called
+     */
+    public static PermissionDecisions setPermissionDecisions(PermissionDecisions newPermissionDecisions) {
+        final PermissionDecisions old = permissionDecisions.get();
+        permissionDecisions.set(newPermissionDecisions);
+        return old;
+    }
+
     /**
      * Specifies whether the API should include full children when generating the node representations. This status is only valid for the current Thread.
      *
@@ -275,79 +339,363 @@ public class API {
     @POST
     @Path("/{workspace}/{language}/query")
     @Consumes(MediaType.APPLICATION_JSON)
-    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
-    public Object query(@PathParam("workspace") String workspace, @PathParam("language") String language, JSONQuery jsonQuery, @Context UriInfo context) {
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_SMILE, Utils.MEDIA_TYPE_APPLICATION_CBOR})
+    public Object query(@PathParam("workspace") String workspace, @PathParam("language") String language, JSONQuery jsonQuery, @Context UriInfo context,
+                        @Context HttpHeaders headers) {
 
         if (jsonQuery != null) {
 
             Session session = null;
-
-            final String statement;
-            if (jsonQuery.getQueryName() != null) {
-                PreparedQuery q = PreparedQueriesRegistry.getInstance().getQuery(jsonQuery.getQueryName());
-                if (q == null) {
-                    return Response.status(Response.Status.NOT_FOUND);
-                }
-                if (jsonQuery.getParameters() != null) {
-                    statement = q.getQuery(jsonQuery.getParameters());
-                } else if (jsonQuery.getNamedParameters() != null) {
-                    statement = q.getQuery(jsonQuery.getNamedParameters());
-                } else {
-                    statement = q.getSource();
-                }
-            } else {
-                if (!API.isQueryDisabled()) {
-                    statement = jsonQuery.getQuery();
-                } else {
-                    APIExceptionMapper.LOGGER.debug("Query endpoint is disabled. Attempted query: " + jsonQuery);
-                    return Response.status(Response.Status.NOT_FOUND).build();
-                }
-            }
+            boolean streaming = false;
 
             try {
 
                 resolveReferences.set(Utils.getFlagValueFrom(context, RESOLVE_REFERENCES));
                 outputLinks.set(!Utils.getFlagValueFrom(context, NO_LINKS));
+                linkRelations.set(Utils.getLinkRelations(context));
                 includeFullChildren.set(Utils.getFlagValueFrom(context, INCLUDE_FULL_CHILDREN));
+                referenceResolver.set(Utils.getReferenceResolver(context));
+                permissionDecisions.set(new PermissionDecisions());
 
-                session = getSession(workspace, language);
-                final QueryManager queryManager = session.getWorkspace().getQueryManager();
-                final Query query = queryManager.createQuery(statement, Query.JCR_SQL2);
-                if (jsonQuery.getLimit() > 0) {
-                    query.setLimit(jsonQuery.getLimit());
-                }
-
-                if (jsonQuery.getOffset() > 0) {
-                    query.setOffset(jsonQuery.getOffset());
+                if (!isQueryAllowed(jsonQuery)) {
+                    return Response.status(Response.Status.NOT_FOUND).build();
                 }
 
-                final QueryResult queryResult = query.execute();
-
-                final NodeIterator nodes = queryResult.getNodes();
-                final List<JSONNode> result = new LinkedList<>();
-                final Filter filter = Utils.getFilter(context);
-                while (nodes.hasNext()) {
-                    final Node resultNode = nodes.nextNode();
-                    if (filter.acceptChild(resultNode)) {
-                        JSONNode node = getFactory().createNode(resultNode, filter, 1);
-                        result.add(node);
-                    }
-                }
+                session = getSession(workspace, language, true);
+                final MediaType streamedType = Utils.getFlagValueFrom(context, STREAM) ? Utils.getStreamingMediaType(headers) : null;
+                final Response response = executeQuery(jsonQuery, context, session, streamedType);
 
-                return Response.ok(result).build();
+                // the streaming output now owns the session and will close it once the response is written
+                streaming = response.getEntity() instanceof NodesStreamingOutput;
+                return response;
             } catch (Exception e) {
                 throw new APIException(e);
             } finally {
                 resolveReferences.set(false);
                 outputLinks.set(true);
+                linkRelations.set(null);
+                referenceResolver.set(null);
+                permissionDecisions.set(null);
                 includeFullChildren.set(false);
-                closeSession(session);
+                if (!streaming) {
+                    closeSession(session);
+                }
             }
         } else {
             return Response.ok().build();
         }
     }
 
+    /**
+     * Executes several queries at once, using the same session, so that clients needing the results of several queries don't need to
+     * issue one request per query.
+     *
+     * @param workspace   the JCR workspace that we want to query
+     * @param language    the language code in which we want to retrieve the data
+     * @param jsonQueries the queries to execute, each identified by a unique client-supplied identifier
+     * @param context     a UriInfo instance, automatically injected, providing context about the request URI
+     * @return a dictionary of query identifier -> query result, in the order in which queries were provided
+     */
+    @POST
+    @Path("/{workspace}/{language}/queries")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_SMILE, Utils.MEDIA_TYPE_APPLICATION_CBOR})
+    public Object queries(@PathParam("workspace") String workspace, @PathParam("language") String language, List<JSONQuery> jsonQueries,
+                          @Context UriInfo context) {
+
+        if (jsonQueries == null || jsonQueries.isEmpty()) {
+            return Response.ok(Collections.emptyMap()).build();
+        }
+
+        Session session = null;
+
+        try {
+
+            final Set<String> ids = new HashSet<>(jsonQueries.size());
+            for (JSONQuery jsonQuery : jsonQueries) {
+                if (jsonQuery == null || !Utils.exists(jsonQuery.getId()) || !ids.add(jsonQuery.getId())) {
+                    throw new IllegalArgumentException("Each query of a batch must provide a unique, non-empty 'id'");
+                }
+            }
+
+            resolveReferences.set(Utils.getFlagValueFrom(context, RESOLVE_REFERENCES));
+            outputLinks.set(!Utils.getFlagValueFrom(context, NO_LINKS));
+            linkRelations.set(Utils.getLinkRelations(context));
+            includeFullChildren.set(Utils.getFlagValueFrom(context, INCLUDE_FULL_CHILDREN));
+            referenceResolver.set(Utils.getReferenceResolver(context));
+            permissionDecisions.set(new PermissionDecisions());
+
+            session = getSession(workspace, language, true);
+
+            // JCR sessions are not thread-safe so queries sharing the session are executed one after the other
+            final Map<String, JSONQueryResult> results = new LinkedHashMap<>(jsonQueries.size() * 2);
+            for (JSONQuery jsonQuery : jsonQueries) {
+                JSONQueryResult result;
+                try {
+                    if (isQueryAllowed(jsonQuery)) {
+                        final Response response = executeQuery(jsonQuery, context, session, null);
+                        result = new JSONQueryResult(response.getStatus(), response.getEntity(), response.getHeaderString(CONTINUATION_TOKEN_HEADER),
+                                response.getHeaderString(TRUNCATED_HEADER) != null);
+                    } else {
+                        result = new JSONQueryResult(Response.Status.NOT_FOUND.getStatusCode(), null, null);
+                    }
+                } catch (Exception e) {
+                    // report the failure of this query without failing the whole batch
+                    final Throwable cause = e instanceof APIException ? e.getCause() : e;
+                    APIExceptionMapper.LOGGER.debug("Query '" + jsonQuery.getId() + "' of batch failed", cause);
+                    final int status = new APIExceptionMapper().toResponse(new APIException(cause)).getStatus();
+                    result = new JSONQueryResult(status, new APIException.JSONError(cause));
+                }
+                results.put(jsonQuery.getId(), result);
+            }
+
+            return Response.ok(results).build();
+        } catch (Exception e) {
+            throw new APIException(e);
+        } finally {
+            resolveReferences.set(false);
+            outputLinks.set(true);
+            linkRelations.set(null);
+            referenceResolver.set(null);
+            permissionDecisions.set(null);
+            includeFullChildren.set(false);
+            closeSession(session);
+        }
+    }
+
+    /**
+     * Determines whether the specified query can be executed: prepared queries must exist and ad-hoc queries require the query endpoint to
+     * be enabled.
+     */
+    private static boolean isQueryAllowed(JSONQuery jsonQuery) {
+        if (jsonQuery.getQueryName() != null) {
+            return PreparedQueriesRegistry.getInstance().getQuery(jsonQuery.getQueryName()) != null;
+        }
+
+        if (API.isQueryDisabled()) {
+            APIExceptionMapper.LOGGER.debug("Query endpoint is disabled. Attempted query: " + jsonQuery);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Executes the specified query using the specified session and builds the response holding its results.
+     *
+     * @param jsonQuery    the query to execute, which must have been checked using {@link #isQueryAllowed(JSONQuery)}
+     * @param context      the UriInfo of the current request
+     * @param session      the session to use
+     * @param streamedType the media type in which nodes should be streamed, in which case the response entity is a
+     *                     {@link NodesStreamingOutput} which takes ownership of the session, <code>null</code> if nodes shouldn't be streamed
+     * @return the response holding the query results
+     * @throws RepositoryException if an error occurred while accessing the repository
+     */
+    private Response executeQuery(JSONQuery jsonQuery, UriInfo context, Session session, MediaType streamedType) throws RepositoryException {
+        final PreparedQuery preparedQuery = jsonQuery.getQueryName() != null ? PreparedQueriesRegistry.getInstance().getQuery(jsonQuery.getQueryName()) : null;
+        final QueryBudget budget = QueryBudget.of(jsonQuery, preparedQuery);
+
+        final QueryManager queryManager = session.getWorkspace().getQueryManager();
+        final Set<String> childrenNodeTypes = Utils.getChildrenNodeTypes(context);
+        final Query query = QueryConstraints.constrainNodeTypes(createQuery(queryManager, preparedQuery, jsonQuery), childrenNodeTypes, session);
+        final KeysetPagination pagination = KeysetPagination.paginate(query, jsonQuery.getContinuationToken(), jsonQuery.getLimit(),
+                jsonQuery.getOffset(), session);
+        if (preparedQuery != null) {
+            // bind parameters on the query that will actually be executed since pagination might have derived it from the prepared one
+            bindParameters(preparedQuery, pagination.getQuery(), jsonQuery, session.getValueFactory());
+        }
+        pagination.setBudget(budget);
+
+        final Filter filter = Utils.getFilter(context);
+        final String mode = jsonQuery.getMode();
+
+        if (JSONQuery.NODES.equals(mode) && jsonQuery.getColumns() != null) {
+            // only render requested columns, straight from the query result rows
+            final QueryResult queryResult = pagination.getQuery().execute();
+            final String[][] columns = getColumns(jsonQuery.getColumns(), queryResult);
+            final String selector = getSelector(pagination.getQuery(), queryResult, columns[0]);
+            final RowIterator rows = pagination.getAcceptedRows(queryResult.getRows(), filter, selector);
+            final List<JSONRow> result = new LinkedList<>();
+            while (rows.hasNext()) {
+                final Row row = rows.nextRow();
+                result.add(new JSONRow(selector != null ? row.getNode(selector) : row.getNode(), row, columns[0], columns[1]));
+            }
+            return withPaginationHeaders(Response.ok(result), pagination).build();
+        }
+
+        final NodeIterator nodes = pagination.getAcceptedNodes(getResultNodes(preparedQuery, jsonQuery, childrenNodeTypes,
+                pagination.getQuery(), session), filter);
+        if (JSONQuery.COUNT.equals(mode)) {
+            long count = 0;
+            while (nodes.hasNext()) {
+                nodes.nextNode();
+                count++;
+            }
+            return withPaginationHeaders(Response.ok(new JSONCount(count)), pagination).build();
+        } else if (JSONQuery.IDENTIFIERS.equals(mode)) {
+            final List<JSONNodeReference> result = new LinkedList<>();
+            while (nodes.hasNext()) {
+                result.add(new JSONNodeReference(nodes.nextNode()));
+            }
+            return withPaginationHeaders(Response.ok(result), pagination).build();
+        }
+
+        if (streamedType != null) {
+            return Response.ok(new NodesStreamingOutput(this, nodes, filter, 1, streamedType), streamedType).build();
+        }
+
+        final List<JSONNode> result = new LinkedList<>();
+        while (nodes.hasNext()) {
+            ReferenceResolver.startItemIfNeeded();
+            JSONNode node = getFactory().createNode(nodes.nextNode(), filter, 1);
+            result.add(node);
+        }
+
+        return withPaginationHeaders(Response.ok(result), pagination).build();
+    }
+
+    private static Query createQuery(QueryManager queryManager, PreparedQuery preparedQuery, JSONQuery jsonQuery) throws RepositoryException {
+        if (preparedQuery == null) {
+            return queryManager.createQuery(jsonQuery.getQuery(), Query.JCR_SQL2);
+        }
+
+        if (jsonQuery.getParameters() != null) {
+            return preparedQuery.createQuery(queryManager, jsonQuery.getParameters());
+        } else if (jsonQuery.getNamedParameters() != null) {
+            return preparedQuery.createQuery(queryManager, jsonQuery.getNamedParameters());
+        } else {
+            return preparedQuery.createQuery(queryManager, Collections.<Object>emptyList());
+        }
+    }
+
+    private static void bindParameters(PreparedQuery preparedQuery, Query query, JSONQuery jsonQuery, ValueFactory valueFactory) throws RepositoryException {
+        if (jsonQuery.getParameters() != null) {
+            preparedQuery.bindValues(query, valueFactory, jsonQuery.getParameters());
+        } else if (jsonQuery.getNamedParameters() != null) {
+            preparedQuery.bindValues(query, valueFactory, jsonQuery.getNamedParameters());
+        }
+    }
+
+    /**
+     * Resolves the requested columns to the columns of the specified query result, all its columns being returned if none were requested.
+     * Columns can be requested using their escaped or unescaped name, with or without the selector name prefix.
+     *
+     * @return an array which first element holds the actual column names and second element holds the matching property names
+     */
+    private static String[][] getColumns(List<String> requested, QueryResult queryResult) throws RepositoryException {
+        final String[] available = queryResult.getColumnNames();
+        final Map<String, String> availableColumns = new LinkedHashMap<>(available.length * 2);
+        for (String column : available) {
+            availableColumns.put(column, column);
+        }
+        for (String column : available) {
+            final String propertyName = column.substring(column.lastIndexOf('.') + 1);
+            if (!availableColumns.containsKey(propertyName)) {
+                availableColumns.put(propertyName, column);
+            }
+        }
+
+        final List<String> names = requested.isEmpty() ? Arrays.asList(available) : requested;
+        final String[][] columns = new String[2][names.size()];
+        int i = 0;
+        for (String name : names) {
+            final String unescaped = Names.unescape(name);
+            final String column = availableColumns.get(unescaped);
+            if (column == null) {
+                throw new IllegalArgumentException("Column '" + name + "' is not selected by the query. Selected columns: " + Arrays.toString(available));
+            }
+            columns[0][i] = column;
+            columns[1][i++] = unescaped.substring(unescaped.lastIndexOf('.') + 1);
+        }
+        return columns;
+    }
+
+    /**
+     * Determines which selector's nodes rows must be rendered for. Rows of join queries match several nodes so all the requested columns
+     * must belong to the same selector.
+     *
+     * @return <code>null</code> if the query only has one selector, the name of the selector the specified columns belong to otherwise
+     * @throws IllegalArgumentException if the query is a join and the columns don't all belong to the same selector
+     */
+    private static String getSelector(Query query, QueryResult queryResult, String[] columns) throws RepositoryException {
+        final String[] selectors = queryResult.getSelectorNames();
+        if (selectors.length <= 1) {
+            return null;
+        }
+
+        final Map<String, String> columnSelectors = new HashMap<>();
+        if (query instanceof QueryObjectModel) {
+            for (Column column : ((QueryObjectModel) query).getColumns()) {
+                if (column.getColumnName() != null) {
+                    columnSelectors.put(column.getColumnName(), column.getSelectorName());
+                }
+            }
+        }
+
+        String selector = null;
+        for (String column : columns) {
+            String columnSelector = columnSelectors.get(column);
+            if (columnSelector == null && column.indexOf('.') > 0) {
+                columnSelector = column.substring(0, column.indexOf('.'));
+            }
+            if (columnSelector == null || !Arrays.asList(selectors).contains(columnSelector) || (selector != null && !selector.equals(columnSelector))) {
+                throw new IllegalArgumentException("Columns of join queries must all belong to the same selector, one of " + Arrays.toString(selectors)
+                        + ". Requested columns: " + Arrays.toString(columns));
+            }
+            selector = columnSelector;
+        }
+        if (selector == null) {
+            throw new IllegalArgumentException("Columns of join queries must be requested from one of " + Arrays.toString(selectors));
+        }
+        return selector;
+    }
+
+    /**
+     * Executes the specified query, unless its results can be retrieved from the {@link QueryResultCache}, and retrieves the resulting nodes.
+     */
+    private static NodeIterator getResultNodes(PreparedQuery preparedQuery, JSONQuery jsonQuery, Set<String> childrenNodeTypes, Query query,
+                                               Session session) throws RepositoryException {
+        final QueryResultCache cache = QueryResultCache.getInstance();
+
+        // only cache bounded results of prepared queries: ad-hoc queries are unlikely to be repeated and would only pollute the cache
+        if (preparedQuery == null || jsonQuery.getLimit() <= 0 || !cache.isEnabled()) {
+            return query.execute().getNodes();
+        }
+
+        final SessionAccess.SessionInfo sessionInfo = SessionAccess.getCurrentSession();
+        final Object parameters = jsonQuery.getParameters() != null ? jsonQuery.getParameters() : jsonQuery.getNamedParameters();
+        final QueryResultCache.Key key = new QueryResultCache.Key(sessionInfo.workspace, sessionInfo.language, session.getUserID(),
+                preparedQuery.getStatement(), parameters, childrenNodeTypes, jsonQuery.getContinuationToken(), jsonQuery.getLimit(),
+                jsonQuery.getOffset());
+
+        List<String> identifiers = cache.get(key);
+        if (identifiers == null) {
+            final long generation = cache.getGeneration(sessionInfo.workspace);
+            identifiers = QueryResultCache.getIdentifiers(query.execute().getNodes());
+            cache.put(key, identifiers, QueryResultCache.getScope(query), generation);
+        }
+
+        return new IdentifiersNodeIterator(session, identifiers);
+    }
+
+    /**
+     * Adds the continuation token allowing clients to retrieve the next page of results, if any, to the response being built, as well as
+     * whether the results were truncated because the query budget was spent.
+     *
+     * @param builder    the response being built
+     * @param pagination the pagination that was used to process the query results
+     * @return the specified builder
+     */
+    static Response.ResponseBuilder withPaginationHeaders(Response.ResponseBuilder builder, KeysetPagination pagination) {
+        final String token = pagination.getNextContinuationToken();
+        if (token != null) {
+            builder.header(CONTINUATION_TOKEN_HEADER, token);
+        }
+        if (pagination.isTruncated()) {
+            builder.header(TRUNCATED_HEADER, "true");
+        }
+        return builder;
+    }
+
     /**
      * Retrieves the sub-resources in charge of handling requests accessing resources by their identifiers.
      *
@@ -357,8 +705,9 @@ public class API {
      * @return a Nodes instance configured to access JCR data from the specified workspace and language
      */
     @Path("/{workspace}/{language}/" + Nodes.MAPPING)
-    public Nodes getNodes(@PathParam("workspace") String workspace, @PathParam("language") String language, @Context UriInfo context) {
-        return new Nodes(workspace, language, repository, context);
+    public Nodes getNodes(@PathParam("workspace") String workspace, @PathParam("language") String language, @Context UriInfo context,
+                          @Context Request request, @Context HttpHeaders headers) {
+        return new Nodes(workspace, language, repository, context, request, headers);
     }
 
     /**
@@ -384,8 +733,9 @@ public class API {
      * @return a Types instance configured to access JCR data from the specified workspace and language
      */
     @Path("/{workspace}/{language}/" + Paths.MAPPING)
-    public Paths getByPath(@PathParam("workspace") String workspace, @PathParam("language") String language, @Context UriInfo context) {
-        return new Paths(workspace, language, repository, context);
+    public Paths getByPath(@PathParam("workspace") String workspace, @PathParam("language") String language, @Context UriInfo context,
+                           @Context Request request, @Context HttpHeaders headers) {
+        return new Paths(workspace, language, repository, context, request, headers);
     }
 
     protected Response perform(String workspace, String language, String idOrPath, String subElementType, String subElement, UriInfo context,
@@ -447,7 +797,10 @@ public class API {
 
         resolveReferences.set(Utils.getFlagValueFrom(context, RESOLVE_REFERENCES));
         outputLinks.set(!Utils.getFlagValueFrom(context, NO_LINKS));
+        linkRelations.set(Utils.getLinkRelations(context));
         includeFullChildren.set(Utils.getFlagValueFrom(context, INCLUDE_FULL_CHILDREN));
+        referenceResolver.set(Utils.getReferenceResolver(context));
+        permissionDecisions.set(new PermissionDecisions());
 
         final String idOrPath = processor.getIdOrPath();
         final String subElementType = processor.getSubElementType();
@@ -455,7 +808,7 @@ public class API {
 
         try {
 
-            session = getSession(workspace, language);
+            session = getSession(workspace, language, READ.equals(operation));
 
             final Node node = nodeAccessor.getNode(idOrPath, session);
             if (excludedNodeTypes.contains(node.getPrimaryNodeType().getName()) || !SpringBeansAccess.getInstance().hasPermission("jcrestapi."+operation, node)) {
@@ -463,8 +816,39 @@ public class API {
             }
             final ElementAccessor accessor = ACCESSORS.get(subElementType);
             if (accessor != null) {
-                final Response response = accessor.perform(node, subElement, operation, data, context);
-                session.save();
+                final boolean read = READ.equals(operation);
+                final String cacheControl = read ? CachePolicies.getInstance().getCacheControlFor(workspace, node) : null;
+
+                // if the client's cached representation is still valid, don't build it again, the tag only being computed upfront for
+                // conditional requests
+                final boolean conditional = read && request != null && isConditional();
+                EntityTag tag = conditional ? ETags.of(node, subElementType, context, Utils.getMediaType(request)) : null;
+                if (tag != null) {
+                    final Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+                    if (notModified != null) {
+                        return notModified.header(HttpHeaders.CACHE_CONTROL, cacheControl).build();
+                    }
+                }
+
+                // representations with resolved references depend on other nodes so they cannot be cached
+                final RepresentationCache cache = RepresentationCache.getInstance();
+                final MediaType cachedType = read && request != null && cache.isEnabled() && !shouldResolveReferences() ?
+                        Utils.getMediaType(request) : null;
+
+                Response response;
+                if (cachedType != null) {
+                    response = getCachedRepresentation(cache, accessor, node, subElementType, subElement, context, cachedType);
+                } else {
+                    response = accessor.perform(node, subElement, operation, data, context);
+                    session.save();
+                }
+                final boolean ok = response.getStatus() == Response.Status.OK.getStatusCode();
+                if (ok && read && request != null && !conditional) {
+                    tag = ETags.of(node, subElementType, context, Utils.getMediaType(request));
+                }
+                if ((tag != null || cacheControl != null) && ok) {
+                    response = Response.fromResponse(response).tag(tag).header(HttpHeaders.CACHE_CONTROL, cacheControl).build();
+                }
                 return response;
             } else {
                 return null;
@@ -474,12 +858,51 @@ public class API {
         } finally {
             resolveReferences.set(false);
             outputLinks.set(true);
+            linkRelations.set(null);
+            referenceResolver.set(null);
+            permissionDecisions.set(null);
             includeFullChildren.set(false);
             closeSession(session);
         }
     }
 
+    private boolean isConditional() {
+        return headers != null && headers.getRequestHeader(HttpHeaders.IF_NONE_MATCH) != null;
+    }
+
+    private static Response getCachedRepresentation(RepresentationCache cache, ElementAccessor accessor, Node node, String subElementType,
+                                                    String subElement, UriInfo context, MediaType mediaType) throws RepositoryException, IOException {
+        final Session session = node.getSession();
+        final String workspace = session.getWorkspace().getName();
+        final RepresentationCache.Key key = new RepresentationCache.Key(workspace, node.getIdentifier(), subElementType, subElement,
+                context.getRequestUri().toString(), mediaType.toString(), session.getUserID());
+
+        byte[] representation = cache.get(key);
+        if (representation != null) {
+            return Response.ok(representation, mediaType).build();
+        }
+
+        final long generation = cache.getGeneration(workspace);
+        final Response response = accessor.perform(node, subElement, READ, null, context);
+        if (response.getStatus() != Response.Status.OK.getStatusCode() || !response.hasEntity()) {
+            return response;
+        }
+
+        final ObjectMapper mapper = BinaryJsonProvider.getMapper(mediaType);
+        representation = (mapper != null ? mapper : APIJsonProvider.MAPPER).writeValueAsBytes(response.getEntity());
+        cache.put(key, representation, node.getPath(), generation);
+        return Response.fromResponse(response).entity(representation).type(mediaType).build();
+    }
+
     protected Session getSession(String workspace, String language) throws RepositoryException {
+        return getSession(workspace, language, false);
+    }
+
+    /**
+     * Retrieves a session to access the specified workspace in the specified language, which can be obtained from the
+     * {@link ReadSessionPool} if it is only used to read content and the pool is enabled.
+     */
+    protected Session getSession(String workspace, String language, boolean readOnly) throws RepositoryException {
 
         if (!Utils.exists(workspace)) {
             workspace = "default";
@@ -492,7 +915,13 @@ public class API {
         Session session;
         if (repository instanceof JCRSessionFactory) {
             JCRSessionFactory factory = (JCRSessionFactory) repository;
-            session = factory.getCurrentUserSession(workspace, LanguageCodeConverters.languageCodeToLocale(language), Locale.ENGLISH);
+            final Locale locale = LanguageCodeConverters.languageCodeToLocale(language);
+            final JahiaUser user = factory.getCurrentUser();
+            if (readOnly && user != null && ReadSessionPool.getInstance().isEnabled()) {
+                session = getPooledSession(factory, user, workspace, locale);
+            } else {
+                session = factory.getCurrentUserSession(workspace, locale, Locale.ENGLISH);
+            }
         } else if (repository.getClass().getName().equals("org.jahia.modules.jcrestapi.NoLoggingTransientRepository")) {
             // only the case for the execution of our tests
             session = repository.login(null, null);
@@ -507,9 +936,26 @@ public class API {
         return session;
     }
 
+    private static Session getPooledSession(JCRSessionFactory factory, JahiaUser user, String workspace, Locale locale) throws RepositoryException {
+        final ReadSessionPool pool = ReadSessionPool.getInstance();
+        final String key = ReadSessionPool.getKey(user.getUsername() + '@' + user.getRealm(), workspace, locale);
+
+        Session session = pool.checkout(key);
+        if (session == null) {
+            // sessions of the current user are closed at the end of the HTTP request so pooled sessions need to be created separately
+            // use the same credentials as JCRSessionFactory.getCurrentUserSession so that guests don't get more privileges
+            final Credentials credentials = JahiaUserManagerService.isGuest(user) ? JahiaLoginModule.getGuestCredentials()
+                    : JahiaLoginModule.getSystemCredentials(user.getUsername(), user.getRealm());
+            session = factory.login(credentials, workspace, locale, Locale.ENGLISH);
+            pool.checkedOut(key, session);
+        }
+        return session;
+    }
+
     protected void closeSession(Session session) {
 
-        if (session != null && session.isLive()) {
+        // pooled sessions are returned to the pool instead of being logged out
+        if (session != null && !ReadSessionPool.getInstance().checkin(session) && session.isLive()) {
             session.logout();
         }
 
@@ -525,6 +971,24 @@ public class API {
         return outputLinks.get();
     }
 
+    /**
+     * Retrieves the names of the link relations to output for the current Thread, <code>null</code> meaning all link relations.
+     */
+    public static Set<String> getLinkRelations() {
+        return linkRelations.get();
+    }
+
+    /**
+     * Retrieves the resolver in charge of resolving node references for the current Thread, if any.
+     */
+    public static ReferenceResolver getReferenceResolver() {
+        return referenceResolver.get();
+    }
+
+    public static PermissionDecisions getPermissionDecisions() {
+        return permissionDecisions.get();
+    }
+
     public static boolean shouldIncludeFullChildren() {
         return includeFullChildren.get();
     }
@@ -554,7 +1018,7 @@ public class API {
 
             @Override
             public Node getNode(String idOrPath, Session session) throws RepositoryException {
-                return idOrPath.isEmpty() ? session.getRootNode() : session.getNode(idOrPath);
+                return idOrPath.isEmpty() ? session.getRootNode() : PathIdentifiers.getInstance().getNode(idOrPath, session);
             }
 
             @Override
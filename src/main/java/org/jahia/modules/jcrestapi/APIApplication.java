@@ -43,7 +43,6 @@
  */
 package org.jahia.modules.jcrestapi;
 
-import com.fasterxml.jackson.jaxrs.json.JacksonJaxbJsonProvider;
 import org.glassfish.hk2.api.Factory;
 import org.glassfish.hk2.utilities.binding.AbstractBinder;
 import org.glassfish.jersey.media.multipart.MultiPartFeature;
@@ -61,7 +60,7 @@ public class APIApplication extends ResourceConfig {
     }
 
     APIApplication(final Class<? extends Factory<Repository>> repositoryFactoryClass) {
-        super(API.class, APIExceptionMapper.class, JacksonJaxbJsonProvider.class, HeadersResponseFilter.class, MultiPartFeature.class);
+        super(API.class, APIExceptionMapper.class, APIJsonProvider.class, BinaryJsonProvider.class, HeadersResponseFilter.class, MultiPartFeature.class);
         register(new AbstractBinder() {
             @Override
             protected void configure() {
@@ -0,0 +1,114 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.MessageBodyWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * Writes representations using the Smile or CBOR binary JSON formats when clients ask for them, which results in smaller payloads that
+ * are faster to parse than their JSON equivalent. The written tree is identical to the JSON one since the mappers are configured like
+ * the one of {@link APIJsonProvider}.
+ */
+@Produces({Utils.MEDIA_TYPE_APPLICATION_SMILE, Utils.MEDIA_TYPE_APPLICATION_CBOR})
+public class BinaryJsonProvider implements MessageBodyWriter<Object> {
+    private static final MediaType SMILE_TYPE = MediaType.valueOf(Utils.MEDIA_TYPE_APPLICATION_SMILE);
+    private static final MediaType CBOR_TYPE = MediaType.valueOf(Utils.MEDIA_TYPE_APPLICATION_CBOR);
+    private static final ObjectMapper SMILE_MAPPER = APIJsonProvider.configure(new ObjectMapper(new SmileFactory()));
+    private static final ObjectMapper CBOR_MAPPER = APIJsonProvider.configure(new ObjectMapper(new CBORFactory()));
+
+    /**
+     * Retrieves the mapper to use to write representations in the specified media type.
+     *
+     * @param mediaType the media type of the representation to write
+     * @return the mapper to use or <code>null</code> if the specified media type isn't a binary JSON format
+     */
+    static ObjectMapper getMapper(MediaType mediaType) {
+        if (mediaType == null || mediaType.isWildcardType() || mediaType.isWildcardSubtype()) {
+            return null;
+        }
+
+        if (SMILE_TYPE.isCompatible(mediaType)) {
+            return SMILE_MAPPER;
+        } else if (CBOR_TYPE.isCompatible(mediaType)) {
+            return CBOR_MAPPER;
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        // streaming outputs write themselves and byte arrays are already serialized representations
+        return !StreamingOutput.class.isAssignableFrom(type) && !byte[].class.equals(type) && getMapper(mediaType) != null;
+    }
+
+    @Override
+    public long getSize(Object o, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(Object o, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException, WebApplicationException {
+        final ObjectMapper mapper = getMapper(mediaType);
+        // don't close the entity stream, Jersey takes care of it
+        final JsonGenerator generator = mapper.getFactory().createGenerator(entityStream);
+        mapper.writeValue(generator, o);
+        generator.flush();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Holds the {@link CachePolicy} instances configured for the module and selects the one applying to the representation of a given node, the
+ * first matching policy, in declaration order, winning. Representations no policy applies to are sent with {@code Cache-Control: no-cache}
+ * by {@link HeadersResponseFilter}.
+ * <p>
+ * Since cached representations are served to any client by shared caches, policies using the {@code public} directive should only apply to
+ * content that can be read anonymously.
+ */
+public class CachePolicies {
+    private static final CachePolicies INSTANCE = new CachePolicies();
+
+    private volatile List<CachePolicy> policies = Collections.emptyList();
+
+    private CachePolicies() {
+    }
+
+    public static CachePolicies getInstance() {
+        return INSTANCE;
+    }
+
+    public void setPolicies(List<CachePolicy> policies) {
+        this.policies = policies != null ? new ArrayList<CachePolicy>(policies) : Collections.<CachePolicy>emptyList();
+    }
+
+    /**
+     * Retrieves the value of the {@code Cache-Control} header to send with the representation of the specified node.
+     *
+     * @param workspace the workspace the node was retrieved from
+     * @param node      the node which representation is sent
+     * @return the value of the {@code Cache-Control} header of the first policy applying to the node or <code>null</code> if no policy
+     * applies
+     * @throws RepositoryException if an error occurred while accessing the node
+     */
+    String getCacheControlFor(String workspace, Node node) throws RepositoryException {
+        for (CachePolicy policy : policies) {
+            if (policy.appliesTo(workspace, node)) {
+                return policy.getHeaderValue();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+/**
+ * Associates the {@code Cache-Control} directives sent with representations of nodes with the nodes it applies to, selected by workspace,
+ * path prefix and node type. Criteria that are not set match all nodes. Policies are meant to be declared in the Spring configuration of the
+ * module and registered with {@link CachePolicies}.
+ */
+public class CachePolicy {
+    private static final String ROOT = "/";
+
+    private String workspace;
+    private String pathPrefix;
+    private String nodeType;
+    private String cacheControl = "private";
+    private long maxAge = -1;
+    private long staleWhileRevalidate = -1;
+
+    private volatile String headerValue;
+
+    public void setWorkspace(String workspace) {
+        this.workspace = workspace;
+    }
+
+    /**
+     * Sets the path of the node this policy applies to along with its descendants.
+     */
+    public void setPathPrefix(String pathPrefix) {
+        // trailing slashes would prevent the node identified by the prefix itself to be matched
+        while (pathPrefix != null && pathPrefix.length() > 1 && pathPrefix.endsWith(ROOT)) {
+            pathPrefix = pathPrefix.substring(0, pathPrefix.length() - 1);
+        }
+        this.pathPrefix = pathPrefix;
+    }
+
+    /**
+     * Sets the node type, primary or mixin, nodes this policy applies to must be of, taking type inheritance into account.
+     */
+    public void setNodeType(String nodeType) {
+        this.nodeType = nodeType;
+    }
+
+    /**
+     * Sets the directives, other than {@code max-age} and {@code stale-while-revalidate}, sent by this policy, {@code private} by default
+     * since representations are filtered according to the permissions of the user.
+     */
+    public void setCacheControl(String cacheControl) {
+        this.cacheControl = cacheControl;
+        headerValue = null;
+    }
+
+    /**
+     * Sets the {@code max-age} directive, in seconds, sent by this policy. Negative values, the default, omit the directive.
+     */
+    public void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+        headerValue = null;
+    }
+
+    /**
+     * Sets the {@code stale-while-revalidate} directive, in seconds, sent by this policy. Negative values, the default, omit the directive.
+     */
+    public void setStaleWhileRevalidate(long staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        headerValue = null;
+    }
+
+    /**
+     * Determines whether this policy applies to the specified node.
+     *
+     * @param workspace the workspace the node was retrieved from
+     * @param node      the node which representation is sent
+     * @return <code>true</code> if the node matches all the criteria of this policy, <code>false</code> otherwise
+     * @throws RepositoryException if an error occurred while accessing the node
+     */
+    boolean appliesTo(String workspace, Node node) throws RepositoryException {
+        if (this.workspace != null && !this.workspace.equals(workspace)) {
+            return false;
+        }
+
+        if (pathPrefix != null && !ROOT.equals(pathPrefix)) {
+            final String path = node.getPath();
+            if (!path.startsWith(pathPrefix) || (path.length() > pathPrefix.length() && path.charAt(pathPrefix.length()) != '/')) {
+                return false;
+            }
+        }
+
+        return nodeType == null || node.isNodeType(nodeType);
+    }
+
+    /**
+     * Retrieves the value of the {@code Cache-Control} header sent by this policy.
+     */
+    public String getHeaderValue() {
+        String value = headerValue;
+        if (value == null) {
+            final StringBuilder builder = new StringBuilder(64);
+            if (Utils.exists(cacheControl)) {
+                builder.append(cacheControl);
+            }
+            appendDirective(builder, "max-age", maxAge);
+            appendDirective(builder, "stale-while-revalidate", staleWhileRevalidate);
+            value = builder.toString();
+            headerValue = value;
+        }
+        return value;
+    }
+
+    private static void appendDirective(StringBuilder builder, String directive, long seconds) {
+        if (seconds >= 0) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(directive).append('=').append(seconds);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.ValueFormatException;
+import java.io.*;
+import java.util.Base64;
+
+/**
+ * An opaque token allowing clients to retrieve the next page of an ordered result set without having the repository go through all the
+ * previous results again. A token records the value of the primary sort key of the last result of the page it was emitted for, along with
+ * that result's identifier and how many results with that same key value were already returned so that ties can be skipped.
+ */
+final class ContinuationToken {
+    private static final int FORMAT_VERSION = 1;
+
+    private final int type;
+    private final String value;
+    private final String identifier;
+    private final int occurrences;
+
+    ContinuationToken(int type, String value, String identifier, int occurrences) {
+        this.type = type;
+        this.value = value;
+        this.identifier = identifier;
+        this.occurrences = occurrences;
+    }
+
+    /**
+     * Reconstructs a token from its String representation as previously returned by {@link #asString()}.
+     *
+     * @param token the String representation of the token
+     * @return the token
+     * @throws IllegalArgumentException if the specified String doesn't represent a valid token
+     */
+    static ContinuationToken fromString(String token) {
+        try {
+            final DataInputStream input = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(token)));
+            if (input.readInt() != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported continuation token: " + token);
+            }
+            final int type = input.readInt();
+            final String value = input.readUTF();
+            final String identifier = input.readUTF();
+            final int occurrences = input.readInt();
+            if (input.available() > 0 || !Utils.exists(identifier) || occurrences < 1) {
+                throw new IllegalArgumentException("Malformed continuation token: " + token);
+            }
+
+            // throws IllegalArgumentException for unknown types
+            PropertyType.nameFromValue(type);
+            if (type == PropertyType.UNDEFINED || type == PropertyType.BINARY) {
+                throw new IllegalArgumentException("Unsupported sort key type in continuation token: " + token);
+            }
+
+            return new ContinuationToken(type, value, identifier, occurrences);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid continuation token: " + token, e);
+        }
+    }
+
+    /**
+     * Retrieves the String representation of this token, suitable to be passed around in URIs, headers or JSON documents.
+     *
+     * @return the String representation of this token or <code>null</code> if the sort key value is too large to be represented
+     */
+    String asString() {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + value.length());
+        try {
+            final DataOutputStream output = new DataOutputStream(bytes);
+            output.writeInt(FORMAT_VERSION);
+            output.writeInt(type);
+            output.writeUTF(value);
+            output.writeUTF(identifier);
+            output.writeInt(occurrences);
+            output.flush();
+        } catch (UTFDataFormatException e) {
+            // sort key value is too long to be encoded
+            return null;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * The {@link javax.jcr.PropertyType} of the sort key value.
+     */
+    int getType() {
+        return type;
+    }
+
+    /**
+     * The String representation of the sort key value of the last returned result.
+     */
+    String getValue() {
+        return value;
+    }
+
+    /**
+     * Creates the sort key value of the last returned result.
+     *
+     * @param valueFactory the ValueFactory to use
+     * @return the sort key value
+     * @throws IllegalArgumentException if the recorded value cannot be converted to the recorded type, e.g. if the token was tampered with
+     * @throws RepositoryException      if another error occurred while creating the value
+     */
+    Value createValue(ValueFactory valueFactory) throws RepositoryException {
+        try {
+            return valueFactory.createValue(value, type);
+        } catch (ValueFormatException e) {
+            throw new IllegalArgumentException("Invalid sort key value in continuation token: " + asString(), e);
+        }
+    }
+
+    /**
+     * The identifier of the last returned result.
+     */
+    String getIdentifier() {
+        return identifier;
+    }
+
+    /**
+     * How many results with the recorded sort key value have already been returned, including the last returned result.
+     */
+    int getOccurrences() {
+        return occurrences;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.json.JSONConstants;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.nodetype.NodeType;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.UriInfo;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * Computes weak entity tags for the representations of nodes and their sub-elements so that clients can revalidate cached representations
+ * without the API needing to build them. Tags are derived from the request URI, which accounts for the workspace, language and flags of the
+ * request, from the user, since permissions filter what a representation contains, and from the negotiated media type, so that a tag is
+ * never shared by representations that differ, and from what identifies the state of the node: its identifier and path, its last modification date and version, its mixins and
+ * its children. Only reading these is much cheaper than rendering the node. Nodes which, or which children, don't have a last modification
+ * date don't get tags since their properties can be modified without anything telling so, and neither do nodes with too many children.
+ */
+final class ETags {
+    private static final String JCR_LAST_MODIFIED = "jcr:lastModified";
+    private static final String JCR_BASE_VERSION = "jcr:baseVersion";
+    private static final char SEPARATOR = '\n';
+    private static final int MAX_CHILDREN = 1000;
+
+    private ETags() {
+    }
+
+    /**
+     * Computes the entity tag of the representation of the specified node, or one of its sub-elements, as requested by the current
+     * request.
+     *
+     * @param node           the node which representation is requested
+     * @param subElementType the type of the requested sub-element, if any
+     * @param context        the UriInfo of the current request
+     * @param mediaType      the media type negotiated for the representation, if any
+     * @return the entity tag of the requested representation or <code>null</code> if the representation cannot be validated without
+     * building it, i.e. if the node or one of its children doesn't have a last modification date, if it has more than {@link #MAX_CHILDREN}
+     * children or if the representation includes referenced nodes
+     * @throws RepositoryException if an error occurred while accessing the repository
+     */
+    static EntityTag of(Node node, String subElementType, UriInfo context, MediaType mediaType) throws RepositoryException {
+        // referenced nodes can change independently from the requested one
+        if (API.shouldResolveReferences()) {
+            return null;
+        }
+
+        final String lastModified = getStringProperty(node, JCR_LAST_MODIFIED);
+        final String baseVersion = getStringProperty(node, JCR_BASE_VERSION);
+        // the base version of checked out nodes doesn't change when their properties are modified
+        if (lastModified == null) {
+            return null;
+        }
+
+        final StringBuilder state = new StringBuilder(256);
+        state.append(context.getRequestUri()).append(SEPARATOR)
+                .append(node.getSession().getUserID()).append(SEPARATOR)
+                .append(mediaType).append(SEPARATOR)
+                .append(node.getIdentifier()).append(SEPARATOR)
+                .append(node.getPath()).append(SEPARATOR)
+                .append(lastModified).append(SEPARATOR)
+                .append(baseVersion).append(SEPARATOR);
+
+        final NodeType[] mixins = node.getMixinNodeTypes();
+        if (mixins != null) {
+            for (NodeType mixin : mixins) {
+                state.append(mixin.getName()).append(SEPARATOR);
+            }
+        }
+
+        // children are part of the node's representation but their modification doesn't modify the node
+        if (!Utils.exists(subElementType) || JSONConstants.CHILDREN.equals(subElementType)) {
+            final NodeIterator children = node.getNodes();
+            final long size = children.getSize();
+            if (size > MAX_CHILDREN) {
+                return null;
+            }
+
+            int count = 0;
+            while (children.hasNext()) {
+                if (++count > MAX_CHILDREN) {
+                    return null;
+                }
+                final Node child = children.nextNode();
+                final String childLastModified = getStringProperty(child, JCR_LAST_MODIFIED);
+                if (childLastModified == null) {
+                    return null;
+                }
+                state.append(child.getName()).append('=').append(child.getIdentifier()).append('@')
+                        .append(childLastModified).append(SEPARATOR);
+            }
+        }
+
+        return new EntityTag(hash(state), true);
+    }
+
+    private static String getStringProperty(Node node, String propertyName) throws RepositoryException {
+        return node.hasProperty(propertyName) ? node.getProperty(propertyName).getString() : null;
+    }
+
+    private static String hash(CharSequence state) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest.digest(state.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 support is mandatory for all Java platforms
+            throw new IllegalStateException(e);
+        }
+    }
+}
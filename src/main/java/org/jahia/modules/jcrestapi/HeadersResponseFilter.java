@@ -63,9 +63,19 @@ public class HeadersResponseFilter implements ContainerResponseFilter {
         headers.add("Access-Control-Allow-Headers", "origin, content-type, accept, authorization");
         headers.add("Access-Control-Allow-Credentials", "true");
         headers.add("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS, HEAD");
+        headers.add("Access-Control-Expose-Headers", API.CONTINUATION_TOKEN_HEADER + ", " + API.TRUNCATED_HEADER + ", " + HttpHeaders.ETAG);
 
-        // tell the client to not cache the responses
-        headers.add(HttpHeaders.CACHE_CONTROL, "no-cache");
-        headers.add("Pragma", "no-cache"); // for HTTP 1.0
+        // unless a cache policy applies to the response, tell the client to revalidate responses before using cached ones, using their ETag
+        // if any
+        if (!headers.containsKey(HttpHeaders.CACHE_CONTROL)) {
+            headers.add(HttpHeaders.CACHE_CONTROL, "no-cache");
+            headers.add("Pragma", "no-cache"); // for HTTP 1.0
+        }
+
+        // the same URI is negotiated across HAL, JSON, Smile and CBOR so caches must not serve a representation to a client asking for
+        // another one
+        if (!headers.containsKey(HttpHeaders.VARY)) {
+            headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        }
     }
 }
@@ -0,0 +1,120 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import javax.jcr.*;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A {@link NodeIterator} lazily resolving nodes from their identifiers, skipping the nodes that don't exist anymore or that the session
+ * cannot access.
+ */
+class IdentifiersNodeIterator implements NodeIterator {
+    private final Session session;
+    private final List<String> identifiers;
+    private int index;
+    private long position;
+    private Node next;
+
+    IdentifiersNodeIterator(Session session, List<String> identifiers) {
+        this.session = session;
+        this.identifiers = identifiers;
+    }
+
+    @Override
+    public Node nextNode() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final Node node = next;
+        next = null;
+        position++;
+        return node;
+    }
+
+    @Override
+    public void skip(long skipNum) {
+        for (long i = 0; i < skipNum; i++) {
+            nextNode();
+        }
+    }
+
+    /**
+     * Returns <code>-1</code> since nodes might have been removed since their identifiers were recorded.
+     */
+    @Override
+    public long getSize() {
+        return -1;
+    }
+
+    @Override
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && index < identifiers.size()) {
+            try {
+                next = session.getNodeByIdentifier(identifiers.get(index++));
+            } catch (ItemNotFoundException | AccessDeniedException e) {
+                // node was removed or isn't accessible anymore, skip it
+            } catch (RepositoryException e) {
+                throw new APIException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public Object next() {
+        return nextNode();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
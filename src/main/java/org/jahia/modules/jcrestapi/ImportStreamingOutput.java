@@ -0,0 +1,262 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.jahia.modules.jcrestapi.accessors.ChildrenElementAccessor;
+import org.jahia.modules.json.JSONNode;
+import org.jahia.modules.json.jcr.SessionAccess;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates or updates children of a node from newline-delimited JSON records, each record being the JSON representation of a child as
+ * accepted when creating a child using the {@code children} sub-resource, read one at a time from the request as the response is written.
+ * Modifications are saved every given number of records so that the transient space of the session stays bounded and the response reports
+ * the status of each record, as a newline-delimited JSON object, once it is saved or failed.
+ * <p>
+ * A record that cannot be applied discards the unsaved modifications of the records preceding it since the last save, which are then
+ * applied again and saved right away so that each record is applied again at most once per failing record of its chunk. When saving fails,
+ * the records being saved are split in halves which are applied and saved separately, recursively, so that only the records making saving
+ * fail are reported as failed. Instances take ownership of the session the parent node was retrieved with and close it once the response
+ * has been written.
+ */
+class ImportStreamingOutput implements StreamingOutput {
+    private static final ObjectReader READER = APIJsonProvider.MAPPER.readerFor(JSONNode.class);
+
+    private final API api;
+    private final SessionAccess.SessionInfo sessionInfo;
+    private final Node parent;
+    private final InputStream records;
+    private final int chunkSize;
+
+    ImportStreamingOutput(API api, Node parent, InputStream records, int chunkSize) {
+        this.api = api;
+        this.sessionInfo = SessionAccess.getCurrentSession();
+        this.parent = parent;
+        this.records = records;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        SessionAccess.setCurrentSession(sessionInfo.session, sessionInfo.workspace, sessionInfo.language);
+        final Session session = sessionInfo.session;
+        final List<Record> chunk = new ArrayList<Record>(chunkSize);
+
+        JsonParser parser = null;
+        JsonGenerator generator = null;
+        try {
+            parser = APIJsonProvider.MAPPER.getFactory().createParser(records);
+            generator = APIJsonProvider.MAPPER.getFactory().createGenerator(output, JsonEncoding.UTF8);
+            // records are separated by new lines instead
+            generator.setRootValueSeparator(null);
+
+            int index = 0;
+            while (true) {
+                final JsonNode tree;
+                try {
+                    if (parser.nextToken() == null) {
+                        break;
+                    }
+                    tree = APIJsonProvider.MAPPER.readTree(parser);
+                } catch (JsonProcessingException e) {
+                    // we cannot find where the next record starts in malformed input so stop there
+                    writeFailure(generator, ++index, Response.Status.BAD_REQUEST.getStatusCode(), e);
+                    break;
+                }
+
+                final Record record = new Record(++index);
+                try {
+                    record.data = READER.readValue(tree);
+                    record.apply(parent);
+                    chunk.add(record);
+                } catch (Exception e) {
+                    writeFailure(generator, record.index, getStatus(e), e);
+                    // discard the modifications of the failed record, then apply the preceding ones again and save them right away so
+                    // that they're not applied again if another record of the chunk fails
+                    refresh(session);
+                    save(session, apply(session, chunk, generator), generator);
+                    chunk.clear();
+                }
+
+                if (chunk.size() >= chunkSize) {
+                    save(session, chunk, generator);
+                    chunk.clear();
+                }
+            }
+
+            save(session, chunk, generator);
+            generator.flush();
+        } finally {
+            try {
+                if (parser != null) {
+                    parser.close();
+                }
+                if (generator != null) {
+                    generator.close();
+                }
+            } finally {
+                api.closeSession(session);
+            }
+        }
+    }
+
+    /**
+     * Applies the specified records, which modifications were discarded, again. Records failing to apply are reported as failed, their
+     * modifications being discarded along with the ones of the records preceding them, which are then applied again.
+     *
+     * @return the records that were applied
+     */
+    private List<Record> apply(Session session, List<Record> records, JsonGenerator generator) throws IOException {
+        List<Record> pending = records;
+        while (true) {
+            final List<Record> applied = new ArrayList<Record>(pending.size());
+            int i = 0;
+            try {
+                for (; i < pending.size(); i++) {
+                    pending.get(i).apply(parent);
+                    applied.add(pending.get(i));
+                }
+                return applied;
+            } catch (Exception e) {
+                writeFailure(generator, pending.get(i).index, getStatus(e), e);
+                refresh(session);
+                applied.addAll(pending.subList(i + 1, pending.size()));
+                pending = applied;
+            }
+        }
+    }
+
+    /**
+     * Saves the modifications of the specified records, reporting them as saved. If saving fails, the modifications are discarded and the
+     * records split in halves which are applied and saved separately, until the records making saving fail are isolated and reported as
+     * failed.
+     */
+    private void save(Session session, List<Record> records, JsonGenerator generator) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+
+        try {
+            session.save();
+            for (Record record : records) {
+                generator.writeStartObject();
+                generator.writeNumberField("record", record.index);
+                generator.writeNumberField("status", record.created ? Response.Status.CREATED.getStatusCode() : Response.Status.OK.getStatusCode());
+                generator.writeStringField("name", record.node.getName());
+                generator.writeStringField("id", record.node.getIdentifier());
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+            }
+        } catch (RepositoryException e) {
+            refresh(session);
+            if (records.size() == 1) {
+                writeFailure(generator, records.get(0).index, getStatus(e), e);
+            } else {
+                final int middle = records.size() / 2;
+                save(session, apply(session, records.subList(0, middle), generator), generator);
+                save(session, apply(session, records.subList(middle, records.size()), generator), generator);
+            }
+        }
+
+        // let the client know how the import progresses
+        generator.flush();
+    }
+
+    private static void refresh(Session session) {
+        try {
+            session.refresh(false);
+        } catch (RepositoryException e) {
+            throw new APIException(e);
+        }
+    }
+
+    private static void writeFailure(JsonGenerator generator, int index, int status, Exception e) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("record", index);
+        generator.writeNumberField("status", status);
+        generator.writeObjectField("error", new APIException.JSONError(e));
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    private static int getStatus(Exception e) {
+        if (e instanceof JsonProcessingException) {
+            return Response.Status.BAD_REQUEST.getStatusCode();
+        }
+        return new APIExceptionMapper().toResponse(new APIException(e)).getStatus();
+    }
+
+    private static class Record {
+        private final int index;
+        private JSONNode data;
+        private Node node;
+        private boolean created;
+
+        private Record(int index) {
+            this.index = index;
+        }
+
+        private void apply(Node parent) throws RepositoryException {
+            node = ChildrenElementAccessor.createOrUpdateChild(parent, data.getName(), data);
+            created = node.isNew();
+        }
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.json.Filter;
+
+import javax.jcr.*;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryResult;
+import javax.jcr.query.Row;
+import javax.jcr.query.RowIterator;
+import javax.jcr.query.qom.*;
+import java.util.NoSuchElementException;
+
+/**
+ * Implements keyset pagination on top of ordered queries: instead of having the repository go through and discard all the results preceding
+ * the requested page as is the case with {@link Query#setOffset(long)}, the query is further constrained so that it only matches results
+ * sorting after the last result of the previous page, as recorded in a {@link ContinuationToken}. Only the primary sort key is used to
+ * constrain the query, results sharing the same primary sort key value being skipped using an offset bounded by the number of such ties.
+ * <p>
+ * Keyset pagination is only available for queries that are ordered and that can be manipulated as {@link QueryObjectModel} instances.
+ * <p>
+ * Results that are filtered out after the query execution don't count towards the requested number of results: if the query results are
+ * exhausted before the page is full, the query is executed again to fetch the following results, so that clients get full pages.
+ * Instances are stateful and must only be used to process the results of a single query.
+ */
+class KeysetPagination {
+    private final Query query;
+    private final DynamicOperand keyOperand;
+    private final ContinuationToken from;
+    private final Value fromKey;
+    private final int limit;
+    private final ValueFactory valueFactory;
+    private QueryBudget budget = QueryBudget.UNLIMITED;
+
+    private int returned;
+    private boolean truncated;
+    private boolean first = true;
+    private Value lastKey;
+    private String lastIdentifier;
+    private int lastKeyOccurrences;
+
+    // window of the query results that the current execution of the query fetches
+    private long batchOffset;
+    private long batchLimit;
+    private long fetched;
+
+    private KeysetPagination(Query query, DynamicOperand keyOperand, ContinuationToken from, Value fromKey, int limit, long batchOffset,
+                             long batchLimit, ValueFactory valueFactory) {
+        this.query = query;
+        this.keyOperand = keyOperand;
+        this.from = from;
+        this.fromKey = fromKey;
+        this.limit = limit;
+        this.batchOffset = batchOffset;
+        this.batchLimit = batchLimit;
+        this.valueFactory = valueFactory;
+    }
+
+    /**
+     * Prepares the pagination of the specified query, constraining it to only return results following the ones referenced by the
+     * specified continuation token, if any, and setting the query limit and offset accordingly. The query to actually execute must be
+     * retrieved using {@link #getQuery()}.
+     *
+     * @param query             the query to paginate
+     * @param continuationToken an optional String representation of a {@link ContinuationToken} identifying the last result of the previous
+     *                          page
+     * @param limit             the maximum number of results to return, <code>0</code> meaning no limit
+     * @param offset            the offset to use if no continuation token is provided
+     * @param session           the session in use
+     * @return a new KeysetPagination instance
+     * @throws RepositoryException      if an error occurred while accessing the repository
+     * @throws IllegalArgumentException if a continuation token is provided for a query that doesn't support keyset pagination or if the
+     *                                  continuation token is invalid
+     */
+    static KeysetPagination paginate(Query query, String continuationToken, int limit, int offset, Session session) throws RepositoryException {
+        final ValueFactory valueFactory = session.getValueFactory();
+        Ordering ordering = null;
+        if (query instanceof QueryObjectModel) {
+            final Ordering[] orderings = ((QueryObjectModel) query).getOrderings();
+            if (orderings != null && orderings.length > 0) {
+                ordering = orderings[0];
+            }
+        }
+
+        if (!Utils.exists(continuationToken)) {
+            if (limit > 0) {
+                query.setLimit(limit);
+            }
+            if (offset > 0) {
+                query.setOffset(offset);
+            }
+            return new KeysetPagination(query, ordering != null ? ordering.getOperand() : null, null, null, limit, Math.max(offset, 0),
+                    Math.max(limit, 0), valueFactory);
+        }
+
+        if (ordering == null) {
+            throw new IllegalArgumentException("Continuation tokens can only be used with ordered queries");
+        }
+
+        final ContinuationToken token = ContinuationToken.fromString(continuationToken);
+        final Value key = token.createValue(valueFactory);
+        final QueryObjectModel qom = (QueryObjectModel) query;
+        final QueryObjectModelFactory qomFactory = session.getWorkspace().getQueryManager().getQOMFactory();
+
+        // only match results which primary sort key is at least the one of the last returned result
+        final String operator = QueryObjectModelConstants.JCR_ORDER_DESCENDING.equals(ordering.getOrder()) ?
+                QueryObjectModelConstants.JCR_OPERATOR_LESS_THAN_OR_EQUAL_TO : QueryObjectModelConstants.JCR_OPERATOR_GREATER_THAN_OR_EQUAL_TO;
+        Constraint constraint = qomFactory.comparison(ordering.getOperand(), operator,
+                qomFactory.literal(key));
+        if (qom.getConstraint() != null) {
+            constraint = qomFactory.and(qom.getConstraint(), constraint);
+        }
+
+        final QueryObjectModel paginated = qomFactory.createQuery(qom.getSource(), constraint, qom.getOrderings(), qom.getColumns());
+
+        // skip ties that were already returned, up to the last returned result which we retrieve again to check it's still where we expect
+        final long batchOffset = token.getOccurrences() - 1;
+        paginated.setOffset(batchOffset);
+        if (limit > 0) {
+            paginated.setLimit(limit + 1);
+        }
+
+        return new KeysetPagination(paginated, ordering.getOperand(), token, key, limit, batchOffset, limit > 0 ? limit + 1 : 0, valueFactory);
+    }
+
+    /**
+     * Retrieves the query to execute.
+     */
+    Query getQuery() {
+        return query;
+    }
+
+    /**
+     * Sets the budget that processing the query results must fit in, results being truncated once it's spent.
+     */
+    void setBudget(QueryBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Determines whether the results were truncated because the budget was spent before the page was full and all results were processed.
+     */
+    boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Iterates over the nodes of the requested page, starting with the specified query results.
+     *
+     * @param nodes  the nodes resulting from the execution of the query returned by {@link #getQuery()}
+     * @param filter the filter that nodes must pass to be part of the page
+     * @return a NodeIterator over the accepted nodes, executing the query again to fetch more results if needed to fill the page
+     */
+    NodeIterator getAcceptedNodes(NodeIterator nodes, Filter filter) {
+        return new PageIterator(nodes, filter, false, null);
+    }
+
+    /**
+     * Iterates over the rows of the requested page, starting with the specified query results.
+     *
+     * @param rows     the rows resulting from the execution of the query returned by {@link #getQuery()}
+     * @param filter   the filter that the nodes associated with the rows must pass to be part of the page
+     * @param selector the name of the selector which nodes are associated with the rows, <code>null</code> if the query only has one
+     *                 selector. Rows without a node for that selector, as can happen with outer joins, are skipped
+     * @return a RowIterator over the accepted rows, executing the query again to fetch more results if needed to fill the page
+     */
+    RowIterator getAcceptedRows(RowIterator rows, Filter filter, String selector) {
+        return new PageIterator(rows, filter, true, selector);
+    }
+
+    /**
+     * Determines whether the specified node, retrieved from the query results, is part of the requested page. This method must be called
+     * in order on each node returned by the query until {@link #isPageFull()} returns <code>true</code>.
+     */
+    private boolean accept(Node node, Filter filter) throws RepositoryException {
+        fetched++;
+
+        if (first) {
+            first = false;
+            if (from != null) {
+                lastKey = fromKey;
+                lastKeyOccurrences = from.getOccurrences();
+
+                // if the first result is the last one from the previous page, skip it. Otherwise, results were added or removed and we
+                // might duplicate or skip some ties, which is the expected trade-off of this pagination mode
+                if (node.getIdentifier().equals(from.getIdentifier())) {
+                    return false;
+                }
+            }
+        }
+
+        if (isPageFull()) {
+            return false;
+        }
+
+        // we only need to record sort keys if a continuation token might be emitted. Filtered out nodes are recorded as well since they
+        // still occupy their position in the query results
+        if (keyOperand != null && limit > 0) {
+            final Value key = getKeyValue(keyOperand, node);
+            if (key != null && lastKey != null && key.getType() == lastKey.getType() && key.getString().equals(lastKey.getString())) {
+                lastKeyOccurrences++;
+            } else {
+                lastKeyOccurrences = 1;
+            }
+            lastKey = key;
+            lastIdentifier = node.getIdentifier();
+        }
+
+        if (!filter.acceptChild(node)) {
+            return false;
+        }
+
+        returned++;
+        return true;
+    }
+
+    /**
+     * Prepares the query to fetch the results following the ones of its last execution, if the page isn't full yet and the last execution
+     * might not have returned all the results.
+     *
+     * @return <code>true</code> if the query needs to be executed again, <code>false</code> otherwise
+     */
+    private boolean prepareNextBatch() {
+        if (batchLimit <= 0 || fetched < batchLimit || isPageFull()) {
+            return false;
+        }
+
+        batchOffset += fetched;
+        batchLimit = limit - returned;
+        fetched = 0;
+        query.setOffset(batchOffset);
+        query.setLimit(batchLimit);
+        return true;
+    }
+
+    /**
+     * Determines whether the requested number of results has been reached, in which case iteration over the results can stop.
+     */
+    boolean isPageFull() {
+        return limit > 0 && returned >= limit;
+    }
+
+    /**
+     * Retrieves the String representation of the continuation token allowing to retrieve the page following the one that was just
+     * processed, if it makes sense.
+     *
+     * @return the String representation of the continuation token or <code>null</code> if the query isn't ordered, the page wasn't full
+     * (unless it was truncated) or the last result didn't have a sort key value
+     */
+    String getNextContinuationToken() {
+        if (!(isPageFull() || truncated) || lastKey == null || lastIdentifier == null) {
+            return null;
+        }
+
+        try {
+            return new ContinuationToken(lastKey.getType(), lastKey.getString(), lastIdentifier, lastKeyOccurrences).asString();
+        } catch (RepositoryException e) {
+            throw new APIException(e);
+        }
+    }
+
+    private Value getKeyValue(DynamicOperand operand, Node node) throws RepositoryException {
+        if (operand instanceof PropertyValue) {
+            final String propertyName = ((PropertyValue) operand).getPropertyName();
+            if (node.hasProperty(propertyName)) {
+                final Property property = node.getProperty(propertyName);
+                return property.isMultiple() ? null : property.getValue();
+            }
+            return null;
+        } else if (operand instanceof NodeName) {
+            return valueFactory.createValue(node.getName(), PropertyType.NAME);
+        } else if (operand instanceof NodeLocalName) {
+            final String name = node.getName();
+            return valueFactory.createValue(name.substring(name.indexOf(':') + 1), PropertyType.STRING);
+        } else if (operand instanceof LowerCase) {
+            final Value value = getKeyValue(((LowerCase) operand).getOperand(), node);
+            return value != null ? valueFactory.createValue(value.getString().toLowerCase(), PropertyType.STRING) : null;
+        } else if (operand instanceof UpperCase) {
+            final Value value = getKeyValue(((UpperCase) operand).getOperand(), node);
+            return value != null ? valueFactory.createValue(value.getString().toUpperCase(), PropertyType.STRING) : null;
+        }
+
+        // other operands (full text search score, length) cannot be meaningfully used as keys
+        return null;
+    }
+
+    /**
+     * Iterates over the accepted results of the query, as nodes or rows, executing the query again as needed to fill the page.
+     */
+    private class PageIterator implements NodeIterator, RowIterator {
+        private final Filter filter;
+        private final boolean rows;
+        private final String selector;
+        private RangeIterator results;
+        private long position;
+        private Node pendingNode;
+        private Row pendingRow;
+
+        private PageIterator(RangeIterator results, Filter filter, boolean rows, String selector) {
+            this.results = results;
+            this.filter = filter;
+            this.rows = rows;
+            this.selector = selector;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (pendingNode == null) {
+                    while (pendingNode == null && results.hasNext() && !isPageFull()) {
+                        if (budget.isSpent(returned)) {
+                            truncated = true;
+                            return false;
+                        }
+
+                        final Row row = rows ? ((RowIterator) results).nextRow() : null;
+                        final Node node = rows ? (selector != null ? row.getNode(selector) : row.getNode()) : ((NodeIterator) results).nextNode();
+                        if (node == null) {
+                            fetched++;
+                            continue;
+                        }
+                        if (accept(node, filter)) {
+                            pendingNode = node;
+                            pendingRow = row;
+                        }
+                    }
+
+                    if (pendingNode == null) {
+                        if (!prepareNextBatch()) {
+                            return false;
+                        }
+                        if (budget.isSpent(returned)) {
+                            truncated = true;
+                            return false;
+                        }
+                        final QueryResult queryResult = query.execute();
+                        results = rows ? queryResult.getRows() : queryResult.getNodes();
+                    }
+                }
+                return true;
+            } catch (RepositoryException e) {
+                throw new APIException(e);
+            }
+        }
+
+        @Override
+        public Node nextNode() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Node node = pendingNode;
+            pendingNode = null;
+            pendingRow = null;
+            position++;
+            return node;
+        }
+
+        @Override
+        public Row nextRow() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Row row = pendingRow;
+            pendingNode = null;
+            pendingRow = null;
+            position++;
+            return row;
+        }
+
+        @Override
+        public Object next() {
+            return rows ? nextRow() : nextNode();
+        }
+
+        @Override
+        public void skip(long skipNum) {
+            for (long i = 0; i < skipNum; i++) {
+                next();
+            }
+        }
+
+        /**
+         * Returns <code>-1</code> since the number of accepted results is only known once they've all been iterated over.
+         */
+        @Override
+        public long getSize() {
+            return -1;
+        }
+
+        @Override
+        public long getPosition() {
+            return position;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.json.Filter;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.nodetype.NodeType;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Filters children based on their types, excluding the node types the API is configured to skip and, optionally, only accepting nodes of
+ * a given set of node types (as requested using the {@link API#CHILDREN_NODETYPE_FILTER} query parameter), then checking that the current
+ * user is allowed to access accepted children.
+ * <p>
+ * Whether children are accepted only depends on their effective type set (their primary type and their mixins) so the decision is made
+ * once per effective type set, using the supertypes of its types, and then remembered so that listing many children of the same types
+ * only requires one lookup per child. Decisions are only valid for the {@link NodeType} instances they were made with: since registering
+ * new definitions for a node type creates new instances, decisions are made again as soon as a node's types aren't the ones they were made
+ * with anymore.
+ */
+final class NodeTypeFilter extends Filter.DefaultFilter {
+    private static final int MAX_FILTERS = 100;
+    private static final int MAX_TYPE_SETS = 1000;
+    private static final ConcurrentMap<List<Set<String>>, NodeTypeFilter> FILTERS = new ConcurrentHashMap<List<Set<String>>, NodeTypeFilter>();
+    private static final Comparator<NodeType> BY_NAME = new Comparator<NodeType>() {
+        @Override
+        public int compare(NodeType o1, NodeType o2) {
+            return o1.getName().compareTo(o2.getName());
+        }
+    };
+
+    private final Set<String> accepted;
+    private final Set<String> excluded;
+    private final ConcurrentMap<String, Decision> decisions = new ConcurrentHashMap<String, Decision>();
+
+    private NodeTypeFilter(Set<String> accepted, Set<String> excluded) {
+        this.accepted = accepted;
+        this.excluded = excluded;
+    }
+
+    /**
+     * Retrieves the filter accepting the specified node types and excluding the other specified node types.
+     *
+     * @param accepted the names of the node types accepted children must be of, all node types being accepted if empty
+     * @param excluded the names of the primary node types of excluded children
+     * @return the filter accepting and excluding the specified node types
+     */
+    static NodeTypeFilter of(Set<String> accepted, Set<String> excluded) {
+        final List<Set<String>> key = Arrays.asList(accepted, excluded);
+        NodeTypeFilter filter = FILTERS.get(key);
+        if (filter == null) {
+            if (FILTERS.size() >= MAX_FILTERS) {
+                FILTERS.clear();
+            }
+            filter = new NodeTypeFilter(new HashSet<String>(accepted), new HashSet<String>(excluded));
+            final NodeTypeFilter existing = FILTERS.putIfAbsent(key, filter);
+            if (existing != null) {
+                filter = existing;
+            }
+        }
+        return filter;
+    }
+
+    @Override
+    public boolean acceptChild(Node child) {
+        try {
+            return isAccepted(child) && SpringBeansAccess.getInstance().hasPermission("jcrestapi.child", child);
+        } catch (RepositoryException e) {
+            throw new RuntimeException("Couldn't access node types of " + child, e);
+        }
+    }
+
+    /**
+     * Determines whether the specified node is accepted by this filter based on its types only.
+     *
+     * @param node the node to check
+     * @return <code>true</code> if the node's effective type set is accepted, <code>false</code> otherwise
+     * @throws RepositoryException if the types of the node couldn't be accessed
+     */
+    boolean isAccepted(Node node) throws RepositoryException {
+        final NodeType primary = node.getPrimaryNodeType();
+        final NodeType[] mixins = node.getMixinNodeTypes();
+        final NodeType[] nodeTypes;
+        final String typeSet;
+        if (mixins == null || mixins.length == 0) {
+            nodeTypes = new NodeType[]{primary};
+            typeSet = primary.getName();
+        } else {
+            nodeTypes = new NodeType[mixins.length + 1];
+            nodeTypes[0] = primary;
+            System.arraycopy(mixins, 0, nodeTypes, 1, mixins.length);
+            Arrays.sort(nodeTypes, 1, nodeTypes.length, BY_NAME);
+
+            final StringBuilder key = new StringBuilder(primary.getName());
+            for (int i = 1; i < nodeTypes.length; i++) {
+                key.append(',').append(nodeTypes[i].getName());
+            }
+            typeSet = key.toString();
+        }
+
+        Decision decision = decisions.get(typeSet);
+        if (decision == null || !decision.isMadeWith(nodeTypes)) {
+            if (decisions.size() >= MAX_TYPE_SETS) {
+                decisions.clear();
+            }
+            decision = new Decision(nodeTypes, decide(nodeTypes));
+            decisions.put(typeSet, decision);
+        }
+        return decision.accepted;
+    }
+
+    private boolean decide(NodeType[] nodeTypes) {
+        if (excluded.contains(nodeTypes[0].getName())) {
+            return false;
+        }
+
+        if (accepted.isEmpty()) {
+            return true;
+        }
+
+        // a node is of an accepted node type if one of its types or of their supertypes is accepted
+        for (NodeType nodeType : nodeTypes) {
+            if (accepted.contains(nodeType.getName())) {
+                return true;
+            }
+            for (NodeType supertype : nodeType.getSupertypes()) {
+                if (accepted.contains(supertype.getName())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static class Decision {
+        private final NodeType[] nodeTypes;
+        private final boolean accepted;
+
+        private Decision(NodeType[] nodeTypes, boolean accepted) {
+            this.nodeTypes = nodeTypes;
+            this.accepted = accepted;
+        }
+
+        private boolean isMadeWith(NodeType[] types) {
+            if (types.length != nodeTypes.length) {
+                return false;
+            }
+            for (int i = 0; i < types.length; i++) {
+                if (types[i] != nodeTypes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
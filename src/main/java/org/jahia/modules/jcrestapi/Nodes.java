@@ -49,28 +49,35 @@ import org.jahia.modules.json.JSONNode;
 import org.jahia.modules.json.JSONProperty;
 
 import javax.jcr.Node;
+import javax.jcr.PathNotFoundException;
 import javax.jcr.Repository;
 import javax.jcr.Session;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
+import java.io.InputStream;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * @author Christophe Laprun
  */
-@Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+@Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_SMILE, Utils.MEDIA_TYPE_APPLICATION_CBOR})
 public class Nodes extends API {
 
     static final String MAPPING = "nodes";
+    static final String IMPORT = "import";
 
-    public Nodes(String workspace, String language, Repository repository, UriInfo context) {
-        super(workspace, language, repository, context);
+    public Nodes(String workspace, String language, Repository repository, UriInfo context, Request request, HttpHeaders headers) {
+        super(workspace, language, repository, context, request, headers);
     }
 
     @GET
-    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_SMILE, Utils.MEDIA_TYPE_APPLICATION_CBOR})
     /**
      * Needed to get URI without trailing / to work :(
      */
@@ -79,7 +86,7 @@ public class Nodes extends API {
     }
 
     @GET
-    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_SMILE, Utils.MEDIA_TYPE_APPLICATION_CBOR})
     @Path("/{id: [^/]*}{subElementType: (/(" + JSONConstants.CHILDREN +
             "|" + JSONConstants.MIXINS +
             "|" + JSONConstants.PROPERTIES +
@@ -93,7 +100,7 @@ public class Nodes extends API {
     }
 
     @PUT
-    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_SMILE, Utils.MEDIA_TYPE_APPLICATION_CBOR})
     @Path("/{id: [^/]*}{subElementType: (/(" + JSONConstants.CHILDREN +
             "|" + JSONConstants.MIXINS +
             "|" + JSONConstants.PROPERTIES +
@@ -112,7 +119,7 @@ public class Nodes extends API {
     @POST
     @Path("/{id: [^/]*}/" + JSONConstants.CHILDREN)
     @Consumes(MediaType.APPLICATION_JSON)
-    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_SMILE, Utils.MEDIA_TYPE_APPLICATION_CBOR})
     public Object createAutomaticallyNamedChildOrProperty(@PathParam("id") String id,
                                           JSONNode childData,
                                           @Context UriInfo context) {
@@ -120,10 +127,49 @@ public class Nodes extends API {
         return perform(workspace, language, context, CREATE_OR_UPDATE, childData, NodeAccessor.BY_ID, processor);
     }
 
+    /**
+     * Creates or updates children of the node identified by the specified identifier from newline-delimited JSON records, saving
+     * modifications every {@code chunkSize} records. The status of each record is streamed back as newline-delimited JSON as the import
+     * progresses, see {@link ImportStreamingOutput}.
+     */
+    @POST
+    @Path("/{id: [^/]*}/" + IMPORT)
+    @Consumes(Utils.MEDIA_TYPE_APPLICATION_NDJSON)
+    @Produces(Utils.MEDIA_TYPE_APPLICATION_NDJSON)
+    public Object importChildren(@PathParam("id") String id,
+                                 @QueryParam(CHUNK_SIZE) @DefaultValue("100") int chunkSize,
+                                 InputStream records,
+                                 @Context UriInfo context) {
+        Session session = null;
+        boolean streaming = false;
+        try {
+            if (chunkSize < 1) {
+                throw new IllegalArgumentException("'" + CHUNK_SIZE + "' must be a positive number, was " + chunkSize);
+            }
+
+            session = getSession(workspace, language);
+            final Node parent = NodeAccessor.BY_ID.getNode(id, session);
+            if (excludedNodeTypes.contains(parent.getPrimaryNodeType().getName()) || !SpringBeansAccess.getInstance().hasPermission("jcrestapi." + CREATE_OR_UPDATE, parent)) {
+                throw new PathNotFoundException(parent.getPath());
+            }
+
+            // the streaming output now owns the session and will close it once the response is written
+            final Response response = Response.ok(new ImportStreamingOutput(this, parent, records, chunkSize), Utils.MEDIA_TYPE_APPLICATION_NDJSON).build();
+            streaming = true;
+            return response;
+        } catch (Exception e) {
+            throw new APIException(e, CREATE_OR_UPDATE, NodeAccessor.BY_ID.getType(), id, IMPORT, Collections.<String>emptyList(), null);
+        } finally {
+            if (!streaming) {
+                closeSession(session);
+            }
+        }
+    }
+
     @PUT
     @Path("/{id: [^/]*}/" + JSONConstants.PROPERTIES + "/{subElement}")
     @Consumes(MediaType.APPLICATION_JSON)
-    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_SMILE, Utils.MEDIA_TYPE_APPLICATION_CBOR})
     public Object createOrUpdateProperty(@PathParam("id") String id,
                                          @PathParam("subElement") String subElement,
                                          JSONProperty childData,
@@ -134,7 +180,7 @@ public class Nodes extends API {
 
     @GET
     @Path("/{id: [^/]*}/" + JSONConstants.PROPERTIES + "/{subElement}")
-    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_SMILE, Utils.MEDIA_TYPE_APPLICATION_CBOR})
     public Object getProperty(@PathParam("id") String id,
                               @PathParam("subElement") String subElement,
                               @Context UriInfo context) {
@@ -0,0 +1,130 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jahia.modules.json.Filter;
+import org.jahia.modules.json.jcr.SessionAccess;
+
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Set;
+
+/**
+ * Writes the JSON representation of the nodes provided by a {@link NodeIterator} one node at a time, as they are retrieved from the
+ * repository, instead of first building the whole result in memory. Since the nodes are only accessed once Jersey writes the response,
+ * instances take ownership of the session the nodes were retrieved with and close it once the response has been written.
+ */
+class NodesStreamingOutput implements StreamingOutput {
+    private final API api;
+    private final SessionAccess.SessionInfo sessionInfo;
+    private final NodeIterator nodes;
+    private final Filter filter;
+    private final int depth;
+    private final ObjectMapper mapper;
+
+    // flags are thread-local and reset once the resource method returns so we need to record them to restore them when writing
+    private final boolean resolveReferences;
+    private final boolean outputLinks;
+    private final Set<String> linkRelations;
+    private final ReferenceResolver referenceResolver;
+    private final PermissionDecisions permissionDecisions;
+    private final boolean includeFullChildren;
+
+    NodesStreamingOutput(API api, NodeIterator nodes, Filter filter, int depth, MediaType mediaType) {
+        this.api = api;
+        this.sessionInfo = SessionAccess.getCurrentSession();
+        this.nodes = nodes;
+        this.filter = filter;
+        this.depth = depth;
+        final ObjectMapper binaryMapper = BinaryJsonProvider.getMapper(mediaType);
+        this.mapper = binaryMapper != null ? binaryMapper : APIJsonProvider.MAPPER;
+        this.resolveReferences = API.shouldResolveReferences();
+        this.outputLinks = API.shouldOutputLinks();
+        this.linkRelations = API.getLinkRelations();
+        this.referenceResolver = API.getReferenceResolver();
+        this.permissionDecisions = API.getPermissionDecisions();
+        this.includeFullChildren = API.shouldIncludeFullChildren();
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        SessionAccess.setCurrentSession(sessionInfo.session, sessionInfo.workspace, sessionInfo.language);
+        API.setResolveReferences(resolveReferences);
+        API.setOutputLinks(outputLinks);
+        API.setLinkRelations(linkRelations);
+        API.setReferenceResolver(referenceResolver);
+        API.setPermissionDecisions(permissionDecisions);
+        API.setIncludeFullChildren(includeFullChildren);
+
+        try {
+            final JsonGenerator generator = mapper.getFactory().createGenerator(output, JsonEncoding.UTF8);
+            generator.writeStartArray();
+            while (nodes.hasNext()) {
+                ReferenceResolver.startItemIfNeeded();
+                // writing a value flushes the generator so that clients get each node as soon as it's rendered
+                mapper.writeValue(generator, API.getFactory().createNode(nodes.nextNode(), filter, depth));
+            }
+            generator.writeEndArray();
+            generator.flush();
+        } catch (RepositoryException e) {
+            throw new APIException(e);
+        } finally {
+            API.setResolveReferences(false);
+            API.setOutputLinks(true);
+            API.setLinkRelations(null);
+            API.setReferenceResolver(null);
+            API.setPermissionDecisions(null);
+            API.setIncludeFullChildren(false);
+            api.closeSession(sessionInfo.session);
+        }
+    }
+}
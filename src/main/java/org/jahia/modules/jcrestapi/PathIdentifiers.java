@@ -0,0 +1,193 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.*;
+
+/**
+ * Caches the identifiers of the nodes accessed using their path so that frequently accessed nodes can be retrieved using their identifier
+ * instead of walking the hierarchy down to them, segment by segment. Entries are evicted when the cache gets larger than its configured
+ * maximum number of entries (least recently used entries being evicted first) and when the nodes they identify, or one of their ancestors,
+ * are moved or removed, as notified by {@link PathIdentifiersInvalidator} instances. Since notifications are asynchronous, nodes retrieved
+ * using a cached identifier are checked to still be at the requested path, falling back to retrieving them using their path otherwise.
+ * <p>
+ * The cache is disabled until it is configured with a positive maximum number of entries.
+ */
+public class PathIdentifiers {
+    private static final PathIdentifiers INSTANCE = new PathIdentifiers();
+    private static final String ROOT = "/";
+
+    private final Object lock = new Object();
+    private final Map<Key, String> identifiers = new LinkedHashMap<Key, String>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    private volatile int maxEntries;
+
+    private PathIdentifiers() {
+    }
+
+    public static PathIdentifiers getInstance() {
+        return INSTANCE;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        synchronized (lock) {
+            this.maxEntries = maxEntries;
+            identifiers.clear();
+        }
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * Retrieves the node at the specified path, using its cached identifier if available.
+     *
+     * @param path    the absolute path of the node to retrieve
+     * @param session the session to retrieve the node with
+     * @return the node at the specified path
+     * @throws RepositoryException if no node exists at the specified path or it couldn't be retrieved
+     */
+    Node getNode(String path, Session session) throws RepositoryException {
+        if (!isEnabled()) {
+            return session.getNode(path);
+        }
+
+        final Key key = new Key(session.getWorkspace().getName(), path);
+        final String identifier;
+        synchronized (lock) {
+            identifier = identifiers.get(key);
+        }
+
+        if (identifier != null) {
+            try {
+                final Node node = session.getNodeByIdentifier(identifier);
+                if (path.equals(node.getPath())) {
+                    return node;
+                }
+            } catch (ItemNotFoundException e) {
+                // the node was removed since it was cached, check if another node replaced it
+            }
+        }
+
+        final Node node = session.getNode(path);
+        synchronized (lock) {
+            identifiers.put(key, node.getIdentifier());
+        }
+        return node;
+    }
+
+    /**
+     * Evicts the identifiers of the nodes at the specified paths and of their descendants.
+     *
+     * @param workspace the workspace in which the nodes were moved or removed
+     * @param paths     the paths of the moved or removed nodes
+     */
+    void invalidate(String workspace, Set<String> paths) {
+        if (paths.isEmpty()) {
+            return;
+        }
+
+        synchronized (lock) {
+            final Iterator<Key> iterator = identifiers.keySet().iterator();
+            while (iterator.hasNext()) {
+                final Key key = iterator.next();
+                if (key.workspace.equals(workspace) && isSameOrDescendantOfOne(key.path, paths)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private static boolean isSameOrDescendantOfOne(String path, Set<String> ancestors) {
+        // walk up the path instead of checking each ancestor so that many paths can be evicted at once
+        String current = path;
+        while (true) {
+            if (ancestors.contains(current)) {
+                return true;
+            }
+            if (ROOT.equals(current)) {
+                return false;
+            }
+            final int lastSlash = current.lastIndexOf('/');
+            current = lastSlash > 0 ? current.substring(0, lastSlash) : ROOT;
+        }
+    }
+
+    private static class Key {
+        private final String workspace;
+        private final String path;
+        private final int hashCode;
+
+        private Key(String workspace, String path) {
+            this.workspace = workspace;
+            this.path = path;
+            this.hashCode = 31 * workspace.hashCode() + path.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            return hashCode == key.hashCode && workspace.equals(key.workspace) && path.equals(key.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
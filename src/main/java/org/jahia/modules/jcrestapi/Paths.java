@@ -64,11 +64,13 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author Christophe Laprun
  */
-@Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+@Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_SMILE, Utils.MEDIA_TYPE_APPLICATION_CBOR})
 public class Paths extends API {
 
     static final String MAPPING = "paths";
@@ -78,55 +80,81 @@ public class Paths extends API {
      */
     private static final int IGNORE_SEGMENTS = getSegmentsNbFrom(API.API_PATH) + 2 + getSegmentsNbFrom(MAPPING);
 
-    public Paths(String workspace, String language, Repository repository, UriInfo context) {
-        super(workspace, language, repository, context);
+    private static final int MAX_PARSED_PATHS = 1000;
+    /**
+     * Remembers how recently requested URIs are split into the path of the target node and the requested sub-element, if any.
+     */
+    private static final ConcurrentMap<String, ParsedPath> PARSED_PATHS = new ConcurrentHashMap<String, ParsedPath>();
+
+    public Paths(String workspace, String language, Repository repository, UriInfo context, Request request, HttpHeaders headers) {
+        super(workspace, language, repository, context, request, headers);
     }
 
     private Object performByPath(UriInfo context, String operation, Object data) {
 
-        // only consider useful segments
-        final List<PathSegment> usefulSegments = getUsefulSegments(context);
-        int index = 0;
-        for (PathSegment segment : usefulSegments) {
-            // check if segment is a sub-element marker
-            String subElementType = segment.getPath();
-            ElementAccessor<?, ?, ?> accessor = ACCESSORS.get(subElementType);
-            if (accessor != null) {
-                String nodePath = computePathUpTo(usefulSegments, index);
-                String subElement = getSubElement(usefulSegments, index);
-                JSONItem<?, ?> converted;
-                if (data != null) {
-                    if (data instanceof String) {
-                        String dataAsString = (String) data;
-                        try {
-                            converted = accessor.convertFrom(dataAsString);
-                        } catch (Exception e) {
-                            throw new APIException(e.getCause(), operation, NodeAccessor.BY_PATH.getType(), nodePath, subElementType, Collections.singletonList(subElement), data);
-                        }
-                    } else if (data instanceof List) {
-                        @SuppressWarnings("unchecked") List<String> dataAsList = (List<String>) data;
-                        return performBatchDelete(workspace, language, nodePath, subElementType, dataAsList, context,
-                                NodeAccessor.BY_PATH);
-                    } else {
-                        throw new APIException(new IllegalArgumentException("Unknown payload type"), operation,
-                                NodeAccessor.BY_PATH.getType(), nodePath,
-                                subElementType, Collections.singletonList(subElement), data);
+        final ParsedPath parsedPath = parse(context);
+        final String nodePath = parsedPath.nodePath;
+        final String subElementType = parsedPath.subElementType;
+        final String subElement = parsedPath.subElement;
+        final ElementAccessor<?, ?, ?> accessor = subElementType != null ? ACCESSORS.get(subElementType) : null;
+        if (accessor != null) {
+            JSONItem<?, ?> converted;
+            if (data != null) {
+                if (data instanceof String) {
+                    String dataAsString = (String) data;
+                    try {
+                        converted = accessor.convertFrom(dataAsString);
+                    } catch (Exception e) {
+                        throw new APIException(e.getCause(), operation, NodeAccessor.BY_PATH.getType(), nodePath, subElementType, Collections.singletonList(subElement), data);
                     }
+                } else if (data instanceof List) {
+                    @SuppressWarnings("unchecked") List<String> dataAsList = (List<String>) data;
+                    return performBatchDelete(workspace, language, nodePath, subElementType, dataAsList, context,
+                            NodeAccessor.BY_PATH);
                 } else {
-                    converted = null;
+                    throw new APIException(new IllegalArgumentException("Unknown payload type"), operation,
+                            NodeAccessor.BY_PATH.getType(), nodePath,
+                            subElementType, Collections.singletonList(subElement), data);
                 }
-                return perform(workspace, language, nodePath, subElementType, subElement, context, operation, converted, NodeAccessor.BY_PATH);
+            } else {
+                converted = null;
             }
-            index++;
+            return perform(workspace, language, nodePath, subElementType, subElement, context, operation, converted, NodeAccessor.BY_PATH);
         }
 
         // todo: check
-        return perform(workspace, language, computePathUpTo(usefulSegments, usefulSegments.size()), "", "", context, operation, null, NodeAccessor.BY_PATH);
+        return perform(workspace, language, nodePath, "", "", context, operation, null, NodeAccessor.BY_PATH);
+    }
+
+    private ParsedPath parse(UriInfo context) {
+        final String uriPath = context.getPath();
+        ParsedPath parsedPath = PARSED_PATHS.get(uriPath);
+        if (parsedPath == null) {
+            parsedPath = parse(getUsefulSegments(context));
+            if (PARSED_PATHS.size() >= MAX_PARSED_PATHS) {
+                PARSED_PATHS.clear();
+            }
+            PARSED_PATHS.put(uriPath, parsedPath);
+        }
+        return parsedPath;
+    }
+
+    private static ParsedPath parse(List<PathSegment> usefulSegments) {
+        int index = 0;
+        for (PathSegment segment : usefulSegments) {
+            // check if segment is a sub-element marker
+            final String subElementType = segment.getPath();
+            if (ACCESSORS.containsKey(subElementType)) {
+                return new ParsedPath(computePathUpTo(usefulSegments, index), subElementType, getSubElement(usefulSegments, index));
+            }
+            index++;
+        }
+        return new ParsedPath(computePathUpTo(usefulSegments, usefulSegments.size()), null, null);
     }
 
     @GET
     @Path("/{path: .*}")
-    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_SMILE, Utils.MEDIA_TYPE_APPLICATION_CBOR})
     public Object get(@PathParam("path") String path,
                       @Context UriInfo context) {
         return performByPath(context, READ, null);
@@ -135,7 +163,7 @@ public class Paths extends API {
     @PUT
     @Path("/{path: .*}")
     @Consumes(MediaType.APPLICATION_JSON)
-    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_SMILE, Utils.MEDIA_TYPE_APPLICATION_CBOR})
     public Object createOrUpdate(String childDataAsJSON,
                                  @Context UriInfo context) {
         return performByPath(context, CREATE_OR_UPDATE, childDataAsJSON);
@@ -144,7 +172,7 @@ public class Paths extends API {
     @POST
     @Path("/{path: .*}")
     @Consumes(MediaType.APPLICATION_JSON)
-    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_SMILE, Utils.MEDIA_TYPE_APPLICATION_CBOR})
     public Object createOrUpdateChildNode(String childData,
                                           @Context UriInfo context) {
         return performByPath(context, CREATE_OR_UPDATE, childData);
@@ -314,4 +342,16 @@ public class Paths extends API {
             return "";
         }
     }
+
+    private static class ParsedPath {
+        private final String nodePath;
+        private final String subElementType;
+        private final String subElement;
+
+        private ParsedPath(String nodePath, String subElementType, String subElement) {
+            this.nodePath = nodePath;
+            this.subElementType = subElementType;
+            this.subElement = subElement;
+        }
+    }
 }
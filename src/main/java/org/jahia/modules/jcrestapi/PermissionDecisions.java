@@ -0,0 +1,117 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the permission decisions made while processing a request so that the {@code PermissionService} is only asked once whether a
+ * given API can be used on a given node, even if the node is rendered several times, e.g. as a child of several nodes or as a node
+ * referenced by several properties. Decisions are keyed by API name, node identifier, workspace and user. Instances are not thread-safe
+ * and must not outlive the request they were created for since permissions can change between requests.
+ */
+public class PermissionDecisions {
+    private final Map<Key, Boolean> decisions = new HashMap<Key, Boolean>(64);
+
+    /**
+     * Retrieves the decision previously made for the specified API and node.
+     *
+     * @param api  the name of the API which use is checked
+     * @param node the node the API is used on
+     * @return the previous decision or <code>null</code> if none was made yet
+     * @throws RepositoryException if an error occurred while accessing the node
+     */
+    Boolean get(String api, Node node) throws RepositoryException {
+        return decisions.get(new Key(api, node));
+    }
+
+    void put(String api, Node node, boolean permitted) throws RepositoryException {
+        decisions.put(new Key(api, node), permitted);
+    }
+
+    private static class Key {
+        private final String api;
+        private final String identifier;
+        private final String workspace;
+        private final String user;
+        private final int hashCode;
+
+        private Key(String api, Node node) throws RepositoryException {
+            final Session session = node.getSession();
+            this.api = api;
+            this.identifier = node.getIdentifier();
+            this.workspace = session.getWorkspace().getName();
+            this.user = session.getUserID();
+            this.hashCode = Arrays.hashCode(new Object[]{api, identifier, workspace, user});
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            return hashCode == key.hashCode
+                    && api.equals(key.api)
+                    && identifier.equals(key.identifier)
+                    && workspace.equals(key.workspace)
+                    && equal(user, key.user);
+        }
+
+        private static boolean equal(Object o1, Object o2) {
+            return o1 == null ? o2 == null : o1.equals(o2);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.jcrestapi.api.PreparedQuery;
+import org.jahia.modules.jcrestapi.json.JSONQuery;
+
+/**
+ * The time and number of results a query execution is allowed to use before its results are truncated. The budget of a query starts with
+ * the server-wide defaults, which prepared queries can override, and can only be further restricted by clients in their requests.
+ */
+class QueryBudget {
+    static final QueryBudget UNLIMITED = new QueryBudget(0, 0);
+
+    private final long deadline;
+    private final int maxResults;
+
+    private QueryBudget(long timeout, int maxResults) {
+        this.deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+        this.maxResults = maxResults;
+    }
+
+    /**
+     * Computes the budget of the specified query, starting now.
+     *
+     * @param jsonQuery     the query as requested by the client
+     * @param preparedQuery the prepared query being executed, if any
+     * @return the budget of the query
+     */
+    static QueryBudget of(JSONQuery jsonQuery, PreparedQuery preparedQuery) {
+        final SpringBeansAccess access = SpringBeansAccess.getInstance();
+        long timeout = access.getQueryTimeout();
+        int maxResults = access.getQueryMaxResults();
+        if (preparedQuery != null) {
+            if (preparedQuery.getTimeout() > 0) {
+                timeout = preparedQuery.getTimeout();
+            }
+            if (preparedQuery.getMaxResults() > 0) {
+                maxResults = preparedQuery.getMaxResults();
+            }
+        }
+
+        if (jsonQuery.getTimeout() < 0 || jsonQuery.getMaxResults() < 0) {
+            throw new IllegalArgumentException("Query timeout and maximum number of results cannot be negative");
+        }
+        timeout = restrict(timeout, jsonQuery.getTimeout());
+        maxResults = (int) restrict(maxResults, jsonQuery.getMaxResults());
+
+        return create(timeout, maxResults);
+    }
+
+    /**
+     * Computes the server-wide default budget, starting now.
+     */
+    static QueryBudget getDefault() {
+        final SpringBeansAccess access = SpringBeansAccess.getInstance();
+        return create(access.getQueryTimeout(), access.getQueryMaxResults());
+    }
+
+    private static QueryBudget create(long timeout, int maxResults) {
+        return timeout > 0 || maxResults > 0 ? new QueryBudget(timeout, maxResults) : UNLIMITED;
+    }
+
+    private static long restrict(long allowed, long requested) {
+        if (requested <= 0) {
+            return allowed;
+        }
+        return allowed > 0 ? Math.min(allowed, requested) : requested;
+    }
+
+    /**
+     * Determines whether this budget is spent, i.e. whether its time is up or the specified number of results reached its maximum number
+     * of results.
+     *
+     * @param results the number of results that were already accepted
+     * @return <code>true</code> if no more results should be processed, <code>false</code> otherwise
+     */
+    boolean isSpent(int results) {
+        return (maxResults > 0 && results >= maxResults) || (deadline > 0 && System.currentTimeMillis() >= deadline);
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.ValueFactory;
+import javax.jcr.nodetype.NodeType;
+import javax.jcr.nodetype.NodeTypeIterator;
+import javax.jcr.nodetype.NodeTypeManager;
+import javax.jcr.query.Query;
+import javax.jcr.query.qom.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Pushes the node type filtering that would otherwise happen on query results, i.e. excluding the node types that are not exposed by the
+ * API and only accepting the node types requested using the {@link API#CHILDREN_NODETYPE_FILTER} parameter, down into the query itself
+ * as additional constraints. This way, the repository doesn't retrieve results that will be discarded anyway and pages of results come
+ * back full.
+ * <p>
+ * Only single-selector queries that can be manipulated as {@link QueryObjectModel} instances can be constrained. Results must still be
+ * filtered after the query execution since the constraints might be partial and permissions cannot be expressed as query constraints.
+ * <p>
+ * Expanding accepted node types to their sub-types requires going through all the registered node types so expansions are remembered per
+ * set of accepted node types. They are only valid for the {@link NodeType} instances of the accepted node types they were made with: since
+ * registering new definitions for a node type creates new instances, expansions are made again as soon as one of the accepted node types
+ * is re-registered. They are also made again after {@link #EXPANSION_TIME_TO_LIVE} so that newly registered sub-types are eventually
+ * taken into account.
+ */
+class QueryConstraints {
+    /**
+     * Maximum number of node types the accepted node types can expand to before we give up on constraining the query with them.
+     */
+    private static final int MAX_ACCEPTED_NODE_TYPES = 64;
+    private static final int MAX_EXPANSIONS = 100;
+    private static final long EXPANSION_TIME_TO_LIVE = 60000;
+    private static final ConcurrentMap<Set<String>, Expansion> EXPANSIONS = new ConcurrentHashMap<Set<String>, Expansion>();
+
+    private QueryConstraints() {
+    }
+
+    /**
+     * Constrains the specified query so that it doesn't match nodes which primary type is excluded from the API and only matches nodes
+     * of the specified accepted node types, if any.
+     *
+     * @param query             the query to constrain
+     * @param acceptedNodeTypes the names of the node types results must be of, an empty set meaning that any node type is accepted
+     * @param session           the session in use
+     * @return a new query with the additional constraints or the specified query if it cannot be constrained or doesn't need to be
+     * @throws RepositoryException if an error occurred while accessing the repository
+     */
+    static Query constrainNodeTypes(Query query, Set<String> acceptedNodeTypes, Session session) throws RepositoryException {
+        if (!(query instanceof QueryObjectModel) || !(((QueryObjectModel) query).getSource() instanceof Selector)) {
+            return query;
+        }
+
+        final QueryObjectModel qom = (QueryObjectModel) query;
+        final String selectorName = ((Selector) qom.getSource()).getSelectorName();
+        final QueryObjectModelFactory qomFactory = session.getWorkspace().getQueryManager().getQOMFactory();
+        final ValueFactory valueFactory = session.getValueFactory();
+        final PropertyValue primaryType = qomFactory.propertyValue(selectorName, "jcr:primaryType");
+
+        Constraint constraint = null;
+        for (String excludedNodeType : API.excludedNodeTypes) {
+            constraint = and(qomFactory, constraint, qomFactory.not(nameComparison(qomFactory, valueFactory, primaryType, excludedNodeType)));
+        }
+
+        if (!acceptedNodeTypes.isEmpty()) {
+            final List<NodeType> nodeTypes = getNodeTypes(acceptedNodeTypes, session.getWorkspace().getNodeTypeManager());
+            if (nodeTypes != null) {
+                if (nodeTypes.isEmpty()) {
+                    // none of the accepted node types exist: nothing can match
+                    constraint = and(qomFactory, constraint, qomFactory.not(qomFactory.propertyExistence(selectorName, "jcr:primaryType")));
+                } else {
+                    final PropertyValue mixinTypes = qomFactory.propertyValue(selectorName, "jcr:mixinTypes");
+                    Constraint accepted = null;
+                    for (NodeType nodeType : nodeTypes) {
+                        final Comparison comparison = nameComparison(qomFactory, valueFactory, nodeType.isMixin() ? mixinTypes : primaryType,
+                                nodeType.getName());
+                        accepted = accepted == null ? comparison : qomFactory.or(accepted, comparison);
+                    }
+                    constraint = and(qomFactory, constraint, accepted);
+                }
+            }
+        }
+
+        if (constraint == null) {
+            return query;
+        }
+
+        return qomFactory.createQuery(qom.getSource(), and(qomFactory, qom.getConstraint(), constraint), qom.getOrderings(), qom.getColumns());
+    }
+
+    /**
+     * Expands the specified node types to all the node types that are of one of these node types, i.e. the node types themselves and
+     * their sub-types, reusing the expansion previously made for the same node types if it's still valid.
+     *
+     * @return the expanded node types or <code>null</code> if they are too many to be used as query constraints
+     */
+    private static List<NodeType> getNodeTypes(Set<String> nodeTypeNames, NodeTypeManager nodeTypeManager) throws RepositoryException {
+        final long now = System.currentTimeMillis();
+        Expansion expansion = EXPANSIONS.get(nodeTypeNames);
+        if (expansion == null || !expansion.isValid(nodeTypeManager, now)) {
+            if (EXPANSIONS.size() >= MAX_EXPANSIONS) {
+                EXPANSIONS.clear();
+            }
+            final Set<String> names = new HashSet<String>(nodeTypeNames);
+            final NodeType[] accepted = getAcceptedNodeTypes(names, nodeTypeManager);
+            expansion = new Expansion(names, accepted, expand(names, nodeTypeManager), now);
+            EXPANSIONS.put(names, expansion);
+        }
+        return expansion.nodeTypes;
+    }
+
+    /**
+     * Retrieves the current instances of the specified node types, in iteration order, <code>null</code> standing for the node types which
+     * don't exist.
+     */
+    private static NodeType[] getAcceptedNodeTypes(Set<String> nodeTypeNames, NodeTypeManager nodeTypeManager) throws RepositoryException {
+        final NodeType[] nodeTypes = new NodeType[nodeTypeNames.size()];
+        int i = 0;
+        for (String nodeTypeName : nodeTypeNames) {
+            nodeTypes[i++] = nodeTypeManager.hasNodeType(nodeTypeName) ? nodeTypeManager.getNodeType(nodeTypeName) : null;
+        }
+        return nodeTypes;
+    }
+
+    /**
+     * Goes through all the registered node types to find the ones that are of one of the specified node types.
+     */
+    private static List<NodeType> expand(Set<String> nodeTypeNames, NodeTypeManager nodeTypeManager) throws RepositoryException {
+        final List<String> existing = new ArrayList<String>(nodeTypeNames.size());
+        for (String nodeTypeName : nodeTypeNames) {
+            if (nodeTypeManager.hasNodeType(nodeTypeName)) {
+                existing.add(nodeTypeName);
+            }
+        }
+
+        final List<NodeType> nodeTypes = new ArrayList<NodeType>();
+        if (existing.isEmpty()) {
+            return nodeTypes;
+        }
+
+        final NodeTypeIterator allNodeTypes = nodeTypeManager.getAllNodeTypes();
+        while (allNodeTypes.hasNext()) {
+            final NodeType nodeType = allNodeTypes.nextNodeType();
+            for (String nodeTypeName : existing) {
+                if (nodeType.isNodeType(nodeTypeName)) {
+                    if (nodeTypes.size() == MAX_ACCEPTED_NODE_TYPES) {
+                        return null;
+                    }
+                    nodeTypes.add(nodeType);
+                    break;
+                }
+            }
+        }
+        return nodeTypes;
+    }
+
+    private static Comparison nameComparison(QueryObjectModelFactory qomFactory, ValueFactory valueFactory, PropertyValue operand, String name)
+            throws RepositoryException {
+        return qomFactory.comparison(operand, QueryObjectModelConstants.JCR_OPERATOR_EQUAL_TO, qomFactory.literal(valueFactory.createValue(name, PropertyType.NAME)));
+    }
+
+    private static Constraint and(QueryObjectModelFactory qomFactory, Constraint constraint, Constraint other) throws RepositoryException {
+        return constraint == null ? other : qomFactory.and(constraint, other);
+    }
+
+    private static class Expansion {
+        private final Set<String> names;
+        private final NodeType[] accepted;
+        private final List<NodeType> nodeTypes;
+        private final long created;
+
+        private Expansion(Set<String> names, NodeType[] accepted, List<NodeType> nodeTypes, long created) {
+            this.names = names;
+            this.accepted = accepted;
+            this.nodeTypes = nodeTypes;
+            this.created = created;
+        }
+
+        private boolean isValid(NodeTypeManager nodeTypeManager, long now) throws RepositoryException {
+            if (now - created > EXPANSION_TIME_TO_LIVE) {
+                return false;
+            }
+
+            final NodeType[] current = getAcceptedNodeTypes(names, nodeTypeManager);
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] != accepted[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.query.Query;
+import javax.jcr.query.qom.*;
+import java.util.*;
+
+/**
+ * Caches the identifiers of the nodes matching prepared queries so that frequently executed queries don't need to be executed again, only
+ * their resulting nodes being resolved from their identifiers. Entries are keyed by everything that can influence the query results,
+ * including the user executing the query since results depend on the user's permissions.
+ * <p>
+ * Entries are evicted when they get older than the configured time to live, when the cache gets larger than its configured maximum number of
+ * entries (least recently used entries being evicted first) and when the content they might depend on is modified, as notified by
+ * {@link QueryResultCacheInvalidator} instances. The content a query depends on is approximated by the path its results are constrained
+ * to, if any, using {@code ISDESCENDANTNODE}, {@code ISCHILDNODE} or {@code ISSAMENODE} constraints, and by the whole workspace otherwise.
+ * <p>
+ * The cache is disabled until it is configured with a positive maximum number of entries.
+ */
+public class QueryResultCache {
+    private static final QueryResultCache INSTANCE = new QueryResultCache();
+    private static final String ROOT = "/";
+
+    private final Object lock = new Object();
+    private final Map<Key, Entry> entries = new LinkedHashMap<Key, Entry>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            return size() > maxEntries;
+        }
+    };
+    private final Map<String, Long> generations = new HashMap<String, Long>(4);
+
+    private volatile int maxEntries;
+    private volatile long timeToLive = 60000;
+
+    private QueryResultCache() {
+    }
+
+    public static QueryResultCache getInstance() {
+        return INSTANCE;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        synchronized (lock) {
+            this.maxEntries = maxEntries;
+            entries.clear();
+        }
+    }
+
+    /**
+     * Sets how long, in seconds, entries are kept in the cache.
+     */
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive * 1000;
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * Retrieves the current generation of the specified workspace, which changes each time content is modified in that workspace. The
+     * generation must be retrieved before a query is executed and passed to {@link #put(Key, List, String, long)} so that results of queries
+     * that ran concurrently with a modification are not cached.
+     */
+    long getGeneration(String workspace) {
+        synchronized (lock) {
+            final Long generation = generations.get(workspace);
+            return generation != null ? generation : 0;
+        }
+    }
+
+    List<String> get(Key key) {
+        synchronized (lock) {
+            final Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+
+            if (System.currentTimeMillis() - entry.created > timeToLive) {
+                entries.remove(key);
+                return null;
+            }
+
+            return entry.identifiers;
+        }
+    }
+
+    void put(Key key, List<String> identifiers, String scope, long generation) {
+        synchronized (lock) {
+            if (isEnabled() && generation == getGeneration(key.workspace)) {
+                entries.put(key, new Entry(identifiers, scope));
+            }
+        }
+    }
+
+    /**
+     * Evicts the entries which results might be affected by the specified event.
+     *
+     * @param workspace the workspace in which the event occurred
+     * @param path      the path of the item the event occurred on
+     * @param eventType the type of the event
+     */
+    void invalidate(String workspace, String path, int eventType) {
+        final Set<String> paths = Collections.singleton(path);
+        invalidate(workspace, paths, isStructural(eventType) ? paths : Collections.<String>emptySet());
+    }
+
+    /**
+     * Evicts the entries which results might be affected by the modifications of the items at the specified paths, scanning the cache only
+     * once for the whole batch of modifications.
+     *
+     * @param workspace       the workspace in which the items were modified
+     * @param paths           the paths of all the modified items
+     * @param structuralPaths the paths of the nodes which were added, removed or moved
+     */
+    void invalidate(String workspace, Set<String> paths, Set<String> structuralPaths) {
+        if (paths.isEmpty() && structuralPaths.isEmpty()) {
+            return;
+        }
+
+        // access control modifications can change the results of queries anywhere below the modified node so be conservative
+        boolean accessControl = false;
+        // modifications impact the results of queries scoped to the modified items or to any of their ancestors
+        final Set<String> affectedScopes = new HashSet<String>((paths.size() + structuralPaths.size()) * 4);
+        for (String path : paths) {
+            accessControl |= isAccessControl(path);
+            addSelfAndAncestors(path, affectedScopes);
+        }
+        for (String path : structuralPaths) {
+            accessControl |= isAccessControl(path);
+            addSelfAndAncestors(path, affectedScopes);
+        }
+
+        synchronized (lock) {
+            final Long generation = generations.get(workspace);
+            generations.put(workspace, generation != null ? generation + 1 : 1);
+
+            final Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final Map.Entry<Key, Entry> entry = iterator.next();
+                if (entry.getKey().workspace.equals(workspace)) {
+                    final String scope = entry.getValue().scope;
+                    // structural modifications also impact the results of queries scoped below the modified node
+                    if (accessControl || affectedScopes.contains(scope) || isSameOrDescendantOfOne(scope, structuralPaths)) {
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    static boolean isStructural(int eventType) {
+        return eventType == Event.NODE_ADDED || eventType == Event.NODE_REMOVED || eventType == Event.NODE_MOVED;
+    }
+
+    private static boolean isAccessControl(String path) {
+        return path.contains("/j:acl") || path.contains("/rep:policy");
+    }
+
+    private static void addSelfAndAncestors(String path, Set<String> paths) {
+        String current = path;
+        while (paths.add(current) && !ROOT.equals(current)) {
+            final int index = current.lastIndexOf('/');
+            current = index > 0 ? current.substring(0, index) : ROOT;
+        }
+    }
+
+    private static boolean isSameOrDescendantOfOne(String path, Set<String> ancestors) {
+        if (ancestors.isEmpty()) {
+            return false;
+        }
+
+        String current = path;
+        while (true) {
+            if (ancestors.contains(current)) {
+                return true;
+            }
+            if (ROOT.equals(current)) {
+                return false;
+            }
+            final int index = current.lastIndexOf('/');
+            current = index > 0 ? current.substring(0, index) : ROOT;
+        }
+    }
+
+    /**
+     * Retrieves the identifiers of the specified nodes, in order.
+     */
+    static List<String> getIdentifiers(NodeIterator nodes) throws RepositoryException {
+        final long size = nodes.getSize();
+        final List<String> identifiers = new ArrayList<String>(size > 0 ? (int) size : 16);
+        while (nodes.hasNext()) {
+            final Node node = nodes.nextNode();
+            identifiers.add(node.getIdentifier());
+        }
+        return identifiers;
+    }
+
+    /**
+     * Determines the path the results of the specified query are constrained to, i.e. the path under which content modifications might
+     * change the results of the query.
+     *
+     * @param query the query
+     * @return the path the specified query's results are constrained to, the root path if it cannot be determined
+     */
+    static String getScope(Query query) {
+        if (query instanceof QueryObjectModel) {
+            final String scope = getScope(((QueryObjectModel) query).getConstraint());
+            if (scope != null) {
+                return scope;
+            }
+        }
+        return ROOT;
+    }
+
+    private static String getScope(Constraint constraint) {
+        if (constraint instanceof DescendantNode) {
+            return ((DescendantNode) constraint).getAncestorPath();
+        } else if (constraint instanceof ChildNode) {
+            return ((ChildNode) constraint).getParentPath();
+        } else if (constraint instanceof SameNode) {
+            return ((SameNode) constraint).getPath();
+        } else if (constraint instanceof And) {
+            final And and = (And) constraint;
+            final String scope = getScope(and.getConstraint1());
+            return scope != null ? scope : getScope(and.getConstraint2());
+        }
+        // other constraints, including disjunctions and negations, cannot restrict the scope of the query
+        return null;
+    }
+
+    private static class Entry {
+        private final List<String> identifiers;
+        private final String scope;
+        private final long created = System.currentTimeMillis();
+
+        private Entry(List<String> identifiers, String scope) {
+            this.identifiers = Collections.unmodifiableList(identifiers);
+            this.scope = scope;
+        }
+    }
+
+    /**
+     * Identifies a query execution: the query itself, its parameters, how its results are paged and the context in which it is executed.
+     */
+    static class Key {
+        private final String workspace;
+        private final String language;
+        private final String user;
+        private final String statement;
+        private final Object parameters;
+        private final Set<String> nodeTypes;
+        private final String continuationToken;
+        private final int limit;
+        private final int offset;
+        private final int hashCode;
+
+        Key(String workspace, String language, String user, String statement, Object parameters, Set<String> nodeTypes, String continuationToken,
+            int limit, int offset) {
+            this.workspace = workspace;
+            this.language = language;
+            this.user = user;
+            this.statement = statement;
+            this.parameters = parameters;
+            this.nodeTypes = nodeTypes;
+            this.continuationToken = continuationToken;
+            this.limit = limit;
+            this.offset = offset;
+            this.hashCode = Arrays.hashCode(new Object[]{workspace, language, user, statement, parameters, nodeTypes, continuationToken, limit, offset});
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            return hashCode == key.hashCode
+                    && limit == key.limit
+                    && offset == key.offset
+                    && workspace.equals(key.workspace)
+                    && language.equals(key.language)
+                    && equal(user, key.user)
+                    && statement.equals(key.statement)
+                    && equal(parameters, key.parameters)
+                    && equal(nodeTypes, key.nodeTypes)
+                    && equal(continuationToken, key.continuationToken);
+        }
+
+        private static boolean equal(Object o1, Object o2) {
+            return o1 == null ? o2 == null : o1.equals(o2);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.services.content.DefaultEventListener;
+import org.jahia.services.content.ExternalEventListener;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Listens to content modifications in a workspace, including the ones happening on other cluster nodes, to evict the
+ * {@link QueryResultCache} entries they might affect. One instance must be registered per workspace.
+ */
+public class QueryResultCacheInvalidator extends DefaultEventListener implements ExternalEventListener {
+
+    @Override
+    public int getEventTypes() {
+        return Event.NODE_ADDED + Event.NODE_REMOVED + Event.NODE_MOVED + Event.PROPERTY_ADDED + Event.PROPERTY_CHANGED + Event.PROPERTY_REMOVED;
+    }
+
+    @Override
+    public void onEvent(EventIterator events) {
+        final QueryResultCache cache = QueryResultCache.getInstance();
+        if (!cache.isEnabled()) {
+            return;
+        }
+
+        // gather all the paths first so that the cache is only scanned once for the whole batch of events
+        final Set<String> paths = new HashSet<String>();
+        final Set<String> structuralPaths = new HashSet<String>();
+        while (events.hasNext()) {
+            final Event event = events.nextEvent();
+            try {
+                final String path = event.getPath();
+                if (QueryResultCache.isStructural(event.getType())) {
+                    structuralPaths.add(path);
+                } else {
+                    paths.add(path);
+                }
+            } catch (RepositoryException e) {
+                // we don't know what was modified so we need to evict everything from this workspace
+                structuralPaths.add("/");
+            }
+        }
+
+        cache.invalidate(getWorkspace(), paths, structuralPaths);
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.*;
+
+/**
+ * Keeps the sessions used by read-only requests open once the requests are processed so that they can be reused by later read-only
+ * requests made by the same user on the same workspace and with the same locale, along with the item states they have already cached.
+ * Sessions are refreshed, discarding any pending modification, before being reused.
+ * <p>
+ * Sessions are logged out once they have been idle for longer than the configured maximum idle time or once they have been open for
+ * longer than the configured maximum lifetime, so that the permissions they evaluated are eventually evaluated again. Idle sessions of all
+ * users, workspaces and locales are swept whenever a session is checked out or in, and the total number of idle sessions is capped. Sessions
+ * that are not returned to the pool within the configured leak timeout are reported and logged out.
+ * <p>
+ * The pool is disabled by default.
+ */
+public class ReadSessionPool {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReadSessionPool.class);
+    private static final ReadSessionPool INSTANCE = new ReadSessionPool();
+
+    private final Object lock = new Object();
+    private final Map<String, Deque<PooledSession>> idle = new HashMap<String, Deque<PooledSession>>();
+    private final Map<Session, PooledSession> borrowed = new IdentityHashMap<Session, PooledSession>();
+
+    private int idleCount;
+
+    private volatile boolean enabled;
+    private volatile int maxIdle = 4;
+    private volatile int maxTotalIdle = 64;
+    private volatile long maxIdleTime = 60000;
+    private volatile long maxLifetime = 300000;
+    private volatile long leakTimeout = 300000;
+
+    private ReadSessionPool() {
+    }
+
+    public static ReadSessionPool getInstance() {
+        return INSTANCE;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets the maximum number of idle sessions kept for a given user, workspace and locale.
+     */
+    public void setMaxIdle(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Sets the maximum number of idle sessions kept for all users, workspaces and locales.
+     */
+    public void setMaxTotalIdle(int maxTotalIdle) {
+        this.maxTotalIdle = maxTotalIdle;
+    }
+
+    /**
+     * Sets how long, in seconds, a session can stay idle in the pool before being logged out.
+     */
+    public void setMaxIdleTime(long maxIdleTime) {
+        this.maxIdleTime = maxIdleTime * 1000;
+    }
+
+    /**
+     * Sets how long, in seconds, a session can be reused before being logged out.
+     */
+    public void setMaxLifetime(long maxLifetime) {
+        this.maxLifetime = maxLifetime * 1000;
+    }
+
+    /**
+     * Sets how long, in seconds, a session can be used by a request before being reported as leaked.
+     */
+    public void setLeakTimeout(long leakTimeout) {
+        this.leakTimeout = leakTimeout * 1000;
+    }
+
+    /**
+     * Identifies the sessions that can be shared by requests.
+     */
+    static String getKey(String user, String workspace, Locale locale) {
+        return user + '/' + workspace + '/' + locale;
+    }
+
+    /**
+     * Retrieves an idle session for the specified key, refreshed so that it sees the latest persisted content.
+     *
+     * @param key the key identifying the user, workspace and locale of the session
+     * @return a refreshed session or <code>null</code> if no idle session is available for the specified key
+     */
+    Session checkout(String key) {
+        final long now = System.currentTimeMillis();
+        sweep(now);
+
+        while (true) {
+            final PooledSession pooled;
+            synchronized (lock) {
+                final Deque<PooledSession> sessions = idle.get(key);
+                pooled = sessions != null ? sessions.pollFirst() : null;
+                if (pooled == null) {
+                    return null;
+                }
+                idleCount--;
+                if (sessions.isEmpty()) {
+                    idle.remove(key);
+                }
+            }
+
+            if (!pooled.isExpired(now) && pooled.session.isLive()) {
+                try {
+                    pooled.session.refresh(false);
+                    checkedOut(pooled, now);
+                    return pooled.session;
+                } catch (RepositoryException e) {
+                    LOGGER.debug("Couldn't refresh pooled session, discarding it", e);
+                }
+            }
+            logout(pooled.session);
+        }
+    }
+
+    /**
+     * Registers the specified newly created session as used by the current request so that it is returned to the pool once the request is
+     * processed.
+     *
+     * @param key     the key identifying the user, workspace and locale of the session
+     * @param session the new session
+     */
+    void checkedOut(String key, Session session) {
+        checkedOut(new PooledSession(key, session), System.currentTimeMillis());
+    }
+
+    private void checkedOut(PooledSession pooled, long now) {
+        pooled.borrowed = now;
+        pooled.borrower = Thread.currentThread().getName();
+        synchronized (lock) {
+            borrowed.put(pooled.session, pooled);
+        }
+    }
+
+    /**
+     * Returns the specified session to the pool if it was obtained from it.
+     *
+     * @param session the session used by a request which processing is complete
+     * @return <code>true</code> if the session belongs to the pool, <code>false</code> if it must be closed by the caller
+     */
+    boolean checkin(Session session) {
+        final long now = System.currentTimeMillis();
+        sweep(now);
+
+        final PooledSession pooled;
+        synchronized (lock) {
+            pooled = borrowed.remove(session);
+            if (pooled == null) {
+                return false;
+            }
+
+            if (enabled && !pooled.isTooOld(now) && session.isLive() && idleCount < maxTotalIdle) {
+                Deque<PooledSession> sessions = idle.get(pooled.key);
+                if (sessions == null) {
+                    sessions = new ArrayDeque<PooledSession>(maxIdle);
+                    idle.put(pooled.key, sessions);
+                }
+                if (sessions.size() < maxIdle) {
+                    pooled.lastUsed = now;
+                    // most recently used sessions are reused first so that the least recently used ones can expire
+                    sessions.addFirst(pooled);
+                    idleCount++;
+                    return true;
+                }
+                if (sessions.isEmpty()) {
+                    idle.remove(pooled.key);
+                }
+            }
+        }
+
+        logout(session);
+        return true;
+    }
+
+    /**
+     * Logs out all the idle sessions and forgets the sessions currently in use, which will be logged out when returned.
+     */
+    public void clear() {
+        final List<PooledSession> sessions = new ArrayList<PooledSession>();
+        synchronized (lock) {
+            for (Deque<PooledSession> idleSessions : idle.values()) {
+                sessions.addAll(idleSessions);
+            }
+            idle.clear();
+            idleCount = 0;
+            borrowed.clear();
+        }
+
+        for (PooledSession pooled : sessions) {
+            logout(pooled.session);
+        }
+    }
+
+    /**
+     * Logs out the idle sessions of all users, workspaces and locales that expired, forgetting the keys that don't have idle sessions anymore,
+     * as well as the sessions that were not returned to the pool within the leak timeout, e.g. because the response streaming them was never
+     * written.
+     */
+    private void sweep(long now) {
+        final List<PooledSession> sessions = new ArrayList<PooledSession>();
+        synchronized (lock) {
+            final Iterator<Deque<PooledSession>> keys = idle.values().iterator();
+            while (keys.hasNext()) {
+                final Deque<PooledSession> idleSessions = keys.next();
+                final Iterator<PooledSession> iterator = idleSessions.iterator();
+                while (iterator.hasNext()) {
+                    final PooledSession pooled = iterator.next();
+                    if (pooled.isExpired(now)) {
+                        sessions.add(pooled);
+                        iterator.remove();
+                        idleCount--;
+                    }
+                }
+                if (idleSessions.isEmpty()) {
+                    keys.remove();
+                }
+            }
+
+            final Iterator<PooledSession> iterator = borrowed.values().iterator();
+            while (iterator.hasNext()) {
+                final PooledSession pooled = iterator.next();
+                if (now - pooled.borrowed > leakTimeout) {
+                    LOGGER.warn("Session for " + pooled.key + " was not returned to the pool " + (now - pooled.borrowed) / 1000
+                            + "s after being used by thread " + pooled.borrower + ", logging it out");
+                    sessions.add(pooled);
+                    iterator.remove();
+                }
+            }
+        }
+
+        for (PooledSession pooled : sessions) {
+            logout(pooled.session);
+        }
+    }
+
+    private static void logout(Session session) {
+        if (session.isLive()) {
+            session.logout();
+        }
+    }
+
+    private class PooledSession {
+        private final String key;
+        private final Session session;
+        private final long created = System.currentTimeMillis();
+        private long lastUsed = created;
+        private long borrowed;
+        private String borrower;
+
+        private PooledSession(String key, Session session) {
+            this.key = key;
+            this.session = session;
+        }
+
+        private boolean isTooOld(long now) {
+            return now - created > maxLifetime;
+        }
+
+        private boolean isExpired(long now) {
+            return isTooOld(now) || now - lastUsed > maxIdleTime;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.jcrestapi.json.APIObjectFactory;
+import org.jahia.modules.jcrestapi.links.APIDecorator;
+import org.jahia.modules.json.Filter;
+import org.jahia.modules.json.JSONItem;
+import org.jahia.modules.json.jcr.SessionAccess;
+
+import javax.jcr.Item;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves the nodes pointed at by reference properties for the duration of a request so that each referenced node is only retrieved,
+ * checked for permission and rendered once per response, however many properties reference it.
+ * <p>
+ * Resolution is limited to a maximum depth: a depth of 1 only resolves the references of the requested items, a depth of 2 also resolves
+ * the references of the referenced nodes and so on. A node is never resolved again while it's being resolved, which breaks reference
+ * cycles.
+ * <p>
+ * When references are shared, resolved nodes are not output with each referencing property but gathered, once, in the {@code references}
+ * section of the top-level item being rendered.
+ */
+public class ReferenceResolver {
+    public static final String SHARED = "shared";
+    static final int MAX_DEPTH = 5;
+
+    private final int maxDepth;
+    private final boolean shared;
+    private final Map<String, JSONItem<? extends Item, APIDecorator>> resolved = new HashMap<>();
+    private final Map<String, Boolean> permissions = new HashMap<>();
+    // identifiers of the references resolved while resolving a given node, used to share them along with it
+    private final Map<String, List<String>> nested = new HashMap<>();
+    // identifiers of the nodes being resolved, outermost first
+    private final LinkedList<String> resolving = new LinkedList<>();
+
+    private boolean itemStarted;
+    private Map<String, JSONItem<? extends Item, APIDecorator>> sharedReferences;
+
+    public ReferenceResolver(int maxDepth, boolean shared) {
+        this.maxDepth = Math.min(Math.max(maxDepth, 1), MAX_DEPTH);
+        this.shared = shared;
+    }
+
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * Signals that the next decorator to claim the shared references section belongs to a new top-level item, e.g. the next node of a
+     * query result.
+     */
+    void startItem() {
+        itemStarted = false;
+        sharedReferences = null;
+    }
+
+    /**
+     * Starts a new top-level item for the resolver of the current request, if any.
+     */
+    static void startItemIfNeeded() {
+        final ReferenceResolver resolver = API.getReferenceResolver();
+        if (resolver != null) {
+            resolver.startItem();
+        }
+    }
+
+    /**
+     * Claims the shared references section of the current top-level item. Only the first decorator created for an item, outside of
+     * reference resolution, gets it.
+     *
+     * @return the section in which the references resolved while rendering the current item will be gathered or <code>null</code> if
+     * references are not shared or the section was already claimed
+     */
+    public Map<String, JSONItem<? extends Item, APIDecorator>> claimSharedReferences() {
+        if (!shared || itemStarted || !resolving.isEmpty()) {
+            return null;
+        }
+
+        itemStarted = true;
+        sharedReferences = new LinkedHashMap<>();
+        return sharedReferences;
+    }
+
+    /**
+     * Resolves the node identified by the specified identifier.
+     *
+     * @param identifier  the identifier of the referenced node
+     * @param outputLinks whether links should be output for the referenced node
+     * @return the representation of the referenced node or <code>null</code> if it cannot be output, either because the current user is
+     * not allowed to access it, it is already being resolved or the maximum resolution depth has been reached
+     * @throws RepositoryException if the referenced node couldn't be accessed
+     */
+    public JSONItem<? extends Item, APIDecorator> resolve(String identifier, boolean outputLinks) throws RepositoryException {
+        JSONItem<? extends Item, APIDecorator> item = resolved.get(identifier);
+        if (item == null) {
+            if (resolving.size() >= maxDepth || resolving.contains(identifier)) {
+                return null;
+            }
+
+            Node node = null;
+            Boolean permitted = permissions.get(identifier);
+            if (permitted == null) {
+                node = SessionAccess.getCurrentSession().session.getNodeByIdentifier(identifier);
+                permitted = SpringBeansAccess.getInstance().hasPermission("jcrestapi.references", node);
+                permissions.put(identifier, permitted);
+            }
+            if (!permitted) {
+                return null;
+            }
+            if (node == null) {
+                node = SessionAccess.getCurrentSession().session.getNodeByIdentifier(identifier);
+            }
+
+            resolving.addLast(identifier);
+            try {
+                item = APIObjectFactory.getInstance().createAPINode(node, Filter.OUTPUT_ALL, API.shouldIncludeFullChildren(),
+                        resolving.size() < maxDepth, outputLinks);
+            } finally {
+                resolving.removeLast();
+            }
+            resolved.put(identifier, item);
+        }
+
+        if (!resolving.isEmpty()) {
+            final String referencing = resolving.getLast();
+            List<String> references = nested.get(referencing);
+            if (references == null) {
+                references = new LinkedList<>();
+                nested.put(referencing, references);
+            }
+            references.add(identifier);
+        }
+
+        share(identifier, item);
+        return item;
+    }
+
+    private void share(String identifier, JSONItem<? extends Item, APIDecorator> item) {
+        if (sharedReferences != null && sharedReferences.put(identifier, item) == null) {
+            // a node rendered for a previous item also needs the nodes it references to be shared with the current one
+            final List<String> references = nested.get(identifier);
+            if (references != null) {
+                for (String reference : references) {
+                    share(reference, resolved.get(reference));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import javax.jcr.observation.Event;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the serialized representations of nodes, and of their sub-elements, so that frequently requested nodes don't need to be rendered
+ * again. Entries are keyed by everything that can influence the representation: the node, what is requested of it, the request URI (and
+ * therefore the workspace, language and flags of the request), the requested media type and the user, since representations depend on
+ * the user's permissions.
+ * <p>
+ * Entries are evicted when the cache gets larger than its configured maximum number of entries or total size in bytes (least recently used
+ * entries being evicted first) and when content they are rendered from is modified, as notified by {@link RepresentationCacheInvalidator}
+ * instances. A representation is rendered from its node and, at most, from its children and their properties so modifications deeper than
+ * the grandchildren of a node, i.e. of the properties of its children, don't evict its entries. Structural modifications of the ancestors of
+ * a node and permission modifications evict conservatively.
+ * <p>
+ * The cache is disabled until it is configured with a positive maximum number of entries.
+ */
+public class RepresentationCache {
+    private static final RepresentationCache INSTANCE = new RepresentationCache();
+    private static final String ROOT = "/";
+    /**
+     * How deep below the path of a node modifications can change its representation: its own properties and children are one level below
+     * and the properties of its children two levels below.
+     */
+    private static final int RENDERED_DEPTH = 2;
+
+    private final Object lock = new Object();
+    private final Map<Key, Entry> entries = new LinkedHashMap<Key, Entry>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            if (size() > maxEntries) {
+                removed(eldest.getValue());
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+    private final Map<String, Long> generations = new HashMap<String, Long>(4);
+    private long size;
+
+    private volatile int maxEntries;
+    private volatile long maxSize = 50 * 1024 * 1024;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private RepresentationCache() {
+    }
+
+    public static RepresentationCache getInstance() {
+        return INSTANCE;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        synchronized (lock) {
+            this.maxEntries = maxEntries;
+            entries.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * Sets the maximum total size, in bytes, of the cached representations.
+     */
+    public void setMaxSize(long maxSize) {
+        synchronized (lock) {
+            this.maxSize = maxSize;
+            entries.clear();
+            size = 0;
+        }
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Retrieves the number of entries evicted to keep the cache within its configured bounds.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Retrieves the number of entries evicted because content they were rendered from was modified.
+     */
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    public int getEntriesCount() {
+        synchronized (lock) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Retrieves the total size, in bytes, of the cached representations.
+     */
+    public long getSize() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    /**
+     * Retrieves the current generation of the specified workspace, which changes each time content is modified in that workspace. The
+     * generation must be retrieved before a representation is rendered and passed to {@link #put(Key, byte[], String, long)} so that
+     * representations rendered concurrently with a modification are not cached.
+     */
+    long getGeneration(String workspace) {
+        synchronized (lock) {
+            final Long generation = generations.get(workspace);
+            return generation != null ? generation : 0;
+        }
+    }
+
+    byte[] get(Key key) {
+        final Entry entry;
+        synchronized (lock) {
+            entry = entries.get(key);
+        }
+
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return entry.representation;
+    }
+
+    void put(Key key, byte[] representation, String path, long generation) {
+        // a single representation larger than the whole cache would evict everything else for nothing
+        if (representation.length > maxSize) {
+            return;
+        }
+
+        synchronized (lock) {
+            if (isEnabled() && generation == getGeneration(key.workspace)) {
+                final Entry entry = new Entry(representation, path);
+                final Entry previous = entries.put(key, entry);
+                if (previous != null) {
+                    removed(previous);
+                }
+                size += representation.length;
+
+                // entries are in least recently used first order
+                final Iterator<Entry> iterator = entries.values().iterator();
+                while (size > maxSize && iterator.hasNext()) {
+                    final Entry eldest = iterator.next();
+                    iterator.remove();
+                    removed(eldest);
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts the entries which representations might be affected by the specified event.
+     *
+     * @param workspace the workspace in which the event occurred
+     * @param path      the path of the item the event occurred on
+     * @param eventType the type of the event
+     */
+    void invalidate(String workspace, String path, int eventType) {
+        final Set<String> paths = Collections.singleton(path);
+        invalidate(workspace, paths, isStructural(eventType) ? paths : Collections.<String>emptySet());
+    }
+
+    /**
+     * Evicts the entries which representations might be affected by the modifications of the items at the specified paths, scanning the
+     * cache only once for the whole batch of modifications.
+     *
+     * @param workspace       the workspace in which the items were modified
+     * @param paths           the paths of all the modified items
+     * @param structuralPaths the paths of the nodes which were added, removed or moved
+     */
+    void invalidate(String workspace, Set<String> paths, Set<String> structuralPaths) {
+        if (paths.isEmpty() && structuralPaths.isEmpty()) {
+            return;
+        }
+
+        // permission modifications can change the representations of nodes anywhere below the modified node and group memberships
+        // modifications, the representations of any node, so be conservative
+        boolean accessControl = false;
+        // the representations of the modified items' nodes and of the ancestors rendering them are affected
+        final Set<String> renderingPaths = new HashSet<String>(paths.size() * (RENDERED_DEPTH + 1));
+        for (String path : paths) {
+            accessControl |= isAccessControl(path);
+            addRenderingPaths(path, renderingPaths);
+        }
+        for (String path : structuralPaths) {
+            accessControl |= isAccessControl(path);
+            addRenderingPaths(path, renderingPaths);
+        }
+
+        synchronized (lock) {
+            final Long generation = generations.get(workspace);
+            generations.put(workspace, generation != null ? generation + 1 : 1);
+
+            final Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final Map.Entry<Key, Entry> entry = iterator.next();
+                final String rendered = entry.getValue().path;
+                // structural modifications impact the representations of the nodes below the modified one since their path changes
+                if (accessControl || (entry.getKey().workspace.equals(workspace)
+                        && (renderingPaths.contains(rendered) || isSameOrDescendantOfOne(rendered, structuralPaths)))) {
+                    iterator.remove();
+                    removed(entry.getValue());
+                    invalidations.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    static boolean isStructural(int eventType) {
+        return eventType == Event.NODE_ADDED || eventType == Event.NODE_REMOVED || eventType == Event.NODE_MOVED;
+    }
+
+    private void removed(Entry entry) {
+        size -= entry.representation.length;
+    }
+
+    private static boolean isAccessControl(String path) {
+        return path.contains("/j:acl") || path.contains("/rep:policy") || path.contains("/j:members");
+    }
+
+    /**
+     * Adds the paths of the nodes which representations the item at the specified path is part of: its own path and the paths of its
+     * ancestors up to {@link #RENDERED_DEPTH} levels above it.
+     */
+    private static void addRenderingPaths(String path, Set<String> renderingPaths) {
+        String current = path;
+        for (int depth = 0; depth <= RENDERED_DEPTH; depth++) {
+            renderingPaths.add(current);
+            if (ROOT.equals(current)) {
+                return;
+            }
+            current = getParent(current);
+        }
+    }
+
+    private static boolean isSameOrDescendantOfOne(String path, Set<String> ancestors) {
+        if (ancestors.isEmpty()) {
+            return false;
+        }
+
+        // walk up the path instead of checking each ancestor so that many paths can be evicted at once
+        String current = path;
+        while (true) {
+            if (ancestors.contains(current)) {
+                return true;
+            }
+            if (ROOT.equals(current)) {
+                return false;
+            }
+            current = getParent(current);
+        }
+    }
+
+    private static String getParent(String path) {
+        final int lastSlash = path.lastIndexOf('/');
+        return lastSlash > 0 ? path.substring(0, lastSlash) : ROOT;
+    }
+
+    private static class Entry {
+        private final byte[] representation;
+        private final String path;
+
+        private Entry(byte[] representation, String path) {
+            this.representation = representation;
+            this.path = path;
+        }
+    }
+
+    /**
+     * Identifies a representation: the node and sub-element it represents, the request it was rendered for and its media type.
+     */
+    static class Key {
+        private final String workspace;
+        private final String identifier;
+        private final String subElementType;
+        private final String subElement;
+        private final String requestURI;
+        private final String mediaType;
+        private final String user;
+        private final int hashCode;
+
+        Key(String workspace, String identifier, String subElementType, String subElement, String requestURI, String mediaType, String user) {
+            this.workspace = workspace;
+            this.identifier = identifier;
+            this.subElementType = subElementType;
+            this.subElement = subElement;
+            this.requestURI = requestURI;
+            this.mediaType = mediaType;
+            this.user = user;
+            this.hashCode = Arrays.hashCode(new Object[]{workspace, identifier, subElementType, subElement, requestURI, mediaType, user});
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            return hashCode == key.hashCode
+                    && workspace.equals(key.workspace)
+                    && identifier.equals(key.identifier)
+                    && equal(subElementType, key.subElementType)
+                    && equal(subElement, key.subElement)
+                    && requestURI.equals(key.requestURI)
+                    && mediaType.equals(key.mediaType)
+                    && equal(user, key.user);
+        }
+
+        private static boolean equal(Object o1, Object o2) {
+            return o1 == null ? o2 == null : o1.equals(o2);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -59,6 +59,8 @@ public final class SpringBeansAccess {
     private Repository repository;
     private boolean disableQuery = true;
     private Set<String> nodeTypesToSkip = Collections.emptySet();
+    private long queryTimeout;
+    private int queryMaxResults;
     private PermissionService permissionService;
     private SpringBeansAccess() {
     }
@@ -83,6 +85,29 @@ public final class SpringBeansAccess {
         return disableQuery;
     }
 
+    /**
+     * Sets the default maximum time, in milliseconds, that processing query results can take before the results are truncated,
+     * <code>0</code> meaning no limit.
+     */
+    public void setQueryTimeout(String queryTimeout) {
+        this.queryTimeout = Long.parseLong(queryTimeout.trim());
+    }
+
+    public long getQueryTimeout() {
+        return queryTimeout;
+    }
+
+    /**
+     * Sets the default maximum number of results a query can return before the results are truncated, <code>0</code> meaning no limit.
+     */
+    public void setQueryMaxResults(String queryMaxResults) {
+        this.queryMaxResults = Integer.parseInt(queryMaxResults.trim());
+    }
+
+    public int getQueryMaxResults() {
+        return queryMaxResults;
+    }
+
     public void setNodeTypesToSkip(String nodeTypesToSkip) {
         this.nodeTypesToSkip = Utils.split(nodeTypesToSkip);
     }
@@ -101,7 +126,18 @@ public final class SpringBeansAccess {
 
     public boolean hasPermission(String api, Node node) throws RepositoryException {
         if (permissionService != null) {
-            return permissionService.hasPermission(api, node);
+            // reuse the decision made earlier in the current request, if any
+            final PermissionDecisions decisions = API.getPermissionDecisions();
+            if (decisions == null) {
+                return permissionService.hasPermission(api, node);
+            }
+
+            Boolean permitted = decisions.get(api, node);
+            if (permitted == null) {
+                permitted = permissionService.hasPermission(api, node);
+                decisions.put(api, node, permitted);
+            }
+            return permitted;
         }
         return true;
     }
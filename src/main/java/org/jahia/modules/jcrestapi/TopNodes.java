@@ -0,0 +1,180 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Orders nodes in memory, by node name or by the value of one of their properties, for queries which ordering the repository cannot be relied
+ * upon to honor.
+ * Only the nodes that might end up in the requested page of results are retained: when bounded, instances only keep as many nodes as
+ * required in a heap, evicting the node that would sort last whenever a better candidate is offered.
+ */
+class TopNodes {
+    private final String propertyName;
+    private final boolean descending;
+    private final int capacity;
+    private final PriorityQueue<Candidate> heap;
+    private final Comparator<Candidate> comparator;
+    private long sequence;
+
+    /**
+     * @param propertyName the name of the property to order nodes by, <code>null</code> to order nodes by name
+     * @param descending   whether nodes should be ordered in descending order
+     * @param capacity     the maximum number of nodes to retain, <code>0</code> meaning no limit
+     */
+    TopNodes(String propertyName, final boolean descending, int capacity) {
+        this.propertyName = propertyName;
+        this.descending = descending;
+        this.capacity = capacity;
+        this.comparator = new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate c1, Candidate c2) {
+                final int result = compareKeys(c1.key, c2.key);
+                // preserve the order in which nodes were offered for equal keys
+                return result != 0 ? (descending ? -result : result) : Long.compare(c1.sequence, c2.sequence);
+            }
+        };
+        // the head of the heap is the retained node that sorts last so that it can be evicted first
+        this.heap = new PriorityQueue<Candidate>(capacity > 0 ? capacity + 1 : 16, Collections.reverseOrder(comparator));
+    }
+
+    /**
+     * Offers the specified node, which is retained if it sorts before the last retained node or if fewer nodes than the capacity are
+     * retained.
+     */
+    void offer(Node node) throws RepositoryException {
+        final Candidate candidate = new Candidate(getKey(node), sequence++, node);
+        if (capacity > 0 && heap.size() == capacity) {
+            if (comparator.compare(candidate, heap.peek()) >= 0) {
+                return;
+            }
+            heap.poll();
+        }
+        heap.add(candidate);
+    }
+
+    /**
+     * Retrieves the retained nodes, in order.
+     */
+    List<Node> getNodes() {
+        final List<Candidate> candidates = new ArrayList<Candidate>(heap);
+        Collections.sort(candidates, comparator);
+        final List<Node> nodes = new ArrayList<Node>(candidates.size());
+        for (Candidate candidate : candidates) {
+            nodes.add(candidate.node);
+        }
+        return nodes;
+    }
+
+    private Object getKey(Node node) throws RepositoryException {
+        if (propertyName == null) {
+            final String name = node.getName();
+            return name.substring(name.indexOf(':') + 1);
+        }
+
+        if (node.hasProperty(propertyName)) {
+            final Property property = node.getProperty(propertyName);
+            if (!property.isMultiple()) {
+                final Value value = property.getValue();
+                switch (value.getType()) {
+                    case PropertyType.LONG:
+                        return value.getLong();
+                    case PropertyType.DOUBLE:
+                        return value.getDouble();
+                    case PropertyType.DECIMAL:
+                        return value.getDecimal();
+                    case PropertyType.DATE:
+                        return value.getDate().getTimeInMillis();
+                    case PropertyType.BOOLEAN:
+                        return value.getBoolean();
+                    case PropertyType.BINARY:
+                        return null;
+                    default:
+                        return value.getString();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compares keys, nodes without a value sorting first like the repository does.
+     */
+    @SuppressWarnings("unchecked")
+    private static int compareKeys(Object key1, Object key2) {
+        if (key1 == null || key2 == null) {
+            return key1 == null ? (key2 == null ? 0 : -1) : 1;
+        }
+
+        if (key1.getClass() == key2.getClass()) {
+            return ((Comparable<Object>) key1).compareTo(key2);
+        }
+        if (key1 instanceof Number && key2 instanceof Number) {
+            return Double.compare(((Number) key1).doubleValue(), ((Number) key2).doubleValue());
+        }
+        return key1.toString().compareTo(key2.toString());
+    }
+
+    private static class Candidate {
+        private final Object key;
+        private final long sequence;
+        private final Node node;
+
+        private Candidate(Object key, long sequence, Node node) {
+            this.key = key;
+            this.sequence = sequence;
+            this.node = node;
+        }
+    }
+}
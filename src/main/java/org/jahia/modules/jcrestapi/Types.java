@@ -49,7 +49,7 @@ import org.jahia.modules.json.JSONNode;
 import org.jahia.modules.json.Names;
 
 import javax.jcr.*;
-import javax.jcr.query.QueryResult;
+import javax.jcr.query.Query;
 import javax.jcr.query.qom.*;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
@@ -58,15 +58,17 @@ import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 /**
  * @author Christophe Laprun
  */
-@Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+@Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_SMILE, Utils.MEDIA_TYPE_APPLICATION_CBOR})
 public class Types extends API {
 
     private static final String SELECTOR_NAME = "type";
     static final String MAPPING = "types";
+    private static final String ORDER_BY_NAME = "name";
 
     public Types(String workspace, String language, Repository repository, UriInfo context) {
         super(workspace, language, repository, context);
@@ -74,7 +76,7 @@ public class Types extends API {
 
     @GET
     @Path("/{type}")
-    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON, Utils.MEDIA_TYPE_APPLICATION_SMILE, Utils.MEDIA_TYPE_APPLICATION_CBOR})
     public Object getByType(@PathParam("workspace") String workspace,
                             @PathParam("language") String language,
                             @PathParam("type") String type,
@@ -82,6 +84,7 @@ public class Types extends API {
                             @QueryParam("orderBy") String orderBy,
                             @QueryParam("limit") int limit,
                             @QueryParam("offset") int offset,
+                            @QueryParam(CONTINUATION_TOKEN) String continuationToken,
                             @QueryParam("depth") int depth,
                             @Context UriInfo context) {
 
@@ -99,7 +102,7 @@ public class Types extends API {
 
         try {
 
-            session = getSession(workspace, language);
+            session = getSession(workspace, language, true);
             final QueryObjectModelFactory qomFactory = session.getWorkspace().getQueryManager().getQOMFactory();
             final ValueFactory valueFactory = session.getValueFactory();
             final Selector selector = qomFactory.selector(unescapedNodetype, SELECTOR_NAME);
@@ -119,36 +122,54 @@ public class Types extends API {
                 }
             }
 
-            Ordering[] orderings = null;
-            // ordering deactivated because it currently doesn't work, probably due to a bug in QueryServiceImpl
-            if (Utils.exists(orderBy)) {
-                if ("desc".equalsIgnoreCase(orderBy)) {
-                    orderings = new Ordering[]{qomFactory.descending(qomFactory.nodeLocalName(SELECTOR_NAME))};
-                } else {
-                    orderings = new Ordering[]{qomFactory.ascending(qomFactory.nodeLocalName(SELECTOR_NAME))};
+            // orderBy is either "asc" or "desc" to order nodes by name, as previously supported, or the name of the property to order by
+            // ("name" ordering nodes by name), optionally followed by a space and "asc" or "desc"
+            String orderProperty = null;
+            boolean descending = false;
+            final boolean ordered = Utils.exists(orderBy);
+            if (ordered) {
+                final String[] orderByElements = orderBy.trim().split("\\s+");
+                String direction = orderByElements[orderByElements.length - 1];
+                if (orderByElements.length == 1 && !isDirection(direction)) {
+                    direction = "asc";
+                } else if (orderByElements.length > 2 || !isDirection(direction)) {
+                    throw new IllegalArgumentException("Invalid orderBy value '" + orderBy + "'");
+                }
+                descending = "desc".equalsIgnoreCase(direction);
+
+                if (!(orderByElements.length == 1 && isDirection(orderByElements[0]) || ORDER_BY_NAME.equals(orderByElements[0]))) {
+                    orderProperty = Names.unescape(orderByElements[0]);
                 }
             }
 
-            final QueryObjectModel query = qomFactory.createQuery(selector, constraint, orderings, new Column[]{qomFactory.column(SELECTOR_NAME, null, null)});
-            if (limit > 0) {
-                query.setLimit(limit);
+            final Column[] columns = new Column[]{qomFactory.column(SELECTOR_NAME, null, null)};
+            final Set<String> childrenNodeTypes = Utils.getChildrenNodeTypes(context);
+            final Filter filter = Utils.getFilter(context);
+
+            if (ordered) {
+                // the repository might silently ignore orderings on these queries so always order results in memory
+                if (Utils.exists(continuationToken)) {
+                    throw new IllegalArgumentException("Continuation tokens cannot be used with orderBy on the types endpoint, use offset instead");
+                }
+                final Query unordered = QueryConstraints.constrainNodeTypes(qomFactory.createQuery(selector, constraint, null, columns),
+                        childrenNodeTypes, session);
+                return getOrderedInMemory(unordered, orderProperty, descending, limit, offset, depth, filter, session);
             }
-            query.setOffset(offset);
 
-            final QueryResult queryResult = query.execute();
+            final QueryObjectModel query = qomFactory.createQuery(selector, constraint, null, columns);
+            final KeysetPagination pagination = KeysetPagination.paginate(QueryConstraints.constrainNodeTypes(query, childrenNodeTypes, session),
+                    continuationToken, limit, offset, session);
+
+            pagination.setBudget(QueryBudget.getDefault());
 
-            final NodeIterator nodes = queryResult.getNodes();
+            final NodeIterator nodes = pagination.getAcceptedNodes(pagination.getQuery().execute().getNodes(), filter);
             final List<JSONNode> result = new LinkedList<JSONNode>();
-            final Filter filter = Utils.getFilter(context);
             while (nodes.hasNext()) {
-                final Node resultNode = nodes.nextNode();
-                if (filter.acceptChild(resultNode)) {
-                    JSONNode node = getFactory().createNode(resultNode, filter, depth);
-                    result.add(node);
-                }
+                JSONNode node = getFactory().createNode(nodes.nextNode(), filter, depth);
+                result.add(node);
             }
 
-            return Response.ok(result).build();
+            return withPaginationHeaders(Response.ok(result), pagination).build();
         } catch (Exception e) {
             throw new APIException(e);
         } finally {
@@ -156,6 +177,36 @@ public class Types extends API {
         }
     }
 
+    private static boolean isDirection(String value) {
+        return "asc".equalsIgnoreCase(value) || "desc".equalsIgnoreCase(value);
+    }
+
+    /**
+     * Executes the specified unordered query, ordering its results in memory, only keeping the nodes needed to build the requested page. All
+     * the accepted results need to be processed to find the ones of the page, within the limits of the default budget: if it is spent
+     * before all results are processed, the page is built from the processed results only and the response is flagged as truncated.
+     */
+    private Response getOrderedInMemory(Query query, String orderProperty, boolean descending, int limit, int offset, int depth, Filter filter,
+                                        Session session) throws RepositoryException {
+        final KeysetPagination pagination = KeysetPagination.paginate(query, null, 0, 0, session);
+        pagination.setBudget(QueryBudget.getDefault());
+
+        final int first = Math.max(offset, 0);
+        final TopNodes topNodes = new TopNodes(orderProperty, descending, limit > 0 ? first + limit : 0);
+        final NodeIterator nodes = pagination.getAcceptedNodes(pagination.getQuery().execute().getNodes(), filter);
+        while (nodes.hasNext()) {
+            topNodes.offer(nodes.nextNode());
+        }
+
+        final List<Node> ordered = topNodes.getNodes();
+        final List<JSONNode> result = new LinkedList<JSONNode>();
+        for (Node node : ordered.subList(Math.min(first, ordered.size()), ordered.size())) {
+            result.add(getFactory().createNode(node, filter, depth));
+        }
+
+        return withPaginationHeaders(Response.ok(result), pagination).build();
+    }
+
     private Comparison stringComparisonConstraint(DynamicOperand operand, String valueOperandShouldBe, QueryObjectModelFactory qomFactory, ValueFactory valueFactory) throws RepositoryException {
         return qomFactory.comparison(operand, QueryObjectModelFactory.JCR_OPERATOR_EQUAL_TO, qomFactory.literal(valueFactory.createValue(valueOperandShouldBe,
                 PropertyType.STRING)));
@@ -43,6 +43,7 @@
  */
 package org.jahia.modules.jcrestapi;
 
+import java.util.Objects;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.jcr.Item;
 import javax.jcr.Node;
@@ -50,6 +51,7 @@ import javax.jcr.Property;
 import javax.jcr.RepositoryException;
 import javax.ws.rs.core.UriInfo;
 
+import org.jahia.modules.jcrestapi.links.Href;
 import org.jahia.modules.json.JSONConstants;
 import org.jahia.modules.json.Names;
 import org.jahia.modules.json.jcr.SessionAccess;
@@ -59,13 +61,24 @@ import org.jahia.modules.json.jcr.SessionAccess;
  */
 public final class URIUtils {
     private static final AtomicReference<String> BASE_URI = new AtomicReference<String>();
+    private static final String ID_SEPARATOR = "/" + Nodes.MAPPING + "/";
+    private static final String PATH_SEPARATOR = "/" + Paths.MAPPING + "/";
+    private static final String PATH_SEPARATOR_WITHOUT_SLASH = "/" + Paths.MAPPING;
+    private static final String TYPE_SEPARATOR = PATH_SEPARATOR + "jcr__system/jcr__nodeTypes/";
+    // the URI prefix for the workspace and language of the current request, shared by all the URIs built while processing it
+    private static final ThreadLocal<Prefix> PREFIX = new ThreadLocal<Prefix>();
 
     private URIUtils() {
     }
 
-    private static String getURIWithWorkspaceAndLanguage() {
+    private static Href getURIWithWorkspaceAndLanguage() {
         final SessionAccess.SessionInfo currentSession = SessionAccess.getCurrentSession();
-        return API.API_PATH + "/" + currentSession.workspace + "/" + currentSession.language;
+        Prefix prefix = PREFIX.get();
+        if (prefix == null || !prefix.isFor(currentSession.workspace, currentSession.language)) {
+            prefix = new Prefix(currentSession.workspace, currentSession.language);
+            PREFIX.set(prefix);
+        }
+        return prefix.href;
     }
 
     public static String getByPathURI(String path) {
@@ -73,15 +86,27 @@ public final class URIUtils {
     }
 
     public static String getByPathURI(String path, boolean removeFirstSlash) {
-        return getURIWithWorkspaceAndLanguage() + (removeFirstSlash ? "/" + Paths.MAPPING : "/" + Paths.MAPPING + "/") + path;
+        return getByPathHref(path, removeFirstSlash).toString();
+    }
+
+    public static Href getByPathHref(String path, boolean removeFirstSlash) {
+        return getURIWithWorkspaceAndLanguage().append(removeFirstSlash ? PATH_SEPARATOR_WITHOUT_SLASH : PATH_SEPARATOR, path);
     }
 
     public static String getTypeURI(String typeName) {
-        return getByPathURI("jcr__system/jcr__nodeTypes/") + typeName;
+        return getTypeHref(typeName).toString();
+    }
+
+    public static Href getTypeHref(String typeName) {
+        return getURIWithWorkspaceAndLanguage().append(TYPE_SEPARATOR, typeName);
     }
 
     public static String getIdURI(String identifier) {
-        return getURIWithWorkspaceAndLanguage() + "/" + Nodes.MAPPING + "/" + identifier;
+        return getIdHref(identifier).toString();
+    }
+
+    public static Href getIdHref(String identifier) {
+        return getURIWithWorkspaceAndLanguage().append(ID_SEPARATOR, identifier);
     }
 
     public static String getURIFor(Item item) {
@@ -89,10 +114,14 @@ public final class URIUtils {
     }
 
     public static String getURIFor(Item item, boolean byPath) {
+        return getHrefFor(item, byPath).toString();
+    }
+
+    public static Href getHrefFor(Item item, boolean byPath) {
         if (item instanceof Node) {
-            return getURIFor((Node) item, byPath);
+            return getHrefFor((Node) item, byPath);
         } else {
-            return getURIFor((Property) item, byPath);
+            return getHrefFor((Property) item, byPath);
         }
     }
 
@@ -101,8 +130,12 @@ public final class URIUtils {
     }
 
     public static String getURIFor(Node node, boolean byPath) {
+        return getHrefFor(node, byPath).toString();
+    }
+
+    public static Href getHrefFor(Node node, boolean byPath) {
         try {
-            return byPath ? getByPathURI(node.getPath(), true) : getIdURI(node.getIdentifier());
+            return byPath ? getByPathHref(node.getPath(), true) : getIdHref(node.getIdentifier());
         } catch (RepositoryException e) {
             throw new APIException(e);
         }
@@ -113,10 +146,12 @@ public final class URIUtils {
     }
 
     public static String getURIFor(Property property, boolean byPath) {
-        final String properties;
+        return getHrefFor(property, byPath).toString();
+    }
+
+    public static Href getHrefFor(Property property, boolean byPath) {
         try {
-            properties = getChildURI(getURIFor(property.getParent(), byPath), JSONConstants.PROPERTIES, false);
-            return getChildURI(properties, property.getName(), true);
+            return getHrefFor(property.getParent(), byPath).child(JSONConstants.PROPERTIES, false).child(property.getName(), true);
         } catch (RepositoryException e) {
             throw new APIException(e);
         }
@@ -175,4 +210,24 @@ public final class URIUtils {
     public static String getAbsoluteURI(String relativeURI) {
         return BASE_URI.get() + relativeURI;
     }
+
+    public static String getBaseURI() {
+        return BASE_URI.get();
+    }
+
+    private static final class Prefix {
+        private final String workspace;
+        private final String language;
+        private final Href href;
+
+        private Prefix(String workspace, String language) {
+            this.workspace = workspace;
+            this.language = language;
+            this.href = Href.of(API.API_PATH + "/" + workspace + "/" + language);
+        }
+
+        private boolean isFor(String workspace, String language) {
+            return Objects.equals(this.workspace, workspace) && Objects.equals(this.language, language);
+        }
+    }
 }
@@ -47,8 +47,12 @@ import org.jahia.modules.json.Filter;
 
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.core.Variant;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -62,6 +66,15 @@ import java.util.Set;
 public class Utils {
 
     public static final String MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON = "application/hal+json";
+    public static final String MEDIA_TYPE_APPLICATION_SMILE = "application/x-jackson-smile";
+    public static final String MEDIA_TYPE_APPLICATION_CBOR = "application/cbor";
+    public static final String MEDIA_TYPE_APPLICATION_NDJSON = "application/x-ndjson";
+
+    private static final MediaType[] PRODUCED_MEDIA_TYPES = {
+            MediaType.valueOf(MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON), MediaType.APPLICATION_JSON_TYPE,
+            MediaType.valueOf(MEDIA_TYPE_APPLICATION_SMILE), MediaType.valueOf(MEDIA_TYPE_APPLICATION_CBOR)
+    };
+    private static final List<Variant> PRODUCED_VARIANTS = Variant.mediaTypes(PRODUCED_MEDIA_TYPES).build();
 
     /**
      * Retrieves whether or not the specified String is not null and not empty.
@@ -107,6 +120,10 @@ public class Utils {
         return getFlagValueFrom(context, API.INCLUDE_FULL_CHILDREN) ? defaultDepth + 1 : defaultDepth;
     }
 
+    /**
+     * @deprecated use {@link #getFilter(UriInfo)} which decides whether children are accepted once per effective type set
+     */
+    @Deprecated
     public static class ChildrenNodeTypeFilter extends Filter.DefaultFilter {
 
         Set<String> acceptedChildrenNodeTypes;
@@ -131,34 +148,112 @@ public class Utils {
     }
 
     public static Filter getFilter(UriInfo context) {
+        final Set<String> childrenNodeTypes = getChildrenNodeTypes(context);
+        if (!childrenNodeTypes.isEmpty()) {
+            // excluded node types are always excluded first
+            return NodeTypeFilter.of(childrenNodeTypes, API.excludedNodeTypes);
+        }
+        return API.NODE_FILTER;
+    }
 
+    /**
+     * Retrieves the names of the node types specified using the {@link API#CHILDREN_NODETYPE_FILTER} query parameter.
+     *
+     * @param context the UriInfo of the current request
+     * @return the set of requested node type names, empty if none were specified
+     */
+    public static Set<String> getChildrenNodeTypes(UriInfo context) {
+        final Set<String> childrenNodeTypes = new HashSet<String>();
         final MultivaluedMap<String, String> queryParameters = context.getQueryParameters();
         if (queryParameters != null) {
             final List<String> childrenNodeTypeFilterValues = queryParameters.get(API.CHILDREN_NODETYPE_FILTER);
             if (childrenNodeTypeFilterValues != null) {
-                if (!childrenNodeTypeFilterValues.isEmpty()) {
-                    Set<String> childrenNodeTypes = new HashSet<String>();
-                    for (String childrenNodeTypeFilterValue : childrenNodeTypeFilterValues) {
-                        childrenNodeTypes.addAll(split(childrenNodeTypeFilterValue));
-                    }
+                for (String childrenNodeTypeFilterValue : childrenNodeTypeFilterValues) {
+                    childrenNodeTypes.addAll(split(childrenNodeTypeFilterValue));
+                }
+            }
+        }
+        return childrenNodeTypes;
+    }
 
-                    if (!childrenNodeTypes.isEmpty()) {
+    /**
+     * Retrieves the names of the link relations specified using the {@link API#LINKS} query parameter.
+     *
+     * @param context the UriInfo of the current request
+     * @return the set of requested link relation names or <code>null</code> if the parameter wasn't specified, meaning that all link
+     * relations should be output
+     */
+    public static Set<String> getLinkRelations(UriInfo context) {
+        final MultivaluedMap<String, String> queryParameters = context.getQueryParameters();
+        if (queryParameters != null) {
+            final List<String> values = queryParameters.get(API.LINKS);
+            if (values != null) {
+                final Set<String> relations = new HashSet<String>();
+                for (String value : values) {
+                    relations.addAll(split(value));
+                }
+                return relations;
+            }
+        }
+        return null;
+    }
 
-                        final ChildrenNodeTypeFilter nodeTypeFilter = new ChildrenNodeTypeFilter(childrenNodeTypes);
+    /**
+     * Creates the resolver in charge of resolving node references for the current request, based on the {@link API#RESOLVE_REFERENCES}
+     * flag, which value can be {@link ReferenceResolver#SHARED} to gather references in a single section, and on the
+     * {@link API#REFERENCES_DEPTH} query parameter.
+     *
+     * @param context the UriInfo of the current request
+     * @return a new resolver or <code>null</code> if references shouldn't be resolved
+     */
+    public static ReferenceResolver getReferenceResolver(UriInfo context) {
+        if (!getFlagValueFrom(context, API.RESOLVE_REFERENCES)) {
+            return null;
+        }
 
-                        // wrap filter so that we can always exclude first excluded node types
-                        return new Filter.DefaultFilter() {
+        final MultivaluedMap<String, String> queryParameters = context.getQueryParameters();
+        final String mode = queryParameters.getFirst(API.RESOLVE_REFERENCES);
+        int depth = 1;
+        final String depthValue = queryParameters.getFirst(API.REFERENCES_DEPTH);
+        if (exists(depthValue)) {
+            try {
+                depth = Integer.parseInt(depthValue.trim());
+            } catch (NumberFormatException e) {
+                // ignore invalid values, like for flags, and use the default depth
+            }
+        }
+        return new ReferenceResolver(depth, ReferenceResolver.SHARED.equals(mode));
+    }
 
-                            @Override
-                            public boolean acceptChild(Node child) {
-                                return API.NODE_FILTER.acceptChild(child) && nodeTypeFilter.acceptChild(child);
-                            }
-                        };
+    /**
+     * Determines the media type of a streamed response, which content type needs to be known before Jersey gets to negotiate it, from the
+     * media types accepted by the client, in order of preference.
+     *
+     * @param headers the headers of the current request
+     * @return the first media type produced by the API that the client accepts, HAL JSON if none
+     */
+    public static MediaType getStreamingMediaType(HttpHeaders headers) {
+        if (headers != null) {
+            for (MediaType acceptable : headers.getAcceptableMediaTypes()) {
+                for (MediaType produced : PRODUCED_MEDIA_TYPES) {
+                    if (acceptable.isCompatible(produced)) {
+                        return produced;
                     }
                 }
             }
         }
-        return API.NODE_FILTER;
+        return PRODUCED_MEDIA_TYPES[0];
+    }
+
+    /**
+     * Negotiates the media type of a response which needs to be serialized before Jersey gets to negotiate it.
+     *
+     * @param request the current request
+     * @return the media type produced by the API that the client prefers or <code>null</code> if the client accepts none of them
+     */
+    public static MediaType getMediaType(Request request) {
+        final Variant variant = request.selectVariant(PRODUCED_VARIANTS);
+        return variant != null ? variant.getMediaType() : null;
     }
 
     public static boolean getFlagValueFrom(UriInfo context, String flagName) {
@@ -80,6 +80,23 @@ public class ChildrenElementAccessor extends ElementAccessor<JSONChildren<APIDec
 
     @Override
     protected CreateOrUpdateResult<JSONNode<APIDecorator>> createOrUpdate(Node node, String subElement, JSONNode nodeData) throws RepositoryException {
+        final boolean isUpdate = subElement != null && !subElement.isEmpty() && node.hasNode(subElement);
+        final Node newOrToUpdate = createOrUpdateChild(node, subElement, nodeData);
+
+        return new CreateOrUpdateResult<JSONNode<APIDecorator>>(isUpdate, getFactory().createNode(newOrToUpdate, 1));
+    }
+
+    /**
+     * Creates or updates the child with the specified name of the specified node from the specified data, generating a name for the child
+     * if none is provided.
+     *
+     * @param node       the parent node
+     * @param subElement the name of the child to create or update, <code>null</code> or empty to create a child with a generated name
+     * @param nodeData   the data of the child
+     * @return the created or updated child
+     * @throws RepositoryException if the child couldn't be created or updated
+     */
+    public static Node createOrUpdateChild(Node node, String subElement, JSONNode nodeData) throws RepositoryException {
         final Node newOrToUpdate;
 
         // is the child already existing? // todo: deal with same name siblings
@@ -116,7 +133,7 @@ public class ChildrenElementAccessor extends ElementAccessor<JSONChildren<APIDec
 
         NodeElementAccessor.initNodeFrom(newOrToUpdate, nodeData);
 
-        return new CreateOrUpdateResult<JSONNode<APIDecorator>>(isUpdate, getFactory().createNode(newOrToUpdate, 1));
+        return newOrToUpdate;
     }
 
     @Override
@@ -110,9 +110,10 @@ public class NodeElementAccessor extends ElementAccessor<JSONSubElementContainer
             if (jsonProperties != null) {
                 final Set<Map.Entry<String, JSONProperty<APIDecorator>>> properties = jsonProperties.entrySet();
 
-                // set the properties
+                // set the properties, resolving the property types of the node, now that its mixins are set, only once
+                final PropertyTypes propertyTypes = PropertyTypes.of(node);
                 for (Map.Entry<String, JSONProperty<APIDecorator>> entry : properties) {
-                    PropertyElementAccessor.setPropertyOnNode(entry.getKey(), entry.getValue(), node);
+                    PropertyElementAccessor.setPropertyOnNode(entry.getKey(), entry.getValue(), node, propertyTypes);
                 }
             }
 
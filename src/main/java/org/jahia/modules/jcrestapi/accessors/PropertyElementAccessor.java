@@ -48,7 +48,6 @@ import javax.jcr.Node;
 import javax.jcr.Property;
 import javax.jcr.RepositoryException;
 import javax.jcr.Value;
-import javax.jcr.nodetype.NodeType;
 import javax.jcr.nodetype.PropertyDefinition;
 import javax.ws.rs.core.UriInfo;
 
@@ -59,7 +58,6 @@ import org.jahia.modules.json.JSONItem;
 import org.jahia.modules.json.JSONProperties;
 import org.jahia.modules.json.JSONProperty;
 import org.jahia.modules.json.Names;
-import org.jahia.services.content.JCRNodeWrapper;
 
 /**
  * @author Christophe Laprun
@@ -68,9 +66,13 @@ public class PropertyElementAccessor extends ElementAccessor<JSONProperties<APID
     private static final ObjectReader reader = mapper.reader(JSONProperty.class);
 
     static Property setPropertyOnNode(String escapedName, JSONProperty jsonProperty, Node node) throws RepositoryException {
+        return setPropertyOnNode(escapedName, jsonProperty, node, PropertyTypes.of(node));
+    }
+
+    static Property setPropertyOnNode(String escapedName, JSONProperty jsonProperty, Node node, PropertyTypes propertyTypes) throws RepositoryException {
         final String propName = Names.unescape(escapedName);
 
-        final Integer type = getTypeOfPropertyOnNode(propName, node);
+        final Integer type = propertyTypes.getRequiredType(propName, node);
 
         if (type == null) {
             // we have a property name for which we don't have a type, so ignore the property
@@ -87,21 +89,6 @@ public class PropertyElementAccessor extends ElementAccessor<JSONProperties<APID
         }
     }
 
-    static Integer getTypeOfPropertyOnNode(String propName, Node node) throws RepositoryException {
-        PropertyDefinition propType;
-
-        if (node instanceof JCRNodeWrapper) {
-            JCRNodeWrapper wrapper = (JCRNodeWrapper) node;
-            propType = wrapper.getApplicablePropertyDefinition(propName);
-        } else {
-            final NodeType type = node.getPrimaryNodeType();
-            final PropertyDefinition[] propertyDefinitions = type.getPropertyDefinitions();
-            propType = getPropertyDefinitionFrom(propName, propertyDefinitions);
-        }
-
-        return propType == null ? null : propType.getRequiredType();
-    }
-
     public static PropertyDefinition getPropertyDefinitionFrom(String propName, PropertyDefinition[] propertyDefinitions) {
         PropertyDefinition propType = null;
         for (PropertyDefinition definition : propertyDefinitions) {
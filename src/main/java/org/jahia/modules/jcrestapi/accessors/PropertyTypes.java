@@ -0,0 +1,186 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.accessors;
+
+import org.jahia.services.content.JCRNodeWrapper;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.nodetype.NodeType;
+import javax.jcr.nodetype.PropertyDefinition;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches, for a given effective type set (a primary type and its mixins), the required types of the properties being written, so that
+ * setting many properties on many nodes of the same types doesn't require resolving the same property definitions over and over. Since
+ * property names come from clients, only the types of properties that do have a definition are cached and at most
+ * {@link #MAX_DEFINITIONS} of them are kept per type set, the least recently used ones being evicted first.
+ * <p>
+ * Effective type sets are identified by the names of their types but cached definitions are only valid for the {@link NodeType} instances
+ * they were resolved with: since registering new definitions for a node type creates new instances, definitions are resolved again as
+ * soon as a node's types aren't the ones they were resolved with anymore.
+ */
+final class PropertyTypes {
+    private static final int MAX_TYPE_SETS = 1000;
+    static final int MAX_DEFINITIONS = 256;
+    private static final ConcurrentMap<String, PropertyTypes> TYPE_SETS = new ConcurrentHashMap<String, PropertyTypes>();
+    private static final Comparator<NodeType> BY_NAME = new Comparator<NodeType>() {
+        @Override
+        public int compare(NodeType o1, NodeType o2) {
+            return o1.getName().compareTo(o2.getName());
+        }
+    };
+
+    private final NodeType[] nodeTypes;
+    private final Object lock = new Object();
+    private final Map<String, Integer> requiredTypes = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > MAX_DEFINITIONS;
+        }
+    };
+
+    private PropertyTypes(NodeType[] nodeTypes) {
+        this.nodeTypes = nodeTypes;
+    }
+
+    /**
+     * Retrieves the property types of the effective type set of the specified node.
+     *
+     * @param node the node which effective type set we want to retrieve the property types of
+     * @return the property types of the specified node's effective type set
+     * @throws RepositoryException if the types of the node couldn't be accessed
+     */
+    static PropertyTypes of(Node node) throws RepositoryException {
+        final NodeType[] mixins = node.getMixinNodeTypes();
+        final int mixinsNb = mixins != null ? mixins.length : 0;
+        final NodeType[] nodeTypes = new NodeType[mixinsNb + 1];
+        nodeTypes[0] = node.getPrimaryNodeType();
+        if (mixinsNb > 0) {
+            System.arraycopy(mixins, 0, nodeTypes, 1, mixinsNb);
+            Arrays.sort(nodeTypes, 1, nodeTypes.length, BY_NAME);
+        }
+
+        final StringBuilder key = new StringBuilder(nodeTypes[0].getName());
+        for (int i = 1; i < nodeTypes.length; i++) {
+            key.append(',').append(nodeTypes[i].getName());
+        }
+        final String typeSet = key.toString();
+
+        PropertyTypes propertyTypes = TYPE_SETS.get(typeSet);
+        if (propertyTypes == null || !propertyTypes.isResolvedWith(nodeTypes)) {
+            if (TYPE_SETS.size() >= MAX_TYPE_SETS) {
+                TYPE_SETS.clear();
+            }
+            propertyTypes = new PropertyTypes(nodeTypes);
+            TYPE_SETS.put(typeSet, propertyTypes);
+        }
+        return propertyTypes;
+    }
+
+    private boolean isResolvedWith(NodeType[] types) {
+        if (types.length != nodeTypes.length) {
+            return false;
+        }
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] != nodeTypes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Retrieves the required type of the property with the specified name on nodes of this effective type set, resolving its definition
+     * on the specified node if it wasn't already.
+     *
+     * @param propName the name of the property
+     * @param node     a node of this effective type set
+     * @return the required type of the property or <code>null</code> if no definition applies to it
+     * @throws RepositoryException if the property definition couldn't be resolved
+     */
+    Integer getRequiredType(String propName, Node node) throws RepositoryException {
+        synchronized (lock) {
+            final Integer requiredType = requiredTypes.get(propName);
+            if (requiredType != null) {
+                return requiredType;
+            }
+        }
+
+        final PropertyDefinition propertyDefinition = resolve(propName, node);
+        if (propertyDefinition == null) {
+            // unknown names aren't cached so that clients can't fill the cache with them
+            return null;
+        }
+
+        final Integer requiredType = propertyDefinition.getRequiredType();
+        synchronized (lock) {
+            requiredTypes.put(propName, requiredType);
+        }
+        return requiredType;
+    }
+
+    int size() {
+        synchronized (lock) {
+            return requiredTypes.size();
+        }
+    }
+
+    private static PropertyDefinition resolve(String propName, Node node) throws RepositoryException {
+        if (node instanceof JCRNodeWrapper) {
+            JCRNodeWrapper wrapper = (JCRNodeWrapper) node;
+            return wrapper.getApplicablePropertyDefinition(propName);
+        } else {
+            final NodeType type = node.getPrimaryNodeType();
+            final PropertyDefinition[] propertyDefinitions = type.getPropertyDefinitions();
+            return PropertyElementAccessor.getPropertyDefinitionFrom(propName, propertyDefinitions);
+        }
+    }
+
+}
@@ -45,15 +45,37 @@ package org.jahia.modules.jcrestapi.api;
 
 import org.jahia.services.content.JCRContentUtils;
 
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.query.InvalidQueryException;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Predefined queries which can be used by the query endpoint.
+ * <p>
+ * The query source is parsed once, when it is set, into a template recording where parameter placeholders are located. Placeholders are
+ * replaced by JCR bind variables in the statement that is actually passed to the repository so that the statement doesn't change from one
+ * execution to the other, parameter values being bound to the query using {@link Query#bindValue(String, Value)}. If the repository refuses
+ * bind variables at some placeholder locations (JCR-SQL2 only accepts them where static operands are expected), the query falls back to
+ * interpolating parameter values in the source.
  */
 public class PreparedQuery {
+    private static final String POSITIONAL_BIND_VARIABLE_PREFIX = "param";
+
     private String name;
     private String source;
+    private long timeout;
+    private int maxResults;
+    private volatile Template template = Template.EMPTY;
+    private volatile boolean bindable = true;
 
     public PreparedQuery() {
     }
@@ -81,9 +103,48 @@ public class PreparedQuery {
     }
 
     public void setSource(String source) {
+        this.template = source != null ? Template.parse(source) : Template.EMPTY;
+        this.bindable = true;
         this.source = source;
     }
 
+    /**
+     * Maximum time, in milliseconds, that processing the results of this query can take before they are truncated, overriding the
+     * server-wide default if greater than <code>0</code>
+     *
+     * @return
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Maximum number of results this query can return before they are truncated, overriding the server-wide default if greater than
+     * <code>0</code>
+     *
+     * @return
+     */
+    public int getMaxResults() {
+        return maxResults;
+    }
+
+    public void setMaxResults(int maxResults) {
+        this.maxResults = maxResults;
+    }
+
+    /**
+     * Get the statement that is passed to the repository, where parameter placeholders are replaced by bind variables
+     *
+     * @return
+     */
+    public String getStatement() {
+        return template.statement;
+    }
+
     /**
      * Get parsed query with position parameters replaced
      *
@@ -91,16 +152,7 @@ public class PreparedQuery {
      * @return
      */
     public String getQuery(List<Object> params) {
-        String res = source;
-        for (Object param : params) {
-            if (param instanceof Number) {
-                res = res.replaceFirst("\\?", param.toString());
-            } else {
-                res = res.replaceFirst("\\?", "'" + JCRContentUtils.sqlEncode(param.toString()) + "'");
-            }
-
-        }
-        return res;
+        return template.interpolate(params, null);
     }
 
     /**
@@ -110,20 +162,247 @@ public class PreparedQuery {
      * @return
      */
     public String getQuery(Map<String, Object> params) {
-        String res = source;
-        for (Map.Entry<String, Object> entry : params.entrySet()) {
-            final String key = entry.getKey();
-            if (key.matches("[a-zA-Z0-9_]+")) {
-                final Object value = entry.getValue();
-                if (value instanceof Number) {
-                    res = res.replaceFirst("(\\s):" + key, "$1" + value.toString());
+        for (String key : params.keySet()) {
+            if (!Template.isValidParameterName(key)) {
+                throw new IllegalArgumentException("Invalid parameter name '" + key + "'");
+            }
+        }
+        return template.interpolate(null, params);
+    }
+
+    /**
+     * Creates a JCR-SQL2 query for this prepared query, using bind variables in lieu of parameter placeholders whenever possible. Values
+     * must then be bound to the returned query (or to a query derived from it) using {@link #bindValues(Query, ValueFactory, List)}. If the
+     * repository refuses bind variables where placeholders are located, the returned query has the specified parameters interpolated
+     * instead.
+     *
+     * @param queryManager the query manager to use to create the query
+     * @param params       the positional parameters, only used if the query cannot use bind variables
+     * @return a new query
+     * @throws RepositoryException if the query couldn't be created
+     */
+    public Query createQuery(QueryManager queryManager, List<Object> params) throws RepositoryException {
+        return createQuery(queryManager, params, null);
+    }
+
+    /**
+     * Creates a JCR-SQL2 query for this prepared query, using bind variables in lieu of parameter placeholders whenever possible. Values
+     * must then be bound to the returned query (or to a query derived from it) using {@link #bindValues(Query, ValueFactory, Map)}. If the
+     * repository refuses bind variables where placeholders are located, the returned query has the specified parameters interpolated
+     * instead.
+     *
+     * @param queryManager the query manager to use to create the query
+     * @param params       the named parameters, only used if the query cannot use bind variables
+     * @return a new query
+     * @throws RepositoryException if the query couldn't be created
+     */
+    public Query createQuery(QueryManager queryManager, Map<String, Object> params) throws RepositoryException {
+        return createQuery(queryManager, null, params);
+    }
+
+    private Query createQuery(QueryManager queryManager, List<Object> positional, Map<String, Object> named) throws RepositoryException {
+        final Template current = template;
+        if (!current.hasPlaceholders()) {
+            return queryManager.createQuery(current.statement, Query.JCR_SQL2);
+        }
+
+        if (bindable) {
+            try {
+                return queryManager.createQuery(current.statement, Query.JCR_SQL2);
+            } catch (InvalidQueryException e) {
+                // some placeholders are located where bind variables are not allowed, remember it so that we don't try again
+                bindable = false;
+            }
+        }
+
+        return queryManager.createQuery(named != null ? getQuery(named) : current.interpolate(positional, null), Query.JCR_SQL2);
+    }
+
+    /**
+     * Binds the specified positional parameters to the bind variables of the specified query, as created by
+     * {@link #createQuery(QueryManager, List)}.
+     *
+     * @param query        the query to bind values to
+     * @param valueFactory the value factory to use to create the values
+     * @param params       the positional parameters
+     * @throws RepositoryException if a value couldn't be bound
+     */
+    public void bindValues(Query query, ValueFactory valueFactory, List<Object> params) throws RepositoryException {
+        final String[] variables = query.getBindVariableNames();
+        final int prefixLength = POSITIONAL_BIND_VARIABLE_PREFIX.length();
+        for (String variable : variables) {
+            if (variable.startsWith(POSITIONAL_BIND_VARIABLE_PREFIX)) {
+                try {
+                    final int index = Integer.parseInt(variable.substring(prefixLength)) - 1;
+                    if (index >= 0 && index < params.size()) {
+                        query.bindValue(variable, createValue(params.get(index), valueFactory));
+                    }
+                } catch (NumberFormatException e) {
+                    // not one of our positional variables
+                }
+            }
+        }
+    }
+
+    /**
+     * Binds the specified named parameters to the bind variables of the specified query, as created by
+     * {@link #createQuery(QueryManager, Map)}.
+     *
+     * @param query        the query to bind values to
+     * @param valueFactory the value factory to use to create the values
+     * @param params       the named parameters
+     * @throws RepositoryException if a value couldn't be bound
+     */
+    public void bindValues(Query query, ValueFactory valueFactory, Map<String, Object> params) throws RepositoryException {
+        for (String key : params.keySet()) {
+            if (!Template.isValidParameterName(key)) {
+                throw new IllegalArgumentException("Invalid parameter name '" + key + "'");
+            }
+        }
+
+        final String[] variables = query.getBindVariableNames();
+        for (String variable : variables) {
+            if (params.containsKey(variable)) {
+                query.bindValue(variable, createValue(params.get(variable), valueFactory));
+            }
+        }
+    }
+
+    private static Value createValue(Object value, ValueFactory valueFactory) {
+        if (value instanceof BigDecimal) {
+            return valueFactory.createValue((BigDecimal) value);
+        } else if (value instanceof BigInteger) {
+            return valueFactory.createValue(new BigDecimal((BigInteger) value));
+        } else if (value instanceof Double || value instanceof Float) {
+            return valueFactory.createValue(((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            return valueFactory.createValue(((Number) value).longValue());
+        } else {
+            return valueFactory.createValue(String.valueOf(value));
+        }
+    }
+
+    /**
+     * The parsed form of a query source: the source is split into literal fragments separated by parameter placeholders, either positional
+     * ('?') or named (':' followed by the parameter name and preceded by a whitespace). Placeholders found in string literals or quoted and
+     * bracketed names are ignored.
+     */
+    private static final class Template {
+        private static final Template EMPTY = new Template(Collections.singletonList(""), Collections.<String>emptyList(), "");
+
+        private final List<String> fragments;
+        // null entries denote positional placeholders
+        private final List<String> placeholders;
+        private final String statement;
+
+        private Template(List<String> fragments, List<String> placeholders, String statement) {
+            this.fragments = fragments;
+            this.placeholders = placeholders;
+            this.statement = statement;
+        }
+
+        static Template parse(String source) {
+            final List<String> fragments = new ArrayList<String>();
+            final List<String> placeholders = new ArrayList<String>();
+            final StringBuilder statement = new StringBuilder(source.length() + 16);
+            final int length = source.length();
+
+            int fragmentStart = 0;
+            int positional = 0;
+            int i = 0;
+            while (i < length) {
+                final char c = source.charAt(i);
+                if (c == '\'' || c == '"') {
+                    i = skipPast(source, i + 1, c);
+                } else if (c == '[') {
+                    i = skipPast(source, i + 1, ']');
+                } else if (c == '?') {
+                    fragments.add(source.substring(fragmentStart, i));
+                    placeholders.add(null);
+                    statement.append(source, fragmentStart, i).append('$').append(POSITIONAL_BIND_VARIABLE_PREFIX).append(++positional);
+                    fragmentStart = ++i;
+                } else if (c == ':' && i > 0 && Character.isWhitespace(source.charAt(i - 1))) {
+                    int end = i + 1;
+                    while (end < length && isParameterNameChar(source.charAt(end))) {
+                        end++;
+                    }
+                    if (end > i + 1) {
+                        final String name = source.substring(i + 1, end);
+                        fragments.add(source.substring(fragmentStart, i));
+                        placeholders.add(name);
+                        statement.append(source, fragmentStart, i).append('$').append(name);
+                        fragmentStart = end;
+                    }
+                    i = end;
+                } else {
+                    i++;
+                }
+            }
+            fragments.add(source.substring(fragmentStart));
+            statement.append(source, fragmentStart, length);
+
+            return new Template(fragments, placeholders, statement.toString());
+        }
+
+        private static int skipPast(String source, int from, char closing) {
+            final int end = source.indexOf(closing, from);
+            return end < 0 ? source.length() : end + 1;
+        }
+
+        private static boolean isParameterNameChar(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+        }
+
+        static boolean isValidParameterName(String name) {
+            if (name == null || name.isEmpty()) {
+                return false;
+            }
+            for (int i = 0; i < name.length(); i++) {
+                if (!isParameterNameChar(name.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean hasPlaceholders() {
+            return !placeholders.isEmpty();
+        }
+
+        /**
+         * Replaces placeholders by the specified values, placeholders for which no value is provided being left untouched.
+         */
+        String interpolate(List<Object> positional, Map<String, Object> named) {
+            final StringBuilder result = new StringBuilder(statement.length() + 32 * placeholders.size());
+            int position = 0;
+            for (int i = 0; i < placeholders.size(); i++) {
+                result.append(fragments.get(i));
+                final String placeholder = placeholders.get(i);
+                if (placeholder == null) {
+                    if (positional != null && position < positional.size()) {
+                        appendValue(result, positional.get(position));
+                    } else {
+                        result.append('?');
+                    }
+                    position++;
                 } else {
-                    res = res.replaceFirst("(\\s):" + key, "$1'" + JCRContentUtils.sqlEncode(value.toString()) + "'");
+                    if (named != null && named.containsKey(placeholder)) {
+                        appendValue(result, named.get(placeholder));
+                    } else {
+                        result.append(':').append(placeholder);
+                    }
                 }
+            }
+            result.append(fragments.get(placeholders.size()));
+            return result.toString();
+        }
+
+        private static void appendValue(StringBuilder result, Object value) {
+            if (value instanceof Number) {
+                result.append(value.toString());
             } else {
-                throw new IllegalArgumentException("Invalid parameter name '" + key + "'");
+                result.append('\'').append(JCRContentUtils.sqlEncode(String.valueOf(value))).append('\'');
             }
         }
-        return res;
     }
 }
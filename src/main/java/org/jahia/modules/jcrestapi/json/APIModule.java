@@ -0,0 +1,362 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
+import com.fasterxml.jackson.databind.ser.std.BeanSerializerBase;
+import org.jahia.modules.jcrestapi.links.APIDecorator;
+import org.jahia.modules.jcrestapi.links.JSONLink;
+import org.jahia.modules.jcrestapi.links.Links;
+import org.jahia.modules.json.JSONItem;
+import org.jahia.modules.json.JSONNode;
+import org.jahia.modules.json.JSONProperty;
+import org.jahia.modules.json.JSONSubElementContainer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * Speeds up the serialization of the representations that can appear in large numbers in responses, with an output identical to the one
+ * of the annotation-driven serialization:
+ * <ul>
+ * <li>query rows, node references and links are written field by field by hand-written serializers,</li>
+ * <li>nodes, properties and decorators, whose layout is defined by annotations, are written by hand-written serializers reading their
+ * fields with explicit getters, following the layout Jackson resolved from the annotations, see {@link ModelSerializer}.</li>
+ * </ul>
+ */
+public class APIModule extends SimpleModule {
+
+    public APIModule() {
+        super("jcrestapi", Version.unknownVersion());
+        addSerializer(JSONRow.class, new JSONRowSerializer());
+        addSerializer(JSONNodeReference.class, new JSONNodeReferenceSerializer());
+        addSerializer(JSONLink.class, new JSONLinkSerializer());
+        setSerializerModifier(new ModelSerializerModifier());
+    }
+
+    static class ModelSerializerModifier extends BeanSerializerModifier {
+        @Override
+        public JsonSerializer<?> modifySerializer(SerializationConfig config, BeanDescription beanDesc, JsonSerializer<?> serializer) {
+            if (!(serializer instanceof BeanSerializerBase) || ((BeanSerializerBase) serializer).usesObjectId()) {
+                return serializer;
+            }
+
+            final Class<?> beanClass = beanDesc.getBeanClass();
+            final BeanSerializerBase annotationSerializer = (BeanSerializerBase) serializer;
+            if (JSONNode.class.isAssignableFrom(beanClass)) {
+                return new JSONNodeSerializer(beanClass, annotationSerializer, false);
+            } else if (JSONProperty.class.isAssignableFrom(beanClass)) {
+                return new JSONPropertySerializer(beanClass, annotationSerializer, false);
+            } else if (APIDecorator.class.isAssignableFrom(beanClass)) {
+                return new APIDecoratorSerializer(beanClass, annotationSerializer, false);
+            }
+            return serializer;
+        }
+    }
+
+    abstract static class JSONItemSerializer<T extends JSONItem> extends ModelSerializer<T> {
+        static final int NAME = 0;
+        static final int TYPE = 1;
+
+        JSONItemSerializer(Class<?> type, BeanSerializerBase annotationSerializer, boolean unwrapping) {
+            super(type, annotationSerializer, unwrapping);
+        }
+
+        @Override
+        int getField(String name, Class<?> type) {
+            if (type == String.class) {
+                if ("name".equals(name)) {
+                    return NAME;
+                } else if ("type".equals(name)) {
+                    return TYPE;
+                }
+            }
+            return UNBOUND;
+        }
+
+        @Override
+        boolean writeField(int field, String name, T item, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            switch (field) {
+                case NAME:
+                    return writeString(name, item.getName(), generator);
+                case TYPE:
+                    return writeString(name, item.getTypeName(), generator);
+                default:
+                    throw new IllegalArgumentException("Unknown field " + field + " for " + name);
+            }
+        }
+    }
+
+    static class JSONNodeSerializer extends JSONItemSerializer<JSONNode> {
+        private static final int ID = 2;
+        private static final int PROPERTIES = 3;
+        private static final int PROPERTIES_MAP = 4;
+        private static final int MIXINS = 5;
+        private static final int MIXINS_MAP = 6;
+        private static final int CHILDREN = 7;
+        private static final int CHILDREN_MAP = 8;
+        private static final int VERSIONS = 9;
+
+        JSONNodeSerializer(Class<?> type, BeanSerializerBase annotationSerializer, boolean unwrapping) {
+            super(type, annotationSerializer, unwrapping);
+        }
+
+        @Override
+        ModelSerializer<JSONNode> withAnnotationSerializer(BeanSerializerBase annotationSerializer, boolean unwrapping) {
+            return new JSONNodeSerializer(handledType(), annotationSerializer, unwrapping);
+        }
+
+        @Override
+        int getField(String name, Class<?> type) {
+            // sub-elements are either output as their container, with its links, or as a plain map, depending on the declared type
+            final boolean container = JSONSubElementContainer.class.isAssignableFrom(type);
+            final boolean map = Map.class.isAssignableFrom(type);
+            if ("id".equals(name) && type == String.class) {
+                return ID;
+            } else if ("properties".equals(name)) {
+                return container ? PROPERTIES : (map ? PROPERTIES_MAP : UNBOUND);
+            } else if ("mixins".equals(name)) {
+                return container ? MIXINS : (map ? MIXINS_MAP : UNBOUND);
+            } else if ("children".equals(name)) {
+                return container ? CHILDREN : (map ? CHILDREN_MAP : UNBOUND);
+            } else if ("versions".equals(name)) {
+                return container ? VERSIONS : UNBOUND;
+            }
+            return super.getField(name, type);
+        }
+
+        @Override
+        boolean writeField(int field, String name, JSONNode node, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            switch (field) {
+                case ID:
+                    return writeString(name, node.getId(), generator);
+                case PROPERTIES:
+                    return writeObject(name, node.getJSONProperties(), generator, provider);
+                case PROPERTIES_MAP:
+                    return writeObject(name, node.getProperties(), generator, provider);
+                case MIXINS:
+                    return writeObject(name, node.getJSONMixins(), generator, provider);
+                case MIXINS_MAP:
+                    return writeObject(name, node.getMixins(), generator, provider);
+                case CHILDREN:
+                    return writeObject(name, node.getJSONChildren(), generator, provider);
+                case CHILDREN_MAP:
+                    return writeObject(name, node.getChildren(), generator, provider);
+                case VERSIONS:
+                    return writeObject(name, node.getJSONVersions(), generator, provider);
+                default:
+                    return super.writeField(field, name, node, generator, provider);
+            }
+        }
+    }
+
+    static class JSONPropertySerializer extends JSONItemSerializer<JSONProperty> {
+        private static final int VALUE = 2;
+        private static final int MULTI_VALUED = 3;
+        private static final int REFERENCE = 4;
+
+        JSONPropertySerializer(Class<?> type, BeanSerializerBase annotationSerializer, boolean unwrapping) {
+            super(type, annotationSerializer, unwrapping);
+        }
+
+        @Override
+        ModelSerializer<JSONProperty> withAnnotationSerializer(BeanSerializerBase annotationSerializer, boolean unwrapping) {
+            return new JSONPropertySerializer(handledType(), annotationSerializer, unwrapping);
+        }
+
+        @Override
+        int getField(String name, Class<?> type) {
+            final boolean flag = type == boolean.class || type == Boolean.class;
+            if ("value".equals(name) && type == Object.class) {
+                return VALUE;
+            } else if ("multiValued".equals(name) && flag) {
+                return MULTI_VALUED;
+            } else if ("reference".equals(name) && flag) {
+                return REFERENCE;
+            }
+            return super.getField(name, type);
+        }
+
+        @Override
+        boolean writeField(int field, String name, JSONProperty property, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            switch (field) {
+                case VALUE:
+                    final Object value = property.getValue();
+                    if (value instanceof String) {
+                        return writeString(name, (String) value, generator);
+                    }
+                    return writeObject(name, value, generator, provider);
+                case MULTI_VALUED:
+                    generator.writeBooleanField(name, property.isMultiValued());
+                    return true;
+                case REFERENCE:
+                    generator.writeBooleanField(name, property.isReference());
+                    return true;
+                default:
+                    return super.writeField(field, name, property, generator, provider);
+            }
+        }
+    }
+
+    static class APIDecoratorSerializer extends ModelSerializer<APIDecorator> {
+        private static final int REFERENCES = 0;
+        private static final int LINKS = 1;
+        private static final Links.Serializer LINKS_SERIALIZER = new Links.Serializer();
+
+        APIDecoratorSerializer(Class<?> type, BeanSerializerBase annotationSerializer, boolean unwrapping) {
+            super(type, annotationSerializer, unwrapping);
+        }
+
+        @Override
+        ModelSerializer<APIDecorator> withAnnotationSerializer(BeanSerializerBase annotationSerializer, boolean unwrapping) {
+            return new APIDecoratorSerializer(handledType(), annotationSerializer, unwrapping);
+        }
+
+        @Override
+        int getField(String name, Class<?> type) {
+            if ("references".equals(name) && Map.class.isAssignableFrom(type)) {
+                return REFERENCES;
+            } else if ("_links".equals(name) && type == Links.class) {
+                return LINKS;
+            }
+            return UNBOUND;
+        }
+
+        @Override
+        boolean writeField(int field, String name, APIDecorator decorator, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            switch (field) {
+                case REFERENCES:
+                    return writeObject(name, decorator.getReferences(), generator, provider);
+                case LINKS:
+                    final Links links = decorator.getSerializableLinks();
+                    if (links == null) {
+                        return false;
+                    }
+                    generator.writeFieldName(name);
+                    LINKS_SERIALIZER.serialize(links, generator, provider);
+                    return true;
+                default:
+                    throw new IllegalArgumentException("Unknown field " + field + " for " + name);
+            }
+        }
+    }
+
+    static class JSONLinkSerializer extends JsonSerializer<JSONLink> {
+        @Override
+        public void serialize(JSONLink link, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("rel", link.getRel());
+            generator.writeFieldName("href");
+            if (link.isMultiple()) {
+                generator.writeStartArray();
+                for (String uri : (String[]) link.getURI()) {
+                    generator.writeString(uri);
+                }
+                generator.writeEndArray();
+            } else {
+                generator.writeString(link.getURIAsString());
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    static class JSONRowSerializer extends JsonSerializer<JSONRow> {
+        @Override
+        public void serialize(JSONRow row, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("id", row.getId());
+            generator.writeStringField("path", row.getPath());
+            generator.writeObjectFieldStart("values");
+            for (Map.Entry<String, Object> entry : row.getValues().entrySet()) {
+                generator.writeFieldName(entry.getKey());
+                writeValue(entry.getValue(), generator, provider);
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+
+        private static void writeValue(Object value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            if (value == null) {
+                generator.writeNull();
+            } else if (value instanceof String) {
+                generator.writeString((String) value);
+            } else if (value instanceof Long) {
+                generator.writeNumber((Long) value);
+            } else if (value instanceof Double) {
+                generator.writeNumber((Double) value);
+            } else if (value instanceof Boolean) {
+                generator.writeBoolean((Boolean) value);
+            } else if (value instanceof BigDecimal) {
+                generator.writeNumber((BigDecimal) value);
+            } else if (value instanceof Object[]) {
+                generator.writeStartArray();
+                for (Object element : (Object[]) value) {
+                    writeValue(element, generator, provider);
+                }
+                generator.writeEndArray();
+            } else {
+                provider.defaultSerializeValue(value, generator);
+            }
+        }
+    }
+
+    static class JSONNodeReferenceSerializer extends JsonSerializer<JSONNodeReference> {
+        @Override
+        public void serialize(JSONNodeReference reference, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("id", reference.getId());
+            generator.writeStringField("path", reference.getPath());
+            generator.writeStringField("type", reference.getType());
+            generator.writeEndObject();
+        }
+    }
+}
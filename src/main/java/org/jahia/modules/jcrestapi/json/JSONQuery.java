@@ -56,6 +56,22 @@ import java.util.Map;
 @XmlRootElement
 @XmlAccessorType(XmlAccessType.NONE)
 public class JSONQuery {
+    /**
+     * Mode returning the complete representation of matching nodes, the default.
+     */
+    public static final String NODES = "nodes";
+    /**
+     * Mode only returning how many nodes match.
+     */
+    public static final String COUNT = "count";
+    /**
+     * Mode only returning the identifier, path and primary type of matching nodes.
+     */
+    public static final String IDENTIFIERS = "identifiers";
+
+    @XmlElement
+    private String id;
+
     @XmlElement
     private String query;
     @XmlElement
@@ -72,6 +88,25 @@ public class JSONQuery {
     @XmlElement
     private Map<String,Object> namedParameters;
 
+    @XmlElement
+    private String continuationToken;
+
+    @XmlElement
+    private String mode;
+
+    @XmlElement
+    private List<String> columns;
+
+    @XmlElement
+    private long timeout;
+
+    @XmlElement
+    private int maxResults;
+
+
+    public String getId() {
+        return id;
+    }
 
     public String getQuery() {
         return query;
@@ -96,4 +131,32 @@ public class JSONQuery {
     public Map<String,Object> getNamedParameters() {
         return namedParameters;
     }
+
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    public String getMode() {
+        if (mode == null) {
+            return NODES;
+        }
+
+        if (!NODES.equals(mode) && !COUNT.equals(mode) && !IDENTIFIERS.equals(mode)) {
+            throw new IllegalArgumentException("Unknown query mode '" + mode + "'. Valid modes are: " + NODES + ", " + COUNT + ", " + IDENTIFIERS);
+        }
+
+        return mode;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public int getMaxResults() {
+        return maxResults;
+    }
 }
@@ -0,0 +1,106 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.json;
+
+import org.jahia.modules.jcrestapi.APIException;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The outcome of one of the queries of a batch: the HTTP status that executing the query on its own would have resulted in and either its
+ * result, along with the continuation token to retrieve the next page of results if any, or the error that occurred.
+ */
+@XmlRootElement
+@XmlAccessorType(XmlAccessType.NONE)
+public class JSONQueryResult {
+    @XmlElement
+    private final int status;
+    @XmlElement
+    private final Object result;
+    @XmlElement
+    private final String continuationToken;
+    @XmlElement
+    private final boolean truncated;
+    @XmlElement
+    private final APIException.JSONError error;
+
+    public JSONQueryResult(int status, Object result, String continuationToken, boolean truncated) {
+        this(status, result, continuationToken, truncated, null);
+    }
+
+    public JSONQueryResult(int status, APIException.JSONError error) {
+        this(status, null, null, false, error);
+    }
+
+    private JSONQueryResult(int status, Object result, String continuationToken, boolean truncated, APIException.JSONError error) {
+        this.status = status;
+        this.result = result;
+        this.continuationToken = continuationToken;
+        this.truncated = truncated;
+        this.error = error;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public Object getResult() {
+        return result;
+    }
+
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public APIException.JSONError getError() {
+        return error;
+    }
+}
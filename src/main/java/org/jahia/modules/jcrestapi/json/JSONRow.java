@@ -0,0 +1,137 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.json;
+
+import org.jahia.modules.json.Names;
+
+import javax.jcr.*;
+import javax.jcr.query.Row;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A compact representation of a query result row, only providing the values of the requested columns, keyed by their escaped names, along
+ * with the identity of the matching node.
+ */
+@XmlRootElement
+@XmlAccessorType(XmlAccessType.NONE)
+public class JSONRow {
+    @XmlElement
+    private final String id;
+    @XmlElement
+    private final String path;
+    @XmlElement
+    private final Map<String, Object> values;
+
+    /**
+     * @param node          the node matching the row
+     * @param row           the row
+     * @param columns       the names of the columns to output
+     * @param propertyNames the names of the properties associated with the columns, used as keys for the column values
+     * @throws RepositoryException if an error occurred while accessing the repository
+     */
+    public JSONRow(Node node, Row row, String[] columns, String[] propertyNames) throws RepositoryException {
+        this.id = node.getIdentifier();
+        this.path = node.getPath();
+        this.values = new LinkedHashMap<String, Object>(columns.length * 2);
+        for (int i = 0; i < columns.length; i++) {
+            values.put(Names.escape(propertyNames[i]), getValue(node, row, columns[i], propertyNames[i]));
+        }
+    }
+
+    private static Object getValue(Node node, Row row, String column, String propertyName) throws RepositoryException {
+        try {
+            return convert(row.getValue(column));
+        } catch (ValueFormatException e) {
+            // multi-valued properties cannot be retrieved from rows so get them from the node instead
+            if (node.hasProperty(propertyName)) {
+                final Value[] values = node.getProperty(propertyName).getValues();
+                final Object[] converted = new Object[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    converted[i] = convert(values[i]);
+                }
+                return converted;
+            }
+            return null;
+        }
+    }
+
+    private static Object convert(Value value) throws RepositoryException {
+        if (value == null) {
+            return null;
+        }
+
+        switch (value.getType()) {
+            case PropertyType.LONG:
+                return value.getLong();
+            case PropertyType.DOUBLE:
+                return value.getDouble();
+            case PropertyType.DECIMAL:
+                return value.getDecimal();
+            case PropertyType.BOOLEAN:
+                return value.getBoolean();
+            case PropertyType.BINARY:
+                // don't read binaries to output them in rows
+                return null;
+            default:
+                return value.getString();
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public Map<String, Object> getValues() {
+        return values;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.BeanProperty;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.ser.BeanPropertyWriter;
+import com.fasterxml.jackson.databind.ser.ContextualSerializer;
+import com.fasterxml.jackson.databind.ser.PropertyWriter;
+import com.fasterxml.jackson.databind.ser.ResolvableSerializer;
+import com.fasterxml.jackson.databind.ser.std.BeanSerializerBase;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.databind.util.NameTransformer;
+
+import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A hand-written serializer for a class of the node model, i.e. nodes, properties and their decorator, reading each field with an explicit
+ * getter instead of reflection.
+ * <p>
+ * The serialized fields of these classes are defined by annotations, partly on classes of the json-generation library. So that the output
+ * stays identical to the annotation-driven one, the names and order of the fields are the ones of the bean serializer Jackson built from
+ * these annotations, which is wrapped by this serializer. Each field is bound to its getter by its name and declared type, never by
+ * comparing values. Fields which aren't bound to a getter, as well as <code>null</code> values, which might be omitted depending on
+ * annotations, are written by the property writer of the wrapped serializer.
+ */
+abstract class ModelSerializer<T> extends StdSerializer<T> implements ResolvableSerializer, ContextualSerializer {
+    static final int UNBOUND = -1;
+
+    private final BeanSerializerBase annotationSerializer;
+    private final boolean unwrapping;
+    private PropertyWriter[] writers;
+    private int[] fields;
+
+    ModelSerializer(Class<?> type, BeanSerializerBase annotationSerializer, boolean unwrapping) {
+        super(type, false);
+        this.annotationSerializer = annotationSerializer;
+        this.unwrapping = unwrapping;
+        bindFields();
+    }
+
+    /**
+     * Creates a new serializer of the same class wrapping the specified annotation-driven serializer.
+     */
+    abstract ModelSerializer<T> withAnnotationSerializer(BeanSerializerBase annotationSerializer, boolean unwrapping);
+
+    /**
+     * Identifies the getter of the field written by the specified property writer.
+     *
+     * @param name the serialized name of the field
+     * @param type the declared type of the field
+     * @return the identifier of the getter to use, {@link #UNBOUND} if the field isn't read using a getter of this serializer
+     */
+    abstract int getField(String name, Class<?> type);
+
+    /**
+     * Writes the specified field of the specified bean, name included, unless its value is <code>null</code>.
+     *
+     * @return <code>false</code> if the value of the field is <code>null</code> and hasn't been written
+     */
+    abstract boolean writeField(int field, String name, T bean, JsonGenerator generator, SerializerProvider provider) throws IOException;
+
+    private void bindFields() {
+        final List<PropertyWriter> properties = new ArrayList<PropertyWriter>();
+        final Iterator<PropertyWriter> iterator = annotationSerializer.properties();
+        while (iterator.hasNext()) {
+            properties.add(iterator.next());
+        }
+
+        final PropertyWriter[] writers = properties.toArray(new PropertyWriter[properties.size()]);
+        final int[] fields = new int[writers.length];
+        for (int i = 0; i < writers.length; i++) {
+            final PropertyWriter writer = writers[i];
+            // unwrapped fields and fields with custom serializers are left to their writer
+            final boolean plain = writer instanceof BeanPropertyWriter && !((BeanPropertyWriter) writer).isUnwrapping()
+                    && writer.getAnnotation(JsonSerialize.class) == null && writer.getAnnotation(XmlJavaTypeAdapter.class) == null;
+            fields[i] = plain ? getField(writer.getName(), writer.getType().getRawClass()) : UNBOUND;
+        }
+        this.writers = writers;
+        this.fields = fields;
+    }
+
+    @Override
+    public void resolve(SerializerProvider provider) throws JsonMappingException {
+        annotationSerializer.resolve(provider);
+        bindFields();
+    }
+
+    @Override
+    public JsonSerializer<?> createContextual(SerializerProvider provider, BeanProperty property) throws JsonMappingException {
+        final JsonSerializer<?> contextual = annotationSerializer.createContextual(provider, property);
+        // if annotations on the property change the serialization of the bean, let the annotation-driven serializer handle it
+        return contextual == annotationSerializer ? this : contextual;
+    }
+
+    @Override
+    public JsonSerializer<T> unwrappingSerializer(NameTransformer unwrapper) {
+        return withAnnotationSerializer((BeanSerializerBase) annotationSerializer.unwrappingSerializer(unwrapper), true);
+    }
+
+    @Override
+    public boolean isUnwrappingSerializer() {
+        return unwrapping;
+    }
+
+    @Override
+    public boolean usesObjectId() {
+        return annotationSerializer.usesObjectId();
+    }
+
+    @Override
+    public void serialize(T bean, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        if (unwrapping) {
+            serializeFields(bean, generator, provider);
+        } else {
+            generator.writeStartObject(bean);
+            serializeFields(bean, generator, provider);
+            generator.writeEndObject();
+        }
+    }
+
+    @Override
+    public void serializeWithType(T bean, JsonGenerator generator, SerializerProvider provider, TypeSerializer typeSerializer) throws IOException {
+        annotationSerializer.serializeWithType(bean, generator, provider, typeSerializer);
+    }
+
+    private void serializeFields(T bean, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        final PropertyWriter[] writers = this.writers;
+        final int[] fields = this.fields;
+        String name = null;
+        try {
+            for (int i = 0; i < writers.length; i++) {
+                final PropertyWriter writer = writers[i];
+                name = writer.getName();
+                final int field = fields[i];
+                if (field == UNBOUND || !writeField(field, name, bean, generator, provider)) {
+                    writer.serializeAsField(bean, generator, provider);
+                }
+            }
+        } catch (Exception e) {
+            wrapAndThrow(provider, e, bean, name);
+        }
+    }
+
+    /**
+     * Writes the specified String field if its value isn't <code>null</code>.
+     */
+    static boolean writeString(String name, String value, JsonGenerator generator) throws IOException {
+        if (value == null) {
+            return false;
+        }
+        generator.writeStringField(name, value);
+        return true;
+    }
+
+    /**
+     * Writes the specified field, using the serializer of its value, if its value isn't <code>null</code>.
+     */
+    static boolean writeObject(String name, Object value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        if (value == null) {
+            return false;
+        }
+        generator.writeFieldName(name);
+        provider.findValueSerializer(value.getClass()).serialize(value, generator, provider);
+        return true;
+    }
+}
@@ -44,15 +44,11 @@
 package org.jahia.modules.jcrestapi.links;
 
 import org.jahia.modules.jcrestapi.API;
-import org.jahia.modules.jcrestapi.SpringBeansAccess;
+import org.jahia.modules.jcrestapi.ReferenceResolver;
 import org.jahia.modules.jcrestapi.URIUtils;
-import org.jahia.modules.jcrestapi.json.APIObjectFactory;
 import org.jahia.modules.json.*;
-import org.jahia.modules.json.jcr.SessionAccess;
 
 import javax.jcr.*;
-import javax.jcr.nodetype.NodeType;
-import javax.jcr.nodetype.PropertyDefinition;
 import javax.jcr.version.Version;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
@@ -71,119 +67,160 @@ public class APIDecorator implements JSONDecorator<APIDecorator> {
 
     public static final String JCR__PROPERTY_DEFINITION = "jcr__propertyDefinition";
 
-    private Map<String, JSONLink> links;
+    private Links links;
     private Map<String, JSONItem<? extends Item, APIDecorator>> references;
 
     private final boolean resolveReferences;
     private final boolean outputLinks;
+    private final int linkMask;
 
     public APIDecorator() {
         this(API.shouldOutputLinks(), API.shouldResolveReferences());
     }
 
     public APIDecorator(boolean outputLinks, boolean resolveReferences) {
+        this(outputLinks, resolveReferences, Links.getMask(API.getLinkRelations()));
+
+        if (resolveReferences) {
+            // if references are shared, the decorator of the top-level item outputs the references of the whole item
+            final ReferenceResolver resolver = API.getReferenceResolver();
+            if (resolver != null) {
+                references = resolver.claimSharedReferences();
+            }
+        }
+    }
+
+    private APIDecorator(boolean outputLinks, boolean resolveReferences, int linkMask) {
         this.outputLinks = outputLinks;
         this.resolveReferences = resolveReferences;
+        this.linkMask = linkMask;
     }
 
     public APIDecorator(String uri) {
         this();
 
-        initWith(uri);
+        initWith(Href.of(uri));
     }
 
     @XmlElement
     public Map<String, JSONItem<? extends Item, APIDecorator>> getReferences() {
-        return references != null ? Collections.unmodifiableMap(references) : null;
+        return references != null && !references.isEmpty() ? Collections.unmodifiableMap(references) : null;
     }
 
-    private Map<String, JSONLink> getLinks(boolean createIfNeeded) {
+    private Links getLinks(boolean createIfNeeded) {
         if (links == null && createIfNeeded) {
-            links = new HashMap<String, JSONLink>(7);
+            links = new Links(linkMask);
         }
 
         return links;
     }
 
     public String getURI() {
-        final JSONLink link = getLink(API.SELF);
-        return link != null ? link.getURIAsString() : null;
+        final Href href = getHref();
+        return href != null ? href.toString() : null;
+    }
+
+    private Href getHref() {
+        return links != null ? links.getHref(API.SELF) : null;
     }
 
-    private void initWith(String uri) {
-        addLink(JSONLink.createLink(API.ABSOLUTE, URIUtils.getAbsoluteURI(uri)));
-        addLink(JSONLink.createLink(API.SELF, uri));
+    private void initWith(Href uri) {
+        addLink(API.ABSOLUTE, uri);
+        addLink(API.SELF, uri);
     }
 
+    /**
+     * Adds the specified link. Links using a relation output by the API replace the computed one, other links being output after them.
+     * An {@link API#ABSOLUTE} link is output as is instead of being derived from the {@link API#SELF} link.
+     *
+     * @param link the link to add
+     */
     public void addLink(JSONLink link) {
-        getLinks(true).put(link.getRel(), link);
+        final String relation = link.getRel();
+        if (link.isMultiple()) {
+            final String[] uris = (String[]) link.getURI();
+            final Href[] hrefs = new Href[uris.length];
+            for (int i = 0; i < uris.length; i++) {
+                hrefs[i] = Href.of(uris[i]);
+            }
+            getLinks(true).put(relation, hrefs);
+        } else if (API.ABSOLUTE.equals(relation)) {
+            getLinks(true).putAbsolute(Href.of(link.getURIAsString()));
+        } else {
+            addLink(relation, Href.of(link.getURIAsString()));
+        }
+    }
+
+    private void addLink(String relation, Href href) {
+        getLinks(true).put(relation, href);
     }
 
     protected JSONLink getLink(String relation) {
-        return links != null ? links.get(relation) : null;
+        return links != null ? links.asMap().get(relation) : null;
     }
 
-    @XmlElement(name = "_links")
     public Map<String, JSONLink> getLinks() {
-        return outputLinks ? Collections.unmodifiableMap(getLinks(false)) : null;
+        if (!outputLinks) {
+            return null;
+        }
+        return links != null ? Collections.unmodifiableMap(links.asMap()) : Collections.<String, JSONLink>emptyMap();
+    }
+
+    @XmlElement(name = "_links")
+    public Links getSerializableLinks() {
+        return outputLinks ? getLinks(true) : null;
+    }
+
+    /**
+     * Determines whether the link with the specified relation needs to be computed, i.e. whether links are output and the relation was
+     * selected using the {@link API#LINKS} query parameter.
+     */
+    private boolean outputs(String relation) {
+        return outputLinks && Links.isSelected(linkMask, relation);
     }
 
     public void initFrom(JSONSubElementContainer<APIDecorator> container) {
         if (outputLinks) {
-            final String uri = container.getParent().getDecorator().getURI();
-            initWith(URIUtils.getChildURI(uri, container.getSubElementContainerName(), false));
-            addLink(JSONLink.createLink(API.PARENT, uri));
+            final Href uri = container.getParent().getDecorator().getHref();
+            initWith(uri.child(container.getSubElementContainerName(), false));
+            addLink(API.PARENT, uri);
         }
     }
 
     public <T extends Item> void initFrom(JSONItem<T, APIDecorator> jsonItem, T item) throws RepositoryException {
         if (outputLinks) {
-            initWith(URIUtils.getURIFor(item));
-            addLink(JSONLink.createLink(API.TYPE, URIUtils.getTypeURI(getTypeChildPath(jsonItem, item))));
-
-            Node parent;
-            try {
-                parent = item.getParent();
-            } catch (ItemNotFoundException e) {
-                // expected when the item is root node, specify that parent is itself
-                parent = (Node) item;
+            // the self link is always needed since sub-elements links are derived from it, other links are only computed if requested
+            initWith(URIUtils.getHrefFor(item, false));
+            if (outputs(API.TYPE)) {
+                addLink(API.TYPE, getTypeHref(jsonItem, item));
             }
-            addLink(JSONLink.createLink(API.PARENT, URIUtils.getIdURI(parent.getIdentifier())));
 
-            addLink(JSONLink.createLink(API.PATH, URIUtils.getURIFor(item, true)));
+            if (outputs(API.PARENT)) {
+                Node parent;
+                try {
+                    parent = item.getParent();
+                } catch (ItemNotFoundException e) {
+                    // expected when the item is root node, specify that parent is itself
+                    parent = (Node) item;
+                }
+                addLink(API.PARENT, URIUtils.getIdHref(parent.getIdentifier()));
+            }
+
+            if (outputs(API.PATH)) {
+                addLink(API.PATH, URIUtils.getHrefFor(item, true));
+            }
         }
     }
 
-    private <T extends Item> String getTypeChildPath(JSONItem<T, APIDecorator> jsonItem, T item) throws RepositoryException {
+    private <T extends Item> Href getTypeHref(JSONItem<T, APIDecorator> jsonItem, T item) throws RepositoryException {
         if (item instanceof Node) {
-            return Names.escape(jsonItem.getUnescapedTypeName(item));
+            return URIUtils.getTypeHref(Names.escape(jsonItem.getUnescapedTypeName(item)));
         } else {
-            // get declaring node type
-            final NodeType declaringNodeType = ((Property) item).getDefinition().getDeclaringNodeType();
-
-            // get its name and escape it
-            final String parentName = Names.escape(declaringNodeType.getName());
-
-            // get its property definitions
-            final PropertyDefinition[] parentPropDefs = declaringNodeType.getDeclaredPropertyDefinitions();
-            final int numberOfPropertyDefinitions = parentPropDefs.length;
-
-            // if we only have one property definition, we're done
-            if (numberOfPropertyDefinitions == 1) {
-                return URIUtils.getChildURI(parentName, JCR__PROPERTY_DEFINITION, false);
-            } else {
-                // we need to figure out which property definition matches ours in the array
-                int index = 1; // JCR indexes start at 1
-                for (int i = 0; i < numberOfPropertyDefinitions; i++) {
-                    PropertyDefinition propDef = parentPropDefs[i];
-                    if (propDef.getName().equals(item.getName())) {
-                        index = i + 1; // adjust for start at 1 in JCR
-                        break;
-                    }
-                }
-                // create the indexed escaped link, if index = 1, no need for an index
-                return URIUtils.getChildURI(parentName, Names.escape(JCR__PROPERTY_DEFINITION, index), false);
-            }
+            // get the cached index of the property definitions of the declaring node type
+            final PropertyDefinitionIndex index = PropertyDefinitionIndex.of(((Property) item).getDefinition().getDeclaringNodeType());
+
+            // create the link to the property definition matching ours, indexed if needed
+            return URIUtils.getTypeHref(index.getEscapedTypeName()).child(index.getSuffix(item.getName()), false);
         }
     }
 
@@ -197,46 +234,47 @@ public class APIDecorator implements JSONDecorator<APIDecorator> {
     }
 
     private void createAndAddLinkIfNeeded(JSONSubElementContainer<APIDecorator> container, String rel) {
-        final String uri = container != null ? container.getDecorator().getURI() : null;
+        final Href uri = container != null ? container.getDecorator().getHref() : null;
         if (uri != null) {
-            addLink(JSONLink.createLink(rel, uri));
+            addLink(rel, uri);
         }
     }
 
     @Override
     public APIDecorator newInstance() {
-        return new APIDecorator(outputLinks, resolveReferences);
+        return new APIDecorator(outputLinks, resolveReferences, linkMask);
     }
 
     public void initFrom(JSONProperty jsonProperty) throws RepositoryException {
-        if (outputLinks || resolveReferences) {
+        final boolean outputTarget = outputs(API.TARGET);
+        if (outputTarget || resolveReferences) {
             final boolean reference = jsonProperty.isReference();
             if (reference) {
                 if (jsonProperty.isMultiValued()) {
                     final String[] values = jsonProperty.getValueAsStringArray();
-                    String[] links = null;
+                    Href[] links = null;
                     final int valuesNb = values.length;
                     if (valuesNb > 0) {
-                        if (outputLinks) {
-                            links = new String[valuesNb];
+                        if (outputTarget) {
+                            links = new Href[valuesNb];
                         }
 
                         for (int i = 0; i < valuesNb; i++) {
                             final String val = values[i];
-                            if (outputLinks) {
+                            if (outputTarget) {
                                 links[i] = getTargetLink(val, jsonProperty.isPath());
                             }
                             addReferencesIfNeeded(val);
                         }
 
-                        if (outputLinks) {
-                            addLink(JSONLink.createLink(API.TARGET, links));
+                        if (outputTarget) {
+                            getLinks(true).put(API.TARGET, links);
                         }
                     }
                 } else {
                     final String value = jsonProperty.getValueAsString();
-                    if (outputLinks) {
-                        addLink(JSONLink.createLink(API.TARGET, getTargetLink(value, jsonProperty.isPath())));
+                    if (outputTarget) {
+                        addLink(API.TARGET, getTargetLink(value, jsonProperty.isPath()));
                     }
                     addReferencesIfNeeded(value);
                 }
@@ -247,9 +285,14 @@ public class APIDecorator implements JSONDecorator<APIDecorator> {
 
     private void addReferencesIfNeeded(String value) throws RepositoryException {
         if (resolveReferences) {
-            final Session session = SessionAccess.getCurrentSession().session;
-            final Node node = session.getNodeByIdentifier(value);
-            if (!SpringBeansAccess.getInstance().hasPermission("jcrestapi.references",node)) {
+            ReferenceResolver resolver = API.getReferenceResolver();
+            if (resolver == null) {
+                // not rendering a request handled by the API so only resolve the references of this property
+                resolver = new ReferenceResolver(1, false);
+            }
+
+            final JSONItem<? extends Item, APIDecorator> reference = resolver.resolve(value, outputLinks);
+            if (reference == null || resolver.isShared()) {
                 return;
             }
 
@@ -257,33 +300,37 @@ public class APIDecorator implements JSONDecorator<APIDecorator> {
                 references = new HashMap<String, JSONItem<? extends Item, APIDecorator>>(7);
             }
 
-            references.put(node.getIdentifier(), APIObjectFactory.getInstance().createAPINode(node, Filter.OUTPUT_ALL, API.shouldIncludeFullChildren(), false, outputLinks));
+            references.put(value, reference);
         }
     }
 
-    private String getTargetLink(String valueAsString, boolean path) throws RepositoryException {
-        return path ? URIUtils.getByPathURI(valueAsString) : URIUtils.getIdURI(valueAsString);
+    private Href getTargetLink(String valueAsString, boolean path) throws RepositoryException {
+        return path ? URIUtils.getByPathHref(valueAsString, false) : URIUtils.getIdHref(valueAsString);
     }
 
     public void initFrom(JSONMixin mixin) {
-        if (outputLinks) {
-            addLink(JSONLink.createLink(API.TYPE, URIUtils.getTypeURI(Names.escape(mixin.getType()))));
+        if (outputs(API.TYPE)) {
+            addLink(API.TYPE, URIUtils.getTypeHref(Names.escape(mixin.getType())));
         }
     }
 
     public void initFrom(JSONVersion jsonVersion, Version version) throws RepositoryException {
-        if (outputLinks) {
+        if (outputs(Links.PREVIOUS)) {
             final Version linearPredecessor = version.getLinearPredecessor();
             if (linearPredecessor != null) {
-                addLink(JSONLink.createLink("previous", URIUtils.getURIFor(linearPredecessor)));
+                addLink(Links.PREVIOUS, URIUtils.getHrefFor(linearPredecessor, false));
             }
+        }
+        if (outputs(Links.NEXT)) {
             final Version linearSuccessor = version.getLinearSuccessor();
             if (linearSuccessor != null) {
-                addLink(JSONLink.createLink("next", URIUtils.getURIFor(linearSuccessor)));
+                addLink(Links.NEXT, URIUtils.getHrefFor(linearSuccessor, false));
             }
+        }
+        if (outputs(API.NODE_AT_VERSION)) {
             final Node frozenNode = version.getFrozenNode();
             if (frozenNode != null) {
-                addLink(JSONLink.createLink(API.NODE_AT_VERSION, URIUtils.getURIFor(frozenNode)));
+                addLink(API.NODE_AT_VERSION, URIUtils.getHrefFor(frozenNode, false));
             }
         }
     }
@@ -0,0 +1,131 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.links;
+
+import org.jahia.modules.json.Names;
+
+/**
+ * A URI made of segments appended to a parent URI, so that URIs sharing a common prefix (e.g. the URI of a node and the URIs of its
+ * properties) share its representation instead of each holding a complete copy of it. The String form of the URI is only assembled when
+ * needed, typically when written to the response.
+ */
+public final class Href {
+    private final Href parent;
+    private final String separator;
+    private final String segment;
+    private final int length;
+
+    private Href(Href parent, String separator, String segment) {
+        this.parent = parent;
+        this.separator = separator;
+        this.segment = segment;
+        this.length = (parent != null ? parent.length : 0) + separator.length() + segment.length();
+    }
+
+    /**
+     * Creates a new Href from the specified complete URI.
+     */
+    public static Href of(String uri) {
+        return new Href(null, "", uri);
+    }
+
+    /**
+     * Creates a new Href consisting of this Href followed by the specified separator and segment, verbatim.
+     */
+    public Href append(String separator, String segment) {
+        return new Href(this, separator, segment);
+    }
+
+    /**
+     * Creates the Href of the specified child of the resource identified by this Href, following the same rules as
+     * {@link org.jahia.modules.jcrestapi.URIUtils#getChildURI(String, String, boolean)}.
+     */
+    public Href child(String childName, boolean escapeChildName) {
+        if (childName.startsWith("/")) {
+            childName = childName.substring(1);
+        }
+
+        if (escapeChildName) {
+            childName = Names.escape(childName);
+        }
+
+        return new Href(this, endsWithSlash() ? "" : "/", childName);
+    }
+
+    private boolean endsWithSlash() {
+        Href href = this;
+        while (href != null) {
+            if (!href.segment.isEmpty()) {
+                return href.segment.charAt(href.segment.length() - 1) == '/';
+            }
+            if (!href.separator.isEmpty()) {
+                return href.separator.charAt(href.separator.length() - 1) == '/';
+            }
+            href = href.parent;
+        }
+        return false;
+    }
+
+    /**
+     * Retrieves the length of the String form of this Href.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Appends the String form of this Href to the specified StringBuilder.
+     */
+    public StringBuilder appendTo(StringBuilder builder) {
+        if (parent != null) {
+            parent.appendTo(builder);
+        }
+        return builder.append(separator).append(segment);
+    }
+
+    @Override
+    public String toString() {
+        return appendTo(new StringBuilder(length)).toString();
+    }
+}
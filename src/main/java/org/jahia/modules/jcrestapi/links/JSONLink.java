@@ -93,7 +93,7 @@ public abstract class JSONLink {
 
     }
 
-    String getRel() {
+    public String getRel() {
         return rel;
     }
 
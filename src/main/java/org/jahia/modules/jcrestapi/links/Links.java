@@ -0,0 +1,288 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.links;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.jahia.modules.jcrestapi.API;
+import org.jahia.modules.jcrestapi.URIUtils;
+import org.jahia.modules.json.JSONConstants;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The links of a rendered item, stored in fixed slots, one per relation output by the API, instead of a map of {@link JSONLink} instances.
+ * Link URIs are kept as {@link Href} instances and only written out when the links are serialized. The {@link API#ABSOLUTE} relation
+ * doesn't hold its own URI but is derived from the relative URI it's given when serialized, unless an already absolute URI was explicitly
+ * provided for it.
+ * <p>
+ * Only the selected relations are output, the {@link API#SELF} relation being always recorded since the URIs of sub-elements are derived
+ * from it. Links using other relations, which can only be added explicitly, are kept in a separate map and always output.
+ * <p>
+ * Links are serialized in a fixed order: relations output by the API first, in the following order: {@code absolute}, {@code self},
+ * {@code type}, {@code parent}, {@code path}, {@code properties}, {@code mixins}, {@code children}, {@code versions}, {@code target},
+ * {@code previous}, {@code next} and {@code nodeAtVersion}, followed by other relations in the order in which they were first added.
+ */
+@JsonSerialize(using = Links.Serializer.class)
+public final class Links {
+    static final String PREVIOUS = "previous";
+    static final String NEXT = "next";
+
+    private static final String[] RELATIONS = {
+            API.ABSOLUTE, API.SELF, API.TYPE, API.PARENT, API.PATH,
+            JSONConstants.PROPERTIES, JSONConstants.MIXINS, JSONConstants.CHILDREN, JSONConstants.VERSIONS,
+            API.TARGET, PREVIOUS, NEXT, API.NODE_AT_VERSION
+    };
+    private static final int ABSOLUTE_SLOT = 0;
+    private static final int SELF_SLOT = 1;
+    static final int ALL = (1 << RELATIONS.length) - 1;
+
+    // either an Href or an Href[] for multiple links
+    private final Object[] hrefs = new Object[RELATIONS.length];
+    // whether the absolute slot holds an already absolute URI instead of a URI relative to the base URI
+    private boolean literalAbsolute;
+    // links with relations not output by the API, created on demand, either an Href or an Href[] for multiple links
+    private Map<String, Object> others;
+    // bit mask of the slots to output
+    private final int selected;
+
+    Links(int selected) {
+        this.selected = selected;
+    }
+
+    /**
+     * Computes the bit mask identifying the specified link relations, unknown relations being ignored.
+     *
+     * @param relations the names of the selected relations, <code>null</code> meaning all relations
+     * @return the bit mask identifying the selected relations
+     */
+    static int getMask(Set<String> relations) {
+        if (relations == null) {
+            return ALL;
+        }
+
+        int mask = 0;
+        for (int i = 0; i < RELATIONS.length; i++) {
+            if (relations.contains(RELATIONS[i])) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Determines whether the specified relation is selected for output, in which case its link needs to be computed. Relations not
+     * output by the API are always selected.
+     */
+    static boolean isSelected(int mask, String relation) {
+        final int slot = getSlot(relation);
+        return slot < 0 || (mask & (1 << slot)) != 0;
+    }
+
+    private boolean isOutput(int slot) {
+        return (selected & (1 << slot)) != 0;
+    }
+
+    private static int getSlot(String relation) {
+        for (int i = 0; i < RELATIONS.length; i++) {
+            if (RELATIONS[i].equals(relation)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    void put(String relation, Href href) {
+        put(relation, (Object) href);
+    }
+
+    void put(String relation, Href[] hrefs) {
+        put(relation, (Object) hrefs);
+    }
+
+    /**
+     * Records the specified already absolute URI as the {@link API#ABSOLUTE} link, instead of deriving it from a relative URI.
+     */
+    void putAbsolute(Href absolute) {
+        if (isOutput(ABSOLUTE_SLOT)) {
+            hrefs[ABSOLUTE_SLOT] = absolute;
+            literalAbsolute = true;
+        }
+    }
+
+    private void put(String relation, Object value) {
+        final int slot = getSlot(relation);
+        if (slot < 0) {
+            if (others == null) {
+                others = new LinkedHashMap<String, Object>(4);
+            }
+            others.put(relation, value);
+            return;
+        }
+
+        if (!isOutput(slot) && slot != SELF_SLOT) {
+            return;
+        }
+
+        hrefs[slot] = value;
+        if (slot == ABSOLUTE_SLOT) {
+            literalAbsolute = false;
+        }
+    }
+
+    Href getHref(String relation) {
+        final int slot = getSlot(relation);
+        final Object href = slot < 0 ? (others != null ? others.get(relation) : null) : hrefs[slot];
+        return href instanceof Href ? (Href) href : null;
+    }
+
+    private boolean isPrefixedWithBaseURI(int slot) {
+        return slot == ABSOLUTE_SLOT && !literalAbsolute;
+    }
+
+    /**
+     * Retrieves the links as a map of relation -> {@link JSONLink}, iterating over them in the order in which they're serialized.
+     */
+    Map<String, JSONLink> asMap() {
+        final Map<String, JSONLink> links = new LinkedHashMap<String, JSONLink>(16);
+        for (int slot = 0; slot < RELATIONS.length; slot++) {
+            if (hrefs[slot] != null && isOutput(slot)) {
+                final String relation = RELATIONS[slot];
+                links.put(relation, toJSONLink(relation, hrefs[slot], isPrefixedWithBaseURI(slot)));
+            }
+        }
+        if (others != null) {
+            for (Map.Entry<String, Object> other : others.entrySet()) {
+                links.put(other.getKey(), toJSONLink(other.getKey(), other.getValue(), false));
+            }
+        }
+        return links;
+    }
+
+    private static JSONLink toJSONLink(String relation, Object href, boolean prefixWithBaseURI) {
+        if (href instanceof Href[]) {
+            final Href[] multiple = (Href[]) href;
+            final String[] uris = new String[multiple.length];
+            for (int j = 0; j < multiple.length; j++) {
+                uris[j] = multiple[j].toString();
+            }
+            return JSONLink.createLink(relation, uris);
+        } else {
+            final String uri = href.toString();
+            return JSONLink.createLink(relation, prefixWithBaseURI ? URIUtils.getAbsoluteURI(uri) : uri);
+        }
+    }
+
+    public static class Serializer extends JsonSerializer<Links> {
+        private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<StringBuilder>() {
+            @Override
+            protected StringBuilder initialValue() {
+                return new StringBuilder(256);
+            }
+        };
+        private static final ThreadLocal<char[][]> BUFFER = new ThreadLocal<char[][]>() {
+            @Override
+            protected char[][] initialValue() {
+                return new char[][]{new char[256]};
+            }
+        };
+
+        @Override
+        public void serialize(Links links, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject();
+
+            for (int slot = 0; slot < RELATIONS.length; slot++) {
+                if (links.hrefs[slot] != null && links.isOutput(slot)) {
+                    writeLink(generator, RELATIONS[slot], links.hrefs[slot], links.isPrefixedWithBaseURI(slot));
+                }
+            }
+            if (links.others != null) {
+                for (Map.Entry<String, Object> other : links.others.entrySet()) {
+                    writeLink(generator, other.getKey(), other.getValue(), false);
+                }
+            }
+
+            generator.writeEndObject();
+        }
+
+        private static void writeLink(JsonGenerator generator, String relation, Object href, boolean absolute) throws IOException {
+            generator.writeFieldName(relation);
+            generator.writeStartObject();
+            generator.writeStringField("rel", relation);
+            generator.writeFieldName("href");
+            if (href instanceof Href[]) {
+                generator.writeStartArray();
+                for (Href single : (Href[]) href) {
+                    writeHref(generator, single, false);
+                }
+                generator.writeEndArray();
+            } else {
+                writeHref(generator, (Href) href, absolute);
+            }
+            generator.writeEndObject();
+        }
+
+        private static void writeHref(JsonGenerator generator, Href href, boolean absolute) throws IOException {
+            final StringBuilder builder = BUILDER.get();
+            builder.setLength(0);
+            if (absolute) {
+                builder.append(URIUtils.getBaseURI());
+            }
+            href.appendTo(builder);
+
+            final int length = builder.length();
+            final char[][] buffer = BUFFER.get();
+            if (buffer[0].length < length) {
+                buffer[0] = new char[Math.max(length, buffer[0].length * 2)];
+            }
+            builder.getChars(0, length, buffer[0], 0);
+            generator.writeString(buffer[0], 0, length);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.links;
+
+import org.jahia.modules.json.Names;
+
+import javax.jcr.nodetype.NodeType;
+import javax.jcr.nodetype.PropertyDefinition;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches, per node type, the escaped name of the type and the suffix identifying each of its declared property definitions in type
+ * links (e.g. {@code jcr__propertyDefinition--2}), so that computing the type link of a property doesn't require scanning the property
+ * definitions of its declaring type.
+ * <p>
+ * Indexes are keyed by node type name but only valid for the {@link NodeType} instance they were computed from: since registering new
+ * definitions for a node type creates new instances, an index is recomputed as soon as the declaring type of a property isn't the one it
+ * was computed from anymore.
+ */
+final class PropertyDefinitionIndex {
+    private static final ConcurrentMap<String, PropertyDefinitionIndex> INDEXES = new ConcurrentHashMap<String, PropertyDefinitionIndex>();
+
+    private final NodeType nodeType;
+    private final String escapedTypeName;
+    private final Map<String, String> suffixes;
+    private final String defaultSuffix;
+
+    private PropertyDefinitionIndex(NodeType nodeType) {
+        this.nodeType = nodeType;
+        this.escapedTypeName = Names.escape(nodeType.getName());
+
+        final PropertyDefinition[] propertyDefinitions = nodeType.getDeclaredPropertyDefinitions();
+        final int numberOfPropertyDefinitions = propertyDefinitions.length;
+        if (numberOfPropertyDefinitions == 1) {
+            // if we only have one property definition, no need for an index
+            this.suffixes = null;
+            this.defaultSuffix = APIDecorator.JCR__PROPERTY_DEFINITION;
+        } else {
+            this.suffixes = new HashMap<String, String>(numberOfPropertyDefinitions * 2);
+            for (int i = 0; i < numberOfPropertyDefinitions; i++) {
+                final String name = propertyDefinitions[i].getName();
+                // JCR indexes start at 1 and the first matching definition wins
+                if (!suffixes.containsKey(name)) {
+                    suffixes.put(name, Names.escape(APIDecorator.JCR__PROPERTY_DEFINITION, i + 1));
+                }
+            }
+            // properties not matching any named definition, e.g. ones defined by residual definitions, use the first index
+            this.defaultSuffix = Names.escape(APIDecorator.JCR__PROPERTY_DEFINITION, 1);
+        }
+    }
+
+    /**
+     * Retrieves the index of the specified node type, computing it if it wasn't already or if the type changed since.
+     *
+     * @param nodeType the node type which property definitions we want to index
+     * @return the index of the specified node type
+     */
+    static PropertyDefinitionIndex of(NodeType nodeType) {
+        final String name = nodeType.getName();
+        PropertyDefinitionIndex index = INDEXES.get(name);
+        if (index == null || index.nodeType != nodeType) {
+            index = new PropertyDefinitionIndex(nodeType);
+            INDEXES.put(name, index);
+        }
+        return index;
+    }
+
+    /**
+     * Forgets all computed indexes.
+     */
+    static void clear() {
+        INDEXES.clear();
+    }
+
+    String getEscapedTypeName() {
+        return escapedTypeName;
+    }
+
+    /**
+     * Retrieves the escaped suffix identifying, in type links, the property definition declaring the property with the specified name.
+     *
+     * @param propertyName the name of the property
+     * @return the escaped suffix identifying the property definition of the specified property
+     */
+    String getSuffix(String propertyName) {
+        if (suffixes == null) {
+            return defaultSuffix;
+        }
+
+        final String suffix = suffixes.get(propertyName);
+        return suffix != null ? suffix : defaultSuffix;
+    }
+}
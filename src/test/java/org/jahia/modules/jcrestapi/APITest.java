@@ -43,6 +43,9 @@
  */
 package org.jahia.modules.jcrestapi;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.jayway.restassured.http.ContentType;
 import mockit.Mock;
 import mockit.MockUp;
@@ -53,22 +56,31 @@ import org.apache.jackrabbit.core.config.RepositoryConfig;
 import org.glassfish.hk2.api.Factory;
 import org.glassfish.jersey.test.JerseyTest;
 import org.jahia.modules.jcrestapi.api.PreparedQuery;
+import org.jahia.modules.json.Filter;
 import org.jahia.modules.json.Names;
+import org.jahia.modules.json.jcr.SessionAccess;
 import org.jahia.services.content.JCRContentUtils;
 import org.jahia.settings.SettingsBean;
 import org.junit.*;
 
 import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.PropertyType;
 import javax.jcr.Repository;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import javax.jcr.query.Query;
 import javax.ws.rs.core.Application;
 import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Properties;
 
 import static com.jayway.restassured.RestAssured.expect;
@@ -383,6 +395,238 @@ public class APITest extends JerseyTest {
                 .when().get(getURLByPath(""));
     }
 
+    @Test
+    public void testGetRootWithSelectedLinks() throws RepositoryException {
+        final String rootId = session.getRootNode().getIdentifier();
+
+        given()
+                .queryParam(API.LINKS, "self,path")
+                .expect()
+                .statusCode(SC_OK)
+                .body(
+                        "_links.self.href", equalTo(getURIById(rootId)),
+                        "_links.type", is(nullValue()),
+                        "_links.parent", is(nullValue()),
+                        "properties.jcr__primaryType._links.self.href", equalTo(getChildURI(rootId, "properties/jcr__primaryType")),
+                        "properties.jcr__primaryType._links.path.href", equalTo(getURIByPath("properties/jcr__primaryType")),
+                        "properties.jcr__primaryType._links.type", is(nullValue())
+                )
+                .when().get(getURLByPath(""));
+    }
+
+    @Test
+    public void referencesShouldBeResolvedOnceAndSharedIfRequested() throws RepositoryException {
+        final Node root = session.getRootNode();
+        final Node target = root.addNode("referenced");
+        target.addMixin("mix:referenceable");
+        final Node source = root.addNode("referencing");
+        source.setProperty("first", target);
+        source.setProperty("second", target);
+        session.save();
+
+        final String targetId = target.getIdentifier();
+
+        given()
+                .queryParam(API.RESOLVE_REFERENCES, "true")
+                .expect()
+                .statusCode(SC_OK)
+                .body(
+                        "properties.first.references.'" + targetId + "'.path", equalTo("/referenced"),
+                        "properties.second.references.'" + targetId + "'.path", equalTo("/referenced"),
+                        "references", is(nullValue())
+                )
+                .when().get(getURLByPath("referencing"));
+
+        given()
+                .queryParam(API.RESOLVE_REFERENCES, ReferenceResolver.SHARED)
+                .expect()
+                .statusCode(SC_OK)
+                .body(
+                        "references.'" + targetId + "'.path", equalTo("/referenced"),
+                        "properties.first.references", is(nullValue()),
+                        "properties.second.references", is(nullValue())
+                )
+                .when().get(getURLByPath("referencing"));
+    }
+
+    @Test
+    public void conditionalGetShouldReturnNotModifiedUntilNodeChanges() throws RepositoryException {
+        final Node node = session.getRootNode().addNode("tagged");
+        node.addMixin("mix:lastModified");
+        node.setProperty("jcr:lastModified", Calendar.getInstance());
+        session.save();
+
+        final String etag = given()
+                .expect()
+                .statusCode(SC_OK)
+                .header("ETag", startsWith("W/"))
+                .when().get(getURLByPath("tagged")).header("ETag");
+
+        given()
+                .header("If-None-Match", etag)
+                .expect()
+                .statusCode(SC_NOT_MODIFIED)
+                .when().get(getURLByPath("tagged"));
+
+        // a missing If-None-Match header is not a conditional request
+        given()
+                .expect()
+                .statusCode(SC_OK)
+                .header("ETag", equalTo(etag))
+                .when().get(getURLByPath("tagged"));
+
+        // another media type is another representation and therefore has another tag
+        given()
+                .header("If-None-Match", etag)
+                .header("Accept", Utils.MEDIA_TYPE_APPLICATION_SMILE)
+                .expect()
+                .statusCode(SC_OK)
+                .header("ETag", not(equalTo(etag)))
+                .when().get(getURLByPath("tagged"));
+
+        // different flags yield a different representation and therefore a different tag
+        given()
+                .header("If-None-Match", etag)
+                .queryParam(API.NO_LINKS, "true")
+                .expect()
+                .statusCode(SC_OK)
+                .when().get(getURLByPath("tagged"));
+
+        final Calendar modified = Calendar.getInstance();
+        modified.add(Calendar.MINUTE, 1);
+        node.setProperty("jcr:lastModified", modified);
+        session.save();
+
+        given()
+                .header("If-None-Match", etag)
+                .expect()
+                .statusCode(SC_OK)
+                .header("ETag", not(equalTo(etag)))
+                .when().get(getURLByPath("tagged"));
+    }
+
+    @Test
+    public void nodesWithoutLastModificationDateShouldNotBeTagged() throws RepositoryException {
+        final Node versionable = session.getRootNode().addNode("versionable");
+        versionable.addMixin("mix:versionable");
+        final Node parent = session.getRootNode().addNode("taggedParent");
+        parent.addMixin("mix:lastModified");
+        parent.setProperty("jcr:lastModified", Calendar.getInstance());
+        parent.addNode("untaggedChild");
+        session.save();
+
+        // the base version of checked out nodes doesn't change when their properties are modified
+        given()
+                .expect()
+                .statusCode(SC_OK)
+                .header("ETag", is(nullValue()))
+                .when().get(getURLByPath("versionable"));
+
+        // children without a last modification date could be modified without the tag changing
+        given()
+                .expect()
+                .statusCode(SC_OK)
+                .header("ETag", is(nullValue()))
+                .when().get(getURLByPath("taggedParent"));
+    }
+
+    @Test
+    public void firstApplyingCachePolicyShouldSetCacheControl() throws RepositoryException {
+        final Node node = session.getRootNode().addNode("cached");
+        node.addNode("child");
+        session.save();
+
+        final CachePolicy other = new CachePolicy();
+        other.setWorkspace("live");
+        other.setMaxAge(10);
+        final CachePolicy matching = new CachePolicy();
+        matching.setPathPrefix("/cached/");
+        matching.setNodeType("nt:unstructured");
+        matching.setMaxAge(600);
+        matching.setStaleWhileRevalidate(60);
+        CachePolicies.getInstance().setPolicies(Arrays.asList(other, matching));
+
+        try {
+            expect()
+                    .statusCode(SC_OK)
+                    .header("Cache-Control", "private, max-age=600, stale-while-revalidate=60")
+                    .header("Vary", "Accept")
+                    .when().get(getURLByPath("cached/child"));
+
+            expect()
+                    .statusCode(SC_OK)
+                    .header("Cache-Control", "no-cache")
+                    .when().get(getURLByPath(""));
+        } finally {
+            CachePolicies.getInstance().setPolicies(null);
+        }
+    }
+
+    @Test
+    public void pathsShouldResolveToNodesCurrentlyAtThesePaths() throws RepositoryException {
+        final Node original = session.getRootNode().addNode("resolved").addNode("child");
+        session.save();
+
+        PathIdentifiers.getInstance().setMaxEntries(10);
+        try {
+            expect()
+                    .statusCode(SC_OK)
+                    .body("id", equalTo(original.getIdentifier()))
+                    .when().get(getURLByPath("resolved/child"));
+
+            // without any invalidation, nodes at a cached path must still be resolved properly once moved or replaced
+            session.move("/resolved", "/moved");
+            final Node replacement = session.getRootNode().addNode("resolved").addNode("child");
+            session.save();
+
+            expect()
+                    .statusCode(SC_OK)
+                    .body("id", equalTo(replacement.getIdentifier()))
+                    .when().get(getURLByPath("resolved/child"));
+
+            expect()
+                    .statusCode(SC_OK)
+                    .body("id", equalTo(original.getIdentifier()))
+                    .when().get(getURLByPath("moved/child"));
+
+            replacement.getParent().remove();
+            session.save();
+
+            expect()
+                    .statusCode(SC_NOT_FOUND)
+                    .when().get(getURLByPath("resolved/child"));
+        } finally {
+            PathIdentifiers.getInstance().setMaxEntries(0);
+        }
+    }
+
+    @Test
+    public void binaryJsonRepresentationsShouldHaveSameTreeAsJSON() throws IOException {
+        final String json = given()
+                .header("Accept", MediaType.APPLICATION_JSON)
+                .expect()
+                .statusCode(SC_OK)
+                .when().get(getURLByPath("")).asString();
+
+        final byte[] smile = given()
+                .header("Accept", Utils.MEDIA_TYPE_APPLICATION_SMILE)
+                .expect()
+                .statusCode(SC_OK)
+                .contentType(Utils.MEDIA_TYPE_APPLICATION_SMILE)
+                .when().get(getURLByPath("")).asByteArray();
+
+        final byte[] cbor = given()
+                .header("Accept", Utils.MEDIA_TYPE_APPLICATION_CBOR)
+                .expect()
+                .statusCode(SC_OK)
+                .contentType(Utils.MEDIA_TYPE_APPLICATION_CBOR)
+                .when().get(getURLByPath("")).asByteArray();
+
+        final Object tree = new ObjectMapper().readTree(json);
+        Assert.assertEquals(tree, new ObjectMapper(new SmileFactory()).readTree(smile));
+        Assert.assertEquals(tree, new ObjectMapper(new CBORFactory()).readTree(cbor));
+    }
+
     /*@Test
     public void testThatWeCanAccessValuesAndTypesFromLinks() {
         // get root and its JSON representation
@@ -505,6 +749,543 @@ public class APITest extends JerseyTest {
                 .post(generateURL(API_DEFAULT_EN + "query"));
     }
 
+    @Test
+    public void streamedQueryResultsShouldBeIdenticalToBufferedOnes() throws IOException {
+
+        final String nodeType = "nt:address";
+        for (int i = 0; i < 3; i++) {
+            createNode(nodeType, "thud" + i);
+        }
+
+        API.setQueryDisabled(false);
+
+        final String query = "{\"query\": \"SELECT * FROM [" + nodeType + "] as node where name(node) like 'thud%' order by name(node)\"}";
+        try {
+            final String buffered = given()
+                    .contentType("application/json")
+                    .body(query)
+                    .expect()
+                    .statusCode(SC_OK)
+                    .body(".", hasSize(3))
+                    .when()
+                    .post(generateURL(API_DEFAULT_EN + "query")).asString();
+
+            final String streamed = given()
+                    .contentType("application/json")
+                    .queryParam(API.STREAM, "true")
+                    .body(query)
+                    .expect()
+                    .statusCode(SC_OK)
+                    .body(".", hasSize(3))
+                    .body("[0].path", equalTo("/thud0"))
+                    .body("[2].path", equalTo("/thud2"))
+                    .when()
+                    .post(generateURL(API_DEFAULT_EN + "query")).asString();
+
+            Assert.assertEquals(new ObjectMapper().readTree(buffered), new ObjectMapper().readTree(streamed));
+        } finally {
+            API.setQueryDisabled(true);
+        }
+    }
+
+    @Test
+    public void streamingShouldCloseSessionWhenClientDisconnects() throws RepositoryException {
+
+        final String nodeType = "nt:address";
+        for (int i = 0; i < 2; i++) {
+            createNode(nodeType, "plugh" + i);
+        }
+
+        final Session streamingSession = repository.login();
+        final NodeIterator nodes = streamingSession.getWorkspace().getQueryManager()
+                .createQuery("SELECT * FROM [" + nodeType + "] as node where name(node) like 'plugh%'", Query.JCR_SQL2)
+                .execute().getNodes();
+
+        SessionAccess.setCurrentSession(streamingSession, "default", "en");
+        API.setOutputLinks(false);
+        final NodesStreamingOutput output;
+        try {
+            output = new NodesStreamingOutput(new API(), nodes, Filter.OUTPUT_ALL, 1, MediaType.APPLICATION_JSON_TYPE);
+        } finally {
+            API.setOutputLinks(true);
+        }
+
+        // simulate a client going away as soon as the first node is flushed
+        try {
+            output.write(new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    throw new IOException("Broken pipe");
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    throw new IOException("Broken pipe");
+                }
+            });
+            Assert.fail("Writing to a disconnected client should fail");
+        } catch (IOException e) {
+            // expected
+        }
+
+        Assert.assertFalse(streamingSession.isLive());
+    }
+
+    @Test
+    public void queryShouldSupportCountAndIdentifiersModes() {
+
+        final String nodeType = "nt:address";
+        for (int i = 0; i < 3; i++) {
+            createNode(nodeType, "qux" + i);
+        }
+
+        API.setQueryDisabled(false);
+
+        final String query = "\"query\": \"SELECT * FROM [" + nodeType + "] as node where name(node) like 'qux%' order by name(node)\"";
+        given()
+                .contentType("application/json")
+                .body("{" + query + ", \"mode\": \"count\"}")
+                .expect()
+                .statusCode(SC_OK)
+                .body("count", equalTo(3))
+                .when()
+                .post(generateURL(API_DEFAULT_EN + "query"));
+
+        given()
+                .contentType("application/json")
+                .body("{" + query + ", \"mode\": \"identifiers\"}")
+                .expect()
+                .statusCode(SC_OK)
+                .body(".", hasSize(3))
+                .body("[0].path", equalTo("/qux0"))
+                .body("[0].type", equalTo(nodeType))
+                .body("[0].id", notNullValue())
+                .body("[0].properties", nullValue())
+                .when()
+                .post(generateURL(API_DEFAULT_EN + "query"));
+
+        given()
+                .contentType("application/json")
+                .body("{" + query + ", \"mode\": \"foo\"}")
+                .expect()
+                .statusCode(SC_BAD_REQUEST)
+                .when()
+                .post(generateURL(API_DEFAULT_EN + "query"));
+
+        API.setQueryDisabled(true);
+    }
+
+    @Test
+    public void queryShouldOnlyReturnRequestedColumns() throws RepositoryException {
+        for (int i = 0; i < 2; i++) {
+            final Node node = session.getRootNode().addNode("waldo" + i);
+            node.setProperty("jcr:title", "title" + i);
+            node.setProperty("tags", new String[]{"tag" + i, "other"});
+            node.setProperty("data", session.getValueFactory().createBinary(new ByteArrayInputStream(new byte[]{1, 2, 3})));
+        }
+        session.save();
+
+        API.setQueryDisabled(false);
+
+        final String query = "\"query\": \"SELECT node.[jcr:title] AS [node.jcr:title], node.tags AS [node.tags], node.data AS [node.data] "
+                + "FROM [nt:unstructured] AS node WHERE name(node) LIKE 'waldo%' ORDER BY name(node)\"";
+        try {
+            // columns can be requested using their escaped or unescaped names, with or without their selector prefix, values being keyed by
+            // the escaped property names
+            for (String title : Arrays.asList("jcr:title", "jcr__title", "node.jcr:title", "node.jcr__title")) {
+                given()
+                        .contentType("application/json")
+                        .body("{" + query + ", \"columns\": [\"" + title + "\"]}")
+                        .expect()
+                        .statusCode(SC_OK)
+                        .body(".", hasSize(2))
+                        .body("[0].path", equalTo("/waldo0"))
+                        .body("[0].id", notNullValue())
+                        .body("[0].properties", nullValue())
+                        .body("[0].values.size()", equalTo(1))
+                        .body("[0].values.jcr__title", equalTo("title0"))
+                        .body("[1].values.jcr__title", equalTo("title1"))
+                        .when()
+                        .post(generateURL(API_DEFAULT_EN + "query"));
+            }
+
+            // an empty array requests all the selected columns, multi-valued properties being read from the node and binaries not being read
+            given()
+                    .contentType("application/json")
+                    .body("{" + query + ", \"columns\": []}")
+                    .expect()
+                    .statusCode(SC_OK)
+                    .body(".", hasSize(2))
+                    .body("[0].values.size()", equalTo(3))
+                    .body("[0].values.jcr__title", equalTo("title0"))
+                    .body("[0].values.tags", contains("tag0", "other"))
+                    .body("[0].values", hasKey("data"))
+                    .body("[0].values.data", nullValue())
+                    .when()
+                    .post(generateURL(API_DEFAULT_EN + "query"));
+
+            given()
+                    .contentType("application/json")
+                    .body("{" + query + ", \"columns\": [\"unknown\"]}")
+                    .expect()
+                    .statusCode(not(equalTo(SC_OK)))
+                    .when()
+                    .post(generateURL(API_DEFAULT_EN + "query"));
+        } finally {
+            API.setQueryDisabled(true);
+        }
+    }
+
+    @Test
+    public void columnsOfJoinQueriesShouldBeReadFromTheSelectorTheyBelongTo() throws RepositoryException {
+        for (int i = 0; i < 2; i++) {
+            final Node parent = session.getRootNode().addNode("xyzzy" + i);
+            parent.setProperty("jcr:title", "parent" + i);
+            parent.addNode("child").setProperty("jcr:title", "child" + i);
+        }
+        session.save();
+
+        API.setQueryDisabled(false);
+
+        final String query = "\"query\": \"SELECT parent.[jcr:title] AS [parent.jcr:title], child.[jcr:title] AS [child.jcr:title] "
+                + "FROM [nt:unstructured] AS parent INNER JOIN [nt:unstructured] AS child ON ISCHILDNODE(child, parent) "
+                + "WHERE name(parent) LIKE 'xyzzy%' ORDER BY name(parent)\"";
+        try {
+            given()
+                    .contentType("application/json")
+                    .body("{" + query + ", \"columns\": [\"child.jcr:title\"]}")
+                    .expect()
+                    .statusCode(SC_OK)
+                    .body(".", hasSize(2))
+                    .body("[0].path", equalTo("/xyzzy0/child"))
+                    .body("[0].values.jcr__title", equalTo("child0"))
+                    .body("[1].path", equalTo("/xyzzy1/child"))
+                    .when()
+                    .post(generateURL(API_DEFAULT_EN + "query"));
+
+            // rows match several nodes so columns from different selectors cannot be mixed
+            given()
+                    .contentType("application/json")
+                    .body("{" + query + ", \"columns\": [\"parent.jcr:title\", \"child.jcr:title\"]}")
+                    .expect()
+                    .statusCode(SC_BAD_REQUEST)
+                    .when()
+                    .post(generateURL(API_DEFAULT_EN + "query"));
+        } finally {
+            API.setQueryDisabled(true);
+        }
+    }
+
+    @Test
+    public void queryShouldReturnFullPagesOfNodesMatchingRequestedNodeTypes() {
+
+        final String nodeType = "nt:address";
+        createNode("nt:unstructured", "quux0");
+        createNode(nodeType, "quux1");
+        createNode("nt:unstructured", "quux2");
+        createNode(nodeType, "quux3");
+        createNode(nodeType, "quux4");
+
+        API.setQueryDisabled(false);
+
+        given()
+                .contentType("application/json")
+                .queryParam(API.CHILDREN_NODETYPE_FILTER, nodeType)
+                .body("{\"query\": \"SELECT * FROM [nt:base] as node where name(node) like 'quux%' order by name(node)\", \"limit\": 2}")
+                .expect()
+                .statusCode(SC_OK)
+                .body(".", hasSize(2))
+                .body("[0].path", equalTo("/quux1"))
+                .body("[1].path", equalTo("/quux3"))
+                .when()
+                .post(generateURL(API_DEFAULT_EN + "query"));
+
+        API.setQueryDisabled(true);
+    }
+
+    @Test
+    public void queriesShouldExecuteBatchOfQueriesKeyedByIds() {
+
+        final String nodeType = "nt:address";
+        for (int i = 0; i < 3; i++) {
+            createNode(nodeType, "corge" + i);
+        }
+
+        API.setQueryDisabled(false);
+
+        final String query = "\"query\": \"SELECT * FROM [" + nodeType + "] as node where name(node) like 'corge%' order by name(node)\"";
+        given()
+                .contentType("application/json")
+                .body("[{\"id\": \"first\", " + query + ", \"limit\": 2}, {\"id\": \"count\", " + query + ", \"mode\": \"count\"}, "
+                        + "{\"id\": \"invalid\", " + query + ", \"mode\": \"foo\"}]")
+                .expect()
+                .statusCode(SC_OK)
+                .body("first.status", equalTo(SC_OK))
+                .body("first.result", hasSize(2))
+                .body("first.result[0].path", equalTo("/corge0"))
+                .body("first.continuationToken", notNullValue())
+                .body("count.result.count", equalTo(3))
+                .body("invalid.status", equalTo(SC_BAD_REQUEST))
+                .body("invalid.error", notNullValue())
+                .when()
+                .post(generateURL(API_DEFAULT_EN + "queries"));
+
+        given()
+                .contentType("application/json")
+                .body("[{\"id\": \"same\", " + query + "}, {\"id\": \"same\", " + query + "}]")
+                .expect()
+                .statusCode(SC_BAD_REQUEST)
+                .when()
+                .post(generateURL(API_DEFAULT_EN + "queries"));
+
+        API.setQueryDisabled(true);
+    }
+
+    @Test
+    public void queryResultsShouldBeTruncatedOnceBudgetIsSpent() {
+
+        final String nodeType = "nt:address";
+        for (int i = 0; i < 3; i++) {
+            createNode(nodeType, "grault" + i);
+        }
+
+        API.setQueryDisabled(false);
+
+        given()
+                .contentType("application/json")
+                .body("{\"query\": \"SELECT * FROM [" + nodeType + "] as node where name(node) like 'grault%' order by name(node)\", "
+                        + "\"limit\": 10, \"maxResults\": 2}")
+                .expect()
+                .statusCode(SC_OK)
+                .header(API.TRUNCATED_HEADER, equalTo("true"))
+                .header(API.CONTINUATION_TOKEN_HEADER, notNullValue())
+                .body(".", hasSize(2))
+                .when()
+                .post(generateURL(API_DEFAULT_EN + "query"));
+
+        API.setQueryDisabled(true);
+    }
+
+    @Test
+    public void typesShouldBeOrderable() {
+
+        final String nodeType = "nt:address";
+        for (int i = 0; i < 3; i++) {
+            createNode(nodeType, "garply" + i);
+        }
+
+        API.setQueryDisabled(false);
+
+        given()
+                .queryParam("nameContains", "garply")
+                .queryParam("orderBy", "name desc")
+                .queryParam("limit", 2)
+                .expect()
+                .statusCode(SC_OK)
+                .body(".", hasSize(2))
+                .body("[0].name", equalTo("garply2"))
+                .body("[1].name", equalTo("garply1"))
+                .when()
+                .get(generateURL(API_DEFAULT_EN + "types/" + Names.escape(nodeType)));
+
+        API.setQueryDisabled(true);
+    }
+
+    @Test
+    public void typesShouldBeOrderedEvenIfRepositoryIgnoresOrdering() throws RepositoryException {
+
+        // create nodes in an order that matches neither their names nor their ranks so that results in repository order are misordered
+        final int[] creationOrder = {2, 0, 3, 1};
+        for (int i : creationOrder) {
+            session.getRootNode().addNode("fubar" + i).setProperty("rank", (long) (i * 7 % 4));
+        }
+        session.save();
+
+        API.setQueryDisabled(false);
+
+        try {
+            given()
+                    .queryParam("nameContains", "fubar")
+                    .queryParam("orderBy", "name")
+                    .queryParam("offset", 1)
+                    .queryParam("limit", 2)
+                    .expect()
+                    .statusCode(SC_OK)
+                    .header(API.TRUNCATED_HEADER, nullValue())
+                    .body(".", hasSize(2))
+                    .body("[0].name", equalTo("fubar1"))
+                    .body("[1].name", equalTo("fubar2"))
+                    .when()
+                    .get(generateURL(API_DEFAULT_EN + "types/" + Names.escape("nt:unstructured")));
+
+            // ranks are 0, 3, 2 and 1 for fubar0 to fubar3
+            given()
+                    .queryParam("nameContains", "fubar")
+                    .queryParam("orderBy", "rank desc")
+                    .expect()
+                    .statusCode(SC_OK)
+                    .body(".", hasSize(4))
+                    .body("[0].name", equalTo("fubar1"))
+                    .body("[1].name", equalTo("fubar2"))
+                    .body("[2].name", equalTo("fubar3"))
+                    .body("[3].name", equalTo("fubar0"))
+                    .when()
+                    .get(generateURL(API_DEFAULT_EN + "types/" + Names.escape("nt:unstructured")));
+
+            // ordering all results in memory is flagged as truncated if the budget is spent before all nodes are processed
+            SpringBeansAccess.getInstance().setQueryMaxResults("2");
+            given()
+                    .queryParam("nameContains", "fubar")
+                    .queryParam("orderBy", "name")
+                    .expect()
+                    .statusCode(SC_OK)
+                    .header(API.TRUNCATED_HEADER, equalTo("true"))
+                    .when()
+                    .get(generateURL(API_DEFAULT_EN + "types/" + Names.escape("nt:unstructured")));
+        } finally {
+            SpringBeansAccess.getInstance().setQueryMaxResults("0");
+            API.setQueryDisabled(true);
+        }
+    }
+
+    @Test
+    public void queryShouldBePageableUsingContinuationTokens() {
+
+        final String nodeType = "nt:address";
+        final String name = "baz";
+        for (int i = 0; i < 5; i++) {
+            createNode(nodeType, name + i);
+        }
+
+        API.setQueryDisabled(false);
+
+        final String query = "\"query\": \"SELECT * FROM [" + nodeType + "] as node where name(node) like 'baz%' order by name(node)\", \"limit\": 2";
+        final String firstToken = given()
+                .contentType("application/json")
+                .body("{" + query + "}")
+                .queryParam("noLinks", "true")
+                .expect()
+                .statusCode(SC_OK)
+                .body(".", hasSize(2))
+                .body("[0].path", equalTo("/baz0"))
+                .body("[1].path", equalTo("/baz1"))
+                .header(API.CONTINUATION_TOKEN_HEADER, notNullValue())
+                .when()
+                .post(generateURL(API_DEFAULT_EN + "query"))
+                .header(API.CONTINUATION_TOKEN_HEADER);
+
+        final String secondToken = given()
+                .contentType("application/json")
+                .body("{" + query + ", \"continuationToken\": \"" + firstToken + "\"}")
+                .queryParam("noLinks", "true")
+                .expect()
+                .statusCode(SC_OK)
+                .body(".", hasSize(2))
+                .body("[0].path", equalTo("/baz2"))
+                .body("[1].path", equalTo("/baz3"))
+                .when()
+                .post(generateURL(API_DEFAULT_EN + "query"))
+                .header(API.CONTINUATION_TOKEN_HEADER);
+
+        given()
+                .contentType("application/json")
+                .body("{" + query + ", \"continuationToken\": \"" + secondToken + "\"}")
+                .queryParam("noLinks", "true")
+                .expect()
+                .statusCode(SC_OK)
+                .body(".", hasSize(1))
+                .body("[0].path", equalTo("/baz4"))
+                .header(API.CONTINUATION_TOKEN_HEADER, nullValue())
+                .when()
+                .post(generateURL(API_DEFAULT_EN + "query"));
+
+        // tampered or garbage tokens are rejected
+        final String tampered = new ContinuationToken(PropertyType.LONG, "not a number", "foo", 1).asString();
+        for (String token : Arrays.asList(tampered, "garbage")) {
+            given()
+                    .contentType("application/json")
+                    .body("{" + query + ", \"continuationToken\": \"" + token + "\"}")
+                    .expect()
+                    .statusCode(SC_BAD_REQUEST)
+                    .when()
+                    .post(generateURL(API_DEFAULT_EN + "query"));
+        }
+
+        API.setQueryDisabled(true);
+    }
+
+    @Test
+    public void importShouldSaveValidRecordsAndReportFailedOnes() throws RepositoryException {
+        final Node root = session.getRootNode();
+        final Node existing = root.addNode("imported2");
+        session.save();
+
+        given()
+                .contentType(Utils.MEDIA_TYPE_APPLICATION_NDJSON)
+                .queryParam(API.CHUNK_SIZE, 2)
+                .body("{\"name\": \"imported0\", \"type\": \"nt:unstructured\"}\n"
+                        + "{\"name\": \"imported1\", \"type\": \"foo:bar\"}\n"
+                        + "{\"name\": \"imported2\", \"properties\": {\"foo\": {\"value\": \"bar\"}}}\n")
+                .expect()
+                .statusCode(SC_OK)
+                .contentType(Utils.MEDIA_TYPE_APPLICATION_NDJSON)
+                .body(
+                        containsString("{\"record\":1,\"status\":201,\"name\":\"imported0\""),
+                        containsString("{\"record\":2,\"status\":"),
+                        containsString("\"error\":"),
+                        containsString("{\"record\":3,\"status\":200,\"name\":\"imported2\",\"id\":\"" + existing.getIdentifier() + "\"}")
+                )
+                .when()
+                .post(generateURL(API_DEFAULT_EN + "nodes/" + root.getIdentifier() + "/" + Nodes.IMPORT));
+
+        session.refresh(false);
+        Assert.assertTrue(root.hasNode("imported0"));
+        Assert.assertFalse(root.hasNode("imported1"));
+        Assert.assertEquals("bar", existing.getProperty("foo").getString());
+
+        given()
+                .contentType(Utils.MEDIA_TYPE_APPLICATION_NDJSON)
+                .queryParam(API.CHUNK_SIZE, 0)
+                .body("{\"name\": \"imported3\"}\n")
+                .expect()
+                .statusCode(SC_BAD_REQUEST)
+                .when()
+                .post(generateURL(API_DEFAULT_EN + "nodes/" + root.getIdentifier() + "/" + Nodes.IMPORT));
+    }
+
+    @Test
+    public void importShouldOnlyReportRecordsMakingSaveFail() throws RepositoryException {
+        final Node root = session.getRootNode();
+
+        // nt:resource nodes can be added without their mandatory jcr:data property but cannot be saved
+        given()
+                .contentType(Utils.MEDIA_TYPE_APPLICATION_NDJSON)
+                .queryParam(API.CHUNK_SIZE, 4)
+                .body("{\"name\": \"chunked0\", \"type\": \"nt:unstructured\"}\n"
+                        + "{\"name\": \"chunked1\", \"type\": \"nt:unstructured\"}\n"
+                        + "{\"name\": \"chunked2\", \"type\": \"nt:resource\"}\n"
+                        + "{\"name\": \"chunked3\", \"type\": \"nt:unstructured\"}\n")
+                .expect()
+                .statusCode(SC_OK)
+                .contentType(Utils.MEDIA_TYPE_APPLICATION_NDJSON)
+                .body(
+                        containsString("{\"record\":1,\"status\":201,\"name\":\"chunked0\""),
+                        containsString("{\"record\":2,\"status\":201,\"name\":\"chunked1\""),
+                        containsString("{\"record\":3,\"status\":"),
+                        not(containsString("{\"record\":3,\"status\":201")),
+                        containsString("\"error\":"),
+                        containsString("{\"record\":4,\"status\":201,\"name\":\"chunked3\"")
+                )
+                .when()
+                .post(generateURL(API_DEFAULT_EN + "nodes/" + root.getIdentifier() + "/" + Nodes.IMPORT));
+
+        session.refresh(false);
+        Assert.assertTrue(root.hasNode("chunked0"));
+        Assert.assertTrue(root.hasNode("chunked1"));
+        Assert.assertFalse(root.hasNode("chunked2"));
+        Assert.assertTrue(root.hasNode("chunked3"));
+    }
+
     private String generateURL(String path) {
         return target(path).getUri().toASCIIString();
     }
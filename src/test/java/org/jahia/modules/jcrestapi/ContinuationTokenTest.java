@@ -0,0 +1,95 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.apache.jackrabbit.value.ValueFactoryImpl;
+import org.junit.Test;
+
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ContinuationTokenTest {
+    @Test
+    public void tokenShouldSurviveRoundTrip() {
+        final ContinuationToken token = new ContinuationToken(PropertyType.DATE, "2019-04-19T10:00:00.000+02:00", "c5a0d9d4-4e9b-4a0e-8a38-f6e5b1c1b6a2", 3);
+
+        final String asString = token.asString();
+        assertThat(asString).doesNotContain("+", "/", "=");
+
+        final ContinuationToken parsed = ContinuationToken.fromString(asString);
+        assertThat(parsed.getType()).isEqualTo(PropertyType.DATE);
+        assertThat(parsed.getValue()).isEqualTo("2019-04-19T10:00:00.000+02:00");
+        assertThat(parsed.getIdentifier()).isEqualTo("c5a0d9d4-4e9b-4a0e-8a38-f6e5b1c1b6a2");
+        assertThat(parsed.getOccurrences()).isEqualTo(3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parsingGarbageShouldFail() {
+        ContinuationToken.fromString("not a token");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parsingTruncatedTokenShouldFail() {
+        final String asString = new ContinuationToken(PropertyType.STRING, "foo", "bar", 1).asString();
+        ContinuationToken.fromString(asString.substring(0, asString.length() / 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parsingTokenWithUnknownTypeShouldFail() {
+        ContinuationToken.fromString(new ContinuationToken(9999, "foo", "bar", 1).asString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parsingTokenWithInvalidOccurrencesShouldFail() {
+        ContinuationToken.fromString(new ContinuationToken(PropertyType.STRING, "foo", "bar", 0).asString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void creatingValueNotMatchingTypeShouldFail() throws RepositoryException {
+        final String asString = new ContinuationToken(PropertyType.LONG, "not a number", "bar", 1).asString();
+        ContinuationToken.fromString(asString).createValue(ValueFactoryImpl.getInstance());
+    }
+}
@@ -96,6 +96,7 @@ public class Mocks {
 
         // mock node type
         final NodeType nodeType = createNodeType("nodeType");
+        when(nodeType.getSupertypes()).thenReturn(new NodeType[]{createNodeType(Constants.NT_BASE)});
 
         // mock parent
         Node parent = mock(Node.class);
@@ -266,6 +267,7 @@ public class Mocks {
     protected static NodeType createNodeType(String typeName) {
         NodeType nodeType = mock(NodeType.class);
         when(nodeType.getName()).thenReturn(typeName);
+        when(nodeType.getSupertypes()).thenReturn(new NodeType[0]);
         return nodeType;
     }
 
@@ -0,0 +1,115 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.junit.Test;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.nodetype.NodeType;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class NodeTypeFilterTest {
+    private final NodeType base = createNodeType("nt:base");
+    private final NodeType content = createNodeType("jnt:content", base);
+    private final NodeType text = createNodeType("jnt:text", content, base);
+    private final NodeType skipped = createNodeType("jnt:skipped", base);
+    private final NodeType mixin = createNodeType("jmix:tagged");
+
+    @Test
+    public void decisionsShouldBeMadeOncePerEffectiveTypeSet() throws RepositoryException {
+        final NodeTypeFilter filter = NodeTypeFilter.of(Collections.singleton("jnt:content"), Collections.<String>emptySet());
+
+        assertThat(filter.isAccepted(createNode(text))).isTrue();
+        assertThat(filter.isAccepted(createNode(text))).isTrue();
+        assertThat(filter.isAccepted(createNode(base))).isFalse();
+        verify(text, times(1)).getSupertypes();
+
+        // mixins are part of the effective type set
+        assertThat(filter.isAccepted(createNode(base, mixin))).isFalse();
+        final NodeTypeFilter mixinFilter = NodeTypeFilter.of(Collections.singleton("jmix:tagged"), Collections.<String>emptySet());
+        assertThat(mixinFilter.isAccepted(createNode(base, mixin))).isTrue();
+        assertThat(mixinFilter.isAccepted(createNode(base))).isFalse();
+
+        // filters are shared between requests accepting the same node types
+        assertThat(NodeTypeFilter.of(new HashSet<String>(Collections.singleton("jnt:content")), Collections.<String>emptySet())).isSameAs(filter);
+    }
+
+    @Test
+    public void excludedNodeTypesShouldAlwaysBeExcluded() throws RepositoryException {
+        final Set<String> excluded = Collections.singleton("jnt:skipped");
+
+        assertThat(NodeTypeFilter.of(Collections.<String>emptySet(), excluded).isAccepted(createNode(skipped))).isFalse();
+        assertThat(NodeTypeFilter.of(Collections.<String>emptySet(), excluded).isAccepted(createNode(text))).isTrue();
+        assertThat(NodeTypeFilter.of(Collections.singleton("nt:base"), excluded).isAccepted(createNode(skipped))).isFalse();
+    }
+
+    @Test
+    public void decisionsShouldFollowNodeTypeChanges() throws RepositoryException {
+        final NodeTypeFilter filter = NodeTypeFilter.of(Collections.singleton("jnt:content"), Collections.singleton("jnt:excluded"));
+        assertThat(filter.isAccepted(createNode(createNodeType("jnt:changing", base)))).isFalse();
+
+        // registering a new definition of the type creates a new instance
+        assertThat(filter.isAccepted(createNode(createNodeType("jnt:changing", content, base)))).isTrue();
+    }
+
+    private static NodeType createNodeType(String name, NodeType... supertypes) {
+        final NodeType nodeType = mock(NodeType.class);
+        when(nodeType.getName()).thenReturn(name);
+        when(nodeType.getSupertypes()).thenReturn(supertypes);
+        return nodeType;
+    }
+
+    private static Node createNode(NodeType primary, NodeType... mixins) throws RepositoryException {
+        final Node node = mock(Node.class);
+        when(node.getPrimaryNodeType()).thenReturn(primary);
+        when(node.getMixinNodeTypes()).thenReturn(mixins);
+        return node;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+import java.util.Collections;
+
+import static org.mockito.Mockito.*;
+
+public class PathIdentifiersTest {
+    private final PathIdentifiers cache = PathIdentifiers.getInstance();
+    private Session session;
+
+    @Before
+    public void setUp() throws RepositoryException {
+        cache.setMaxEntries(10);
+
+        final Workspace workspace = mock(Workspace.class);
+        when(workspace.getName()).thenReturn("default");
+        session = mock(Session.class);
+        when(session.getWorkspace()).thenReturn(workspace);
+        mockNode("/sites/site/home", "home");
+        mockNode("/sites/site/about", "about");
+        mockNode("/sites/other", "other");
+    }
+
+    @After
+    public void tearDown() {
+        cache.setMaxEntries(0);
+    }
+
+    @Test
+    public void cachedPathsShouldBeResolvedUsingIdentifiers() throws RepositoryException {
+        cache.getNode("/sites/site/home", session);
+        cache.getNode("/sites/site/home", session);
+        cache.getNode("/sites/site/home", session);
+
+        verify(session, times(1)).getNode("/sites/site/home");
+        verify(session, times(2)).getNodeByIdentifier("home");
+    }
+
+    @Test
+    public void movingOrRemovingAncestorsShouldEvictDescendants() throws RepositoryException {
+        cache.getNode("/sites/site/home", session);
+        cache.getNode("/sites/site/about", session);
+        cache.getNode("/sites/other", session);
+
+        cache.invalidate("live", Collections.singleton("/sites/site"));
+        cache.invalidate("default", Collections.singleton("/sites/site"));
+        cache.getNode("/sites/site/home", session);
+        cache.getNode("/sites/site/about", session);
+        cache.getNode("/sites/other", session);
+
+        verify(session, times(2)).getNode("/sites/site/home");
+        verify(session, times(2)).getNode("/sites/site/about");
+        verify(session, times(1)).getNode("/sites/other");
+
+        cache.invalidate("default", Collections.singleton("/"));
+        cache.getNode("/sites/other", session);
+        verify(session, times(2)).getNode("/sites/other");
+    }
+
+    private void mockNode(String path, String identifier) throws RepositoryException {
+        final Node node = mock(Node.class);
+        when(node.getPath()).thenReturn(path);
+        when(node.getIdentifier()).thenReturn(identifier);
+        when(session.getNode(path)).thenReturn(node);
+        when(session.getNodeByIdentifier(identifier)).thenReturn(node);
+    }
+}
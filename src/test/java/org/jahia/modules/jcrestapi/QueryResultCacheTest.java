@@ -0,0 +1,296 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.query.Query;
+import javax.jcr.query.qom.And;
+import javax.jcr.query.qom.ChildNode;
+import javax.jcr.query.qom.Comparison;
+import javax.jcr.query.qom.Constraint;
+import javax.jcr.query.qom.DescendantNode;
+import javax.jcr.query.qom.Or;
+import javax.jcr.query.qom.QueryObjectModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class QueryResultCacheTest {
+    private static final String STATEMENT = "SELECT * FROM [nt:base] AS n WHERE ISDESCENDANTNODE(n, '/sites/site')";
+    private static final List<String> IDENTIFIERS = Arrays.asList("id1", "id2");
+
+    private final QueryResultCache cache = QueryResultCache.getInstance();
+
+    @Before
+    public void setUp() {
+        cache.setTimeToLive(60);
+        cache.setMaxEntries(3);
+    }
+
+    @After
+    public void tearDown() {
+        cache.setMaxEntries(0);
+    }
+
+    @Test
+    public void entriesShouldBeSpecificToUserParametersAndPaging() {
+        put(key("root", null, null, 10, 0), "/sites/site");
+
+        assertThat(cache.get(key("root", null, null, 10, 0))).isEqualTo(IDENTIFIERS);
+        // results depend on the permissions of the user
+        assertThat(cache.get(key("other", null, null, 10, 0))).isNull();
+        assertThat(cache.get(key("root", Collections.singletonMap("param", "value"), null, 10, 0))).isNull();
+        assertThat(cache.get(key("root", null, "token", 10, 0))).isNull();
+        assertThat(cache.get(key("root", null, null, 20, 0))).isNull();
+        assertThat(cache.get(key("root", null, null, 10, 10))).isNull();
+        assertThat(cache.get(new QueryResultCache.Key("live", "en", "root", STATEMENT, null, null, null, 10, 0))).isNull();
+        assertThat(cache.get(new QueryResultCache.Key("default", "fr", "root", STATEMENT, null, null, null, 10, 0))).isNull();
+        assertThat(cache.get(new QueryResultCache.Key("default", "en", "root", STATEMENT, null, Collections.singleton("jnt:page"), null, 10, 0)))
+                .isNull();
+    }
+
+    @Test
+    public void modificationsShouldOnlyEvictResultsScopedAboveThem() {
+        final QueryResultCache.Key scoped = key("root", null, null, 10, 0);
+        final QueryResultCache.Key other = key("root", null, null, 10, 10);
+        final QueryResultCache.Key unscoped = key("root", null, null, 10, 20);
+        put(scoped, "/sites/site");
+        put(other, "/sites/other");
+        put(unscoped, "/");
+
+        cache.invalidate("default", "/sites/site/home/jcr:title", Event.PROPERTY_CHANGED);
+        assertThat(cache.get(scoped)).isNull();
+        assertThat(cache.get(other)).isNotNull();
+        assertThat(cache.get(unscoped)).isNull();
+
+        // modifications in other workspaces don't impact this one
+        cache.invalidate("live", "/sites/other/jcr:title", Event.PROPERTY_CHANGED);
+        assertThat(cache.get(other)).isNotNull();
+
+        // property modifications of ancestors don't change what is below them
+        cache.invalidate("default", "/sites/jcr:title", Event.PROPERTY_CHANGED);
+        assertThat(cache.get(other)).isNotNull();
+
+        // moving an ancestor does
+        cache.invalidate("default", "/sites", Event.NODE_MOVED);
+        assertThat(cache.get(other)).isNull();
+    }
+
+    @Test
+    public void batchedModificationsShouldBeInvalidatedInOneScan() {
+        final QueryResultCache.Key scoped = key("root", null, null, 10, 0);
+        final QueryResultCache.Key moved = key("root", null, null, 10, 10);
+        final QueryResultCache.Key other = key("root", null, null, 10, 20);
+        put(scoped, "/sites/site/home");
+        put(moved, "/sites/site/about/team");
+        put(other, "/sites/other");
+        final long generation = cache.getGeneration("default");
+
+        cache.invalidate("default", new HashSet<String>(Arrays.asList("/sites/site/home/child/jcr:title", "/sites/jcr:title")),
+                Collections.singleton("/sites/site/about"));
+        assertThat(cache.get(scoped)).isNull();
+        assertThat(cache.get(moved)).isNull();
+        assertThat(cache.get(other)).isNotNull();
+
+        // the whole batch only counts as one modification
+        assertThat(cache.getGeneration("default")).isEqualTo(generation + 1);
+    }
+
+    @Test
+    public void invalidatorShouldInvalidateOncePerBatchOfEvents() throws RepositoryException {
+        final QueryResultCache.Key scoped = key("root", null, null, 10, 0);
+        final QueryResultCache.Key other = key("root", null, null, 10, 10);
+        put(scoped, "/sites/site");
+        put(other, "/sites/other");
+        final long generation = cache.getGeneration("default");
+
+        final List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 100; i++) {
+            events.add(event("/sites/site/page" + i + "/jcr:title", Event.PROPERTY_CHANGED));
+        }
+        events.add(event("/sites/site/page0", Event.NODE_ADDED));
+        final EventIterator iterator = mock(EventIterator.class);
+        final Iterator<Event> eventsIterator = events.iterator();
+        when(iterator.hasNext()).then(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                return eventsIterator.hasNext();
+            }
+        });
+        when(iterator.nextEvent()).then(new Answer<Event>() {
+            @Override
+            public Event answer(InvocationOnMock invocation) {
+                return eventsIterator.next();
+            }
+        });
+
+        final QueryResultCacheInvalidator invalidator = new QueryResultCacheInvalidator();
+        invalidator.setWorkspace("default");
+        invalidator.onEvent(iterator);
+
+        assertThat(cache.get(scoped)).isNull();
+        assertThat(cache.get(other)).isNotNull();
+        assertThat(cache.getGeneration("default")).isEqualTo(generation + 1);
+    }
+
+    @Test
+    public void cacheShouldBeDisabledUntilConfigured() {
+        cache.setMaxEntries(0);
+        assertThat(cache.isEnabled()).isFalse();
+
+        final QueryResultCache.Key key = key("root", null, null, 10, 0);
+        put(key, "/sites/site");
+        assertThat(cache.get(key)).isNull();
+    }
+
+    @Test
+    public void accessControlModificationsShouldEvictTheWholeWorkspace() {
+        final QueryResultCache.Key key = key("root", null, null, 10, 0);
+        final QueryResultCache.Key live = new QueryResultCache.Key("live", "en", "root", STATEMENT, null, null, null, 10, 0);
+        put(key, "/sites/site");
+        cache.put(live, IDENTIFIERS, "/sites/site", cache.getGeneration("live"));
+
+        cache.invalidate("default", "/sites/other/j:acl/GRANT_u_user", Event.NODE_ADDED);
+        assertThat(cache.get(key)).isNull();
+        assertThat(cache.get(live)).isNotNull();
+    }
+
+    @Test
+    public void expiredEntriesShouldNotBeReturned() {
+        final QueryResultCache.Key key = key("root", null, null, 10, 0);
+        put(key, "/sites/site");
+
+        cache.setTimeToLive(-1);
+        assertThat(cache.get(key)).isNull();
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesShouldBeEvictedFirst() {
+        final QueryResultCache.Key first = key("root", null, null, 10, 0);
+        final QueryResultCache.Key second = key("root", null, null, 10, 10);
+        final QueryResultCache.Key third = key("root", null, null, 10, 20);
+        put(first, "/");
+        put(second, "/");
+        put(third, "/");
+        cache.get(first);
+
+        final QueryResultCache.Key fourth = key("root", null, null, 10, 30);
+        put(fourth, "/");
+        assertThat(cache.get(second)).isNull();
+        assertThat(cache.get(first)).isNotNull();
+        assertThat(cache.get(third)).isNotNull();
+        assertThat(cache.get(fourth)).isNotNull();
+    }
+
+    @Test
+    public void resultsOfQueriesExecutedConcurrentlyWithModificationsShouldNotBeCached() {
+        final long generation = cache.getGeneration("default");
+        cache.invalidate("default", "/unrelated", Event.NODE_ADDED);
+
+        final QueryResultCache.Key key = key("root", null, null, 10, 0);
+        cache.put(key, IDENTIFIERS, "/sites/site", generation);
+        assertThat(cache.get(key)).isNull();
+
+        cache.put(key, IDENTIFIERS, "/sites/site", cache.getGeneration("default"));
+        assertThat(cache.get(key)).isEqualTo(IDENTIFIERS);
+    }
+
+    @Test
+    public void scopeShouldBeDerivedFromPathConstraints() {
+        final DescendantNode descendant = mock(DescendantNode.class);
+        when(descendant.getAncestorPath()).thenReturn("/sites/site");
+        final ChildNode child = mock(ChildNode.class);
+        when(child.getParentPath()).thenReturn("/sites/other");
+        final Comparison comparison = mock(Comparison.class);
+
+        final And and = mock(And.class);
+        when(and.getConstraint1()).thenReturn(comparison);
+        when(and.getConstraint2()).thenReturn(descendant);
+        assertThat(QueryResultCache.getScope(query(and))).isEqualTo("/sites/site");
+        assertThat(QueryResultCache.getScope(query(child))).isEqualTo("/sites/other");
+
+        // disjunctions can match nodes anywhere
+        final Or or = mock(Or.class);
+        when(or.getConstraint1()).thenReturn(descendant);
+        when(or.getConstraint2()).thenReturn(child);
+        assertThat(QueryResultCache.getScope(query(or))).isEqualTo("/");
+        assertThat(QueryResultCache.getScope(mock(Query.class))).isEqualTo("/");
+    }
+
+    private static Event event(String path, int type) throws RepositoryException {
+        final Event event = mock(Event.class);
+        when(event.getPath()).thenReturn(path);
+        when(event.getType()).thenReturn(type);
+        return event;
+    }
+
+    private static Query query(Constraint constraint) {
+        final QueryObjectModel query = mock(QueryObjectModel.class);
+        when(query.getConstraint()).thenReturn(constraint);
+        return query;
+    }
+
+    private void put(QueryResultCache.Key key, String scope) {
+        cache.put(key, IDENTIFIERS, scope, cache.getGeneration("default"));
+    }
+
+    private static QueryResultCache.Key key(String user, Object parameters, String continuationToken, int limit, int offset) {
+        return new QueryResultCache.Key("default", "en", user, STATEMENT, parameters, null, continuationToken, limit, offset);
+    }
+}
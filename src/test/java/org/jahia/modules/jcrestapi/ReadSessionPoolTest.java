@@ -0,0 +1,184 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.Locale;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class ReadSessionPoolTest {
+    private static final String KEY = ReadSessionPool.getKey("root@null", "default", Locale.ENGLISH);
+
+    private final ReadSessionPool pool = ReadSessionPool.getInstance();
+
+    @Before
+    public void setUp() {
+        pool.setEnabled(true);
+        pool.setMaxIdle(1);
+        pool.setMaxTotalIdle(64);
+        pool.setMaxIdleTime(60);
+        pool.setMaxLifetime(300);
+        pool.setLeakTimeout(300);
+    }
+
+    @After
+    public void tearDown() {
+        pool.setEnabled(false);
+    }
+
+    @Test
+    public void returnedSessionsShouldBeRefreshedAndReused() throws RepositoryException {
+        assertThat(pool.checkout(KEY)).isNull();
+
+        final Session session = createSession();
+        pool.checkedOut(KEY, session);
+        assertThat(pool.checkin(session)).isTrue();
+        verify(session, never()).logout();
+
+        assertThat(pool.checkout(ReadSessionPool.getKey("other@null", "default", Locale.ENGLISH))).isNull();
+        assertThat(pool.checkout(KEY)).isSameAs(session);
+        verify(session).refresh(false);
+        assertThat(pool.checkout(KEY)).isNull();
+    }
+
+    @Test
+    public void sessionsNotFromThePoolShouldNotBeReturned() throws RepositoryException {
+        final Session session = createSession();
+        assertThat(pool.checkin(session)).isFalse();
+        assertThat(pool.checkout(KEY)).isNull();
+    }
+
+    @Test
+    public void sessionsBeyondMaxIdleShouldBeLoggedOut() throws RepositoryException {
+        final Session first = createSession();
+        final Session second = createSession();
+        pool.checkedOut(KEY, first);
+        pool.checkedOut(KEY, second);
+
+        assertThat(pool.checkin(first)).isTrue();
+        assertThat(pool.checkin(second)).isTrue();
+        verify(first, never()).logout();
+        verify(second).logout();
+    }
+
+    @Test
+    public void expiredSessionsShouldBeLoggedOut() throws RepositoryException {
+        final Session session = createSession();
+        pool.checkedOut(KEY, session);
+        pool.checkin(session);
+
+        pool.setMaxIdleTime(-1);
+        assertThat(pool.checkout(KEY)).isNull();
+        verify(session).logout();
+    }
+
+    @Test
+    public void expiredSessionsOfOtherKeysShouldBeLoggedOut() throws RepositoryException {
+        final Session session = createSession();
+        pool.checkedOut(KEY, session);
+        pool.checkin(session);
+
+        pool.setMaxIdleTime(-1);
+        assertThat(pool.checkout(ReadSessionPool.getKey("other@null", "default", Locale.ENGLISH))).isNull();
+        verify(session).logout();
+    }
+
+    @Test
+    public void sessionsBeyondMaxTotalIdleShouldBeLoggedOut() throws RepositoryException {
+        pool.setMaxTotalIdle(1);
+        final String otherKey = ReadSessionPool.getKey("other@null", "default", Locale.ENGLISH);
+        final Session first = createSession();
+        final Session second = createSession();
+        pool.checkedOut(KEY, first);
+        pool.checkedOut(otherKey, second);
+
+        assertThat(pool.checkin(first)).isTrue();
+        assertThat(pool.checkin(second)).isTrue();
+        verify(first, never()).logout();
+        verify(second).logout();
+
+        // reusing the idle session makes room for another one
+        assertThat(pool.checkout(KEY)).isSameAs(first);
+        final Session third = createSession();
+        pool.checkedOut(otherKey, third);
+        assertThat(pool.checkin(third)).isTrue();
+        verify(third, never()).logout();
+    }
+
+    @Test
+    public void leakedSessionsShouldBeLoggedOutAndForgotten() throws RepositoryException {
+        final Session session = createSession();
+        pool.checkedOut(KEY, session);
+
+        pool.setLeakTimeout(-1);
+        pool.checkout(KEY);
+        verify(session).logout();
+
+        // the leaked session is not known to the pool anymore so it must be closed by the caller
+        assertThat(pool.checkin(session)).isFalse();
+    }
+
+    @Test
+    public void disablingThePoolShouldLogOutIdleSessions() throws RepositoryException {
+        final Session session = createSession();
+        pool.checkedOut(KEY, session);
+        pool.checkin(session);
+
+        pool.setEnabled(false);
+        verify(session).logout();
+    }
+
+    private static Session createSession() {
+        final Session session = mock(Session.class);
+        when(session.isLive()).thenReturn(true);
+        return session;
+    }
+}
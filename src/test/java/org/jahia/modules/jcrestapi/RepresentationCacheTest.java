@@ -0,0 +1,185 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.jcr.observation.Event;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RepresentationCacheTest {
+    private final RepresentationCache cache = RepresentationCache.getInstance();
+
+    @Before
+    public void setUp() {
+        cache.setMaxSize(1024);
+        cache.setMaxEntries(3);
+    }
+
+    @After
+    public void tearDown() {
+        cache.setMaxEntries(0);
+    }
+
+    @Test
+    public void modificationsShouldOnlyEvictRepresentationsRenderedFromModifiedContent() {
+        final long invalidations = cache.getInvalidations();
+        final RepresentationCache.Key node = put("/sites/site/home");
+        final RepresentationCache.Key sibling = put("/sites/site/about");
+        final RepresentationCache.Key parent = put("/sites/site");
+
+        // properties of grandchildren are not part of the representation of a node
+        cache.invalidate("default", "/sites/site/home/child/grandchild/jcr:title", Event.PROPERTY_CHANGED);
+        assertThat(cache.get(node)).isNotNull();
+        assertThat(cache.get(parent)).isNotNull();
+
+        // properties of children are
+        cache.invalidate("default", "/sites/site/home/child/jcr:title", Event.PROPERTY_CHANGED);
+        assertThat(cache.get(node)).isNull();
+        assertThat(cache.get(parent)).isNotNull();
+        assertThat(cache.get(sibling)).isNotNull();
+
+        // modifications in other workspaces don't impact this one
+        cache.invalidate("live", "/sites/site/about/jcr:title", Event.PROPERTY_CHANGED);
+        assertThat(cache.get(sibling)).isNotNull();
+
+        // moving an ancestor changes the representation of its descendants
+        cache.invalidate("default", "/sites/site", Event.NODE_MOVED);
+        assertThat(cache.get(sibling)).isNull();
+        assertThat(cache.get(parent)).isNull();
+
+        assertThat(cache.getInvalidations() - invalidations).isEqualTo(3);
+        assertThat(cache.getEntriesCount()).isZero();
+        assertThat(cache.getSize()).isZero();
+    }
+
+    @Test
+    public void batchedModificationsShouldBeInvalidatedInOneScan() {
+        final long generation = cache.getGeneration("default");
+        final RepresentationCache.Key node = put("/sites/site/home");
+        final RepresentationCache.Key moved = put("/sites/site/about/team");
+        final RepresentationCache.Key unrelated = put("/sites/other");
+
+        cache.invalidate("default", new HashSet<String>(Arrays.asList("/sites/site/home/jcr:title", "/sites/other/child/grandchild/jcr:title")),
+                Collections.singleton("/sites/site/about"));
+        assertThat(cache.get(node)).isNull();
+        assertThat(cache.get(moved)).isNull();
+        assertThat(cache.get(unrelated)).isNotNull();
+
+        // the whole batch only counts as one modification
+        assertThat(cache.getGeneration("default")).isEqualTo(generation + 1);
+    }
+
+    @Test
+    public void permissionModificationsShouldEvictEverything() {
+        put("/sites/site/home");
+        put("/sites/other");
+
+        cache.invalidate("live", "/sites/site/j:acl/GRANT_u_user", Event.NODE_ADDED);
+        assertThat(cache.getEntriesCount()).isZero();
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesShouldBeEvictedFirst() {
+        final long evictions = cache.getEvictions();
+        final RepresentationCache.Key first = put("/first");
+        final RepresentationCache.Key second = put("/second");
+        put("/third");
+        cache.get(first);
+
+        final RepresentationCache.Key fourth = put("/fourth");
+        assertThat(cache.get(second)).isNull();
+        assertThat(cache.get(first)).isNotNull();
+        assertThat(cache.getEntriesCount()).isEqualTo(3);
+
+        // evicting by size also starts with the least recently used entries
+        cache.get(fourth);
+        cache.put(key("/large"), new byte[1020], "/large", cache.getGeneration("default"));
+        assertThat(cache.get(fourth)).isNull();
+        assertThat(cache.getEntriesCount()).isEqualTo(1);
+        assertThat(cache.getSize()).isEqualTo(1020);
+        assertThat(cache.getEvictions() - evictions).isEqualTo(4);
+    }
+
+    @Test
+    public void representationsRenderedConcurrentlyWithModificationsShouldNotBeCached() {
+        final long generation = cache.getGeneration("default");
+        cache.invalidate("default", "/unrelated", Event.NODE_ADDED);
+
+        final RepresentationCache.Key key = key("/stale");
+        cache.put(key, new byte[10], "/stale", generation);
+        assertThat(cache.get(key)).isNull();
+    }
+
+    @Test
+    public void hitsAndMissesShouldBeCounted() {
+        final long hits = cache.getHits();
+        final long misses = cache.getMisses();
+
+        final RepresentationCache.Key key = key("/counted");
+        cache.get(key);
+        cache.put(key, new byte[10], "/counted", cache.getGeneration("default"));
+        cache.get(key);
+        cache.get(key);
+
+        assertThat(cache.getMisses() - misses).isEqualTo(1);
+        assertThat(cache.getHits() - hits).isEqualTo(2);
+    }
+
+    private RepresentationCache.Key put(String path) {
+        final RepresentationCache.Key key = key(path);
+        cache.put(key, new byte[10], path, cache.getGeneration("default"));
+        return key;
+    }
+
+    private static RepresentationCache.Key key(String path) {
+        return new RepresentationCache.Key("default", path, "", null, "http://localhost/api/default/en/paths" + path, "application/hal+json", "root");
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.securityfilter.PermissionService;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class SpringBeansAccessTest {
+
+    @After
+    public void tearDown() {
+        API.setPermissionDecisions(null);
+        SpringBeansAccess.getInstance().setPermissionService(null);
+    }
+
+    @Test
+    public void permissionDecisionsShouldBeRememberedForTheCurrentRequestOnly() throws RepositoryException {
+        final Node node = createNode("id");
+        final PermissionService permissionService = mock(PermissionService.class);
+        when(permissionService.hasPermission("jcrestapi.child", node)).thenReturn(false);
+        when(permissionService.hasPermission("jcrestapi.read", node)).thenReturn(true);
+
+        final SpringBeansAccess access = SpringBeansAccess.getInstance();
+        access.setPermissionService(permissionService);
+
+        API.setPermissionDecisions(new PermissionDecisions());
+        for (int i = 0; i < 3; i++) {
+            assertThat(access.hasPermission("jcrestapi.child", node)).isFalse();
+            assertThat(access.hasPermission("jcrestapi.read", node)).isTrue();
+        }
+        verify(permissionService, times(1)).hasPermission("jcrestapi.child", node);
+        verify(permissionService, times(1)).hasPermission("jcrestapi.read", node);
+
+        // a new request asks again
+        API.setPermissionDecisions(new PermissionDecisions());
+        access.hasPermission("jcrestapi.child", node);
+        verify(permissionService, times(2)).hasPermission("jcrestapi.child", node);
+
+        // as do calls outside of requests
+        API.setPermissionDecisions(null);
+        access.hasPermission("jcrestapi.child", node);
+        access.hasPermission("jcrestapi.child", node);
+        verify(permissionService, times(4)).hasPermission("jcrestapi.child", node);
+    }
+
+    private static Node createNode(String id) throws RepositoryException {
+        final Workspace workspace = mock(Workspace.class);
+        when(workspace.getName()).thenReturn("default");
+        final Session session = mock(Session.class);
+        when(session.getWorkspace()).thenReturn(workspace);
+        when(session.getUserID()).thenReturn("root");
+        final Node node = mock(Node.class);
+        when(node.getIdentifier()).thenReturn(id);
+        when(node.getSession()).thenReturn(session);
+        return node;
+    }
+}
@@ -56,6 +56,9 @@ import org.jahia.modules.jcrestapi.links.APIDecorator;
 import org.jahia.modules.json.JSONConstants;
 import org.jahia.modules.json.JSONProperties;
 import org.jahia.modules.json.JSONProperty;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
 
 /**
  * @author Christophe Laprun
@@ -70,6 +73,33 @@ public class PropertyElementAccessorTest extends ElementAccessorTest<JSONPropert
         Mocks.createPropertyDefinition(newChildName, nodeType, StringValue.TYPE, false, nodeType.getPropertyDefinitions());
     }
 
+    @Test
+    public void propertyTypesShouldBeCachedPerEffectiveTypeSet() throws RepositoryException {
+        final Node node = Mocks.createMockNode("node", "nodeId", "/node", 0, 1, 1);
+        final PropertyTypes propertyTypes = PropertyTypes.of(node);
+        assertThat(PropertyTypes.of(node)).isSameAs(propertyTypes);
+
+        assertThat(propertyTypes.getRequiredType(Mocks.PROPERTY + 0, node)).isEqualTo(StringValue.TYPE);
+        assertThat(propertyTypes.getRequiredType("unknown", node)).isNull();
+        assertThat(propertyTypes.size()).isEqualTo(1);
+
+        // unknown names are not cached so a definition added later is found
+        final NodeType nodeType = node.getPrimaryNodeType();
+        Mocks.createPropertyDefinition("unknown", nodeType, StringValue.TYPE, false, nodeType.getPropertyDefinitions());
+        assertThat(propertyTypes.getRequiredType("unknown", node)).isEqualTo(StringValue.TYPE);
+
+        // the number of cached definitions is bounded
+        for (int i = 0; i < PropertyTypes.MAX_DEFINITIONS; i++) {
+            Mocks.createPropertyDefinition("bounded" + i, nodeType, StringValue.TYPE, false, nodeType.getPropertyDefinitions());
+            propertyTypes.getRequiredType("bounded" + i, node);
+        }
+        assertThat(propertyTypes.size()).isEqualTo(PropertyTypes.MAX_DEFINITIONS);
+
+        // same type names but different node type instances, as if types had been registered again
+        final Node other = Mocks.createMockNode("other", "otherId", "/other", 0, 1, 1);
+        assertThat(PropertyTypes.of(other)).isNotSameAs(propertyTypes);
+    }
+
     @Override
     protected JSONProperty getDataForNewChild(String name) throws IOException {
         return ElementAccessor.mapper.readValue("{\"name\":\"" + name + "\",\"value\": \"value\"}", JSONProperty.class);
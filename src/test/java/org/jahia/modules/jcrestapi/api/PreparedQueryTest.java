@@ -0,0 +1,95 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.api;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PreparedQueryTest {
+
+    @Test
+    public void positionalPlaceholdersShouldBeReplacedByBindVariables() {
+        final PreparedQuery query = createQuery("select * from [nt:nodeType] where [jcr:nodeTypeName] like ? and [jcr:isMixin] = ?");
+
+        assertThat(query.getStatement()).isEqualTo("select * from [nt:nodeType] where [jcr:nodeTypeName] like $param1 and [jcr:isMixin] = $param2");
+        assertThat(query.getQuery(Arrays.<Object>asList("nt:%", 1))).isEqualTo("select * from [nt:nodeType] where [jcr:nodeTypeName] like 'nt:%' and [jcr:isMixin] = 1");
+    }
+
+    @Test
+    public void namedPlaceholdersShouldBeReplacedByBindVariables() {
+        final PreparedQuery query = createQuery("select * from [nt:nodeType] where [jcr:nodeTypeName] like :nodeTypeName or [jcr:primaryItemName] = :nodeTypeName");
+
+        assertThat(query.getStatement()).isEqualTo("select * from [nt:nodeType] where [jcr:nodeTypeName] like $nodeTypeName or [jcr:primaryItemName] = $nodeTypeName");
+
+        final Map<String, Object> params = new HashMap<String, Object>();
+        params.put("nodeTypeName", "nt:add%");
+        assertThat(query.getQuery(params)).isEqualTo("select * from [nt:nodeType] where [jcr:nodeTypeName] like 'nt:add%' or [jcr:primaryItemName] = 'nt:add%'");
+    }
+
+    @Test
+    public void placeholdersInLiteralsAndNamesShouldBeIgnored() {
+        final PreparedQuery query = createQuery("select * from [foo:bar?] as n where n.[jcr:title] = 'what? :notAParameter' and n.[jcr:description] = ?");
+
+        assertThat(query.getStatement()).isEqualTo("select * from [foo:bar?] as n where n.[jcr:title] = 'what? :notAParameter' and n.[jcr:description] = $param1");
+        assertThat(query.getQuery(Collections.<Object>singletonList("it's"))).endsWith("n.[jcr:description] = 'it''s'");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidParameterNamesShouldBeRejected() {
+        createQuery("select * from [nt:base] where [jcr:title] = :title").getQuery(Collections.<String, Object>singletonMap("ti-tle", "foo"));
+    }
+
+    private static PreparedQuery createQuery(String source) {
+        final PreparedQuery query = new PreparedQuery();
+        query.setName("test");
+        query.setSource(source);
+        return query;
+    }
+}
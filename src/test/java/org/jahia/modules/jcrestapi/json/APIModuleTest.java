@@ -0,0 +1,197 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.json;
+
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.jaxrs.json.JacksonJaxbJsonProvider;
+import mockit.Mock;
+import mockit.MockUp;
+import org.apache.jackrabbit.value.BooleanValue;
+import org.apache.jackrabbit.value.DoubleValue;
+import org.apache.jackrabbit.value.LongValue;
+import org.apache.jackrabbit.value.StringValue;
+import org.jahia.modules.jcrestapi.API;
+import org.jahia.modules.jcrestapi.APIJsonProvider;
+import org.jahia.modules.jcrestapi.Mocks;
+import org.jahia.modules.jcrestapi.URIUtils;
+import org.jahia.modules.jcrestapi.links.APIDecorator;
+import org.jahia.modules.jcrestapi.links.JSONLink;
+import org.jahia.modules.json.Filter;
+import org.jahia.modules.json.jcr.SessionAccess;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.ValueFormatException;
+import javax.jcr.nodetype.NodeType;
+import javax.jcr.query.Row;
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class APIModuleTest {
+    private static final ObjectMapper annotationsMapper = new JacksonJaxbJsonProvider().locateMapper(JSONRow.class, MediaType.APPLICATION_JSON_TYPE);
+    private static final ObjectMapper moduleMapper = APIJsonProvider.MAPPER;
+
+    @Before
+    public void setUp() throws RepositoryException {
+        // fake session, at least to get access to a workspace name and language code for URIUtils
+        final Session mockSession = Mocks.createMockSession();
+
+        new MockUp<SessionAccess>() {
+            @Mock
+            public SessionAccess.SessionInfo getCurrentSession() {
+                return new SessionAccess.SessionInfo(mockSession, "default", "en");
+            }
+        };
+
+        // set base URI for absolute links
+        URIUtils.setBaseURI(Mocks.createMockUriInfo(false, null).getBaseUri().toASCIIString());
+    }
+
+    @Test
+    public void serializedRowsShouldBeIdenticalToAnnotationDrivenSerialization() throws Exception {
+        final JSONRow row = createRow(0);
+        assertThat(moduleMapper.writeValueAsString(row)).isEqualTo(annotationsMapper.writeValueAsString(row));
+    }
+
+    @Test
+    public void serializedNodeReferencesShouldBeIdenticalToAnnotationDrivenSerialization() throws Exception {
+        final JSONNodeReference reference = createNodeReference(0);
+        assertThat(moduleMapper.writeValueAsString(reference)).isEqualTo(annotationsMapper.writeValueAsString(reference));
+    }
+
+    @Test
+    public void serializedListsShouldBeIdenticalToAnnotationDrivenSerialization() throws Exception {
+        final List<JSONRow> rows = Arrays.asList(createRow(0), createRow(1), createRow(2));
+        assertThat(moduleMapper.writeValueAsString(rows)).isEqualTo(annotationsMapper.writeValueAsString(rows));
+    }
+
+    @Test
+    public void serializedNodeTreesShouldBeIdenticalToAnnotationDrivenSerialization() throws Exception {
+        final APINode tree = createNodeTree(3, 4, 2, 3);
+        assertThat(moduleMapper.writeValueAsString(tree)).isEqualTo(annotationsMapper.writeValueAsString(tree));
+    }
+
+    @Test
+    public void serializedPropertiesShouldBeIdenticalToAnnotationDrivenSerialization() throws Exception {
+        final APINode tree = createNodeTree(0, 3, 0, 0);
+        for (Object property : tree.getProperties().values()) {
+            assertThat(moduleMapper.writeValueAsString(property)).isEqualTo(annotationsMapper.writeValueAsString(property));
+        }
+    }
+
+    @Test
+    public void serializedLinksShouldBeIdenticalToAnnotationDrivenSerialization() throws Exception {
+        final List<JSONLink> links = Arrays.asList(JSONLink.createLink(API.SELF, "/api/jcr/v1/default/en/nodes/1234"),
+                JSONLink.createLink(API.TARGET, new String[]{"/api/jcr/v1/default/en/nodes/1", "/api/jcr/v1/default/en/nodes/\"2\""}));
+        assertThat(moduleMapper.writeValueAsString(links)).isEqualTo(annotationsMapper.writeValueAsString(links));
+    }
+
+    @Test
+    public void nodesPropertiesAndDecoratorsShouldUseHandWrittenSerializers() throws Exception {
+        final APINode tree = createNodeTree(1, 1, 0, 1);
+        final Object property = tree.getProperties().values().iterator().next();
+        assertThat(findSerializer(tree.getClass())).isInstanceOf(APIModule.JSONNodeSerializer.class);
+        assertThat(findSerializer(property.getClass())).isInstanceOf(APIModule.JSONPropertySerializer.class);
+        assertThat(findSerializer(APIDecorator.class)).isInstanceOf(APIModule.APIDecoratorSerializer.class);
+        assertThat(findSerializer(JSONLink.createLink(API.SELF, "/").getClass())).isInstanceOf(APIModule.JSONLinkSerializer.class);
+    }
+
+    private static JsonSerializer<Object> findSerializer(Class<?> type) throws Exception {
+        return moduleMapper.getSerializerProviderInstance().findValueSerializer(type);
+    }
+
+    /**
+     * Creates a tree of nodes with links, {@code depth} levels deep, the root having the specified number of children, properties and
+     * mixins, each level having one less of each than its parent.
+     */
+    static APINode createNodeTree(int numberOfChildren, int numberOfProperties, int numberOfMixins, int depth) throws RepositoryException {
+        final Node node = Mocks.createMockNode(Mocks.NODE_NAME, Mocks.NODE_ID, Mocks.PATH_TO_NODE, numberOfChildren, numberOfProperties, numberOfMixins);
+        return new APINode(new APIDecorator(true, false), node, Filter.OUTPUT_ALL, depth);
+    }
+
+    static JSONRow createRow(int i) throws RepositoryException {
+        final Node node = createNode(i);
+        final Value[] tags = {new StringValue("foo"), new StringValue("b\"ar")};
+        final Property multiValued = Mockito.mock(Property.class);
+        Mockito.when(multiValued.getValues()).thenReturn(tags);
+        Mockito.when(node.hasProperty("j:tags")).thenReturn(true);
+        Mockito.when(node.getProperty("j:tags")).thenReturn(multiValued);
+
+        final Row row = Mockito.mock(Row.class);
+        Mockito.when(row.getValue("node.jcr:title")).thenReturn(new StringValue("Title " + i));
+        Mockito.when(row.getValue("node.size")).thenReturn(new LongValue(i * 1000L));
+        Mockito.when(row.getValue("node.ratio")).thenReturn(new DoubleValue(i / 3d));
+        Mockito.when(row.getValue("node.published")).thenReturn(new BooleanValue(i % 2 == 0));
+        Mockito.when(row.getValue("node.j:tags")).thenThrow(new ValueFormatException());
+
+        return new JSONRow(node, row, new String[]{"node.jcr:title", "node.size", "node.ratio", "node.published", "node.j:tags"},
+                new String[]{"jcr:title", "size", "ratio", "published", "j:tags"});
+    }
+
+    static JSONNodeReference createNodeReference(int i) throws RepositoryException {
+        return new JSONNodeReference(createNode(i));
+    }
+
+    private static Node createNode(int i) throws RepositoryException {
+        final NodeType nodeType = Mockito.mock(NodeType.class);
+        Mockito.when(nodeType.getName()).thenReturn("jnt:content");
+
+        final Node node = Mockito.mock(Node.class);
+        Mockito.when(node.getIdentifier()).thenReturn("id-" + i);
+        Mockito.when(node.getPath()).thenReturn("/sites/site/contents/content" + i);
+        Mockito.when(node.getPrimaryNodeType()).thenReturn(nodeType);
+        return node;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2019 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.links;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.jaxrs.json.JacksonJaxbJsonProvider;
+import org.jahia.modules.jcrestapi.API;
+import org.jahia.modules.jcrestapi.URIUtils;
+import org.jahia.modules.json.JSONConstants;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.jcr.nodetype.NodeType;
+import javax.jcr.nodetype.PropertyDefinition;
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LinksTest {
+    private static final ObjectMapper mapper = new JacksonJaxbJsonProvider().locateMapper(Links.class, MediaType.APPLICATION_JSON_TYPE);
+
+    @Test
+    public void hrefShouldBuildSameURIsAsURIUtils() {
+        final Href root = Href.of("/api/jcr/v1/default/en");
+        assertThat(root.toString()).isEqualTo("/api/jcr/v1/default/en");
+
+        final Href node = root.append("/nodes/", "1234");
+        assertThat(node.toString()).isEqualTo("/api/jcr/v1/default/en/nodes/1234");
+        assertThat(node.length()).isEqualTo(node.toString().length());
+
+        final Href property = node.child(JSONConstants.PROPERTIES, false).child("jcr:title", true);
+        assertThat(property.toString()).isEqualTo(URIUtils.getChildURI(URIUtils.getChildURI(node.toString(), JSONConstants.PROPERTIES, false),
+                "jcr:title", true));
+
+        final Href rootPath = root.append("/paths", "/");
+        assertThat(rootPath.child("/children", false).toString()).isEqualTo(URIUtils.getChildURI(rootPath.toString(), "/children", false));
+    }
+
+    @Test
+    public void linksShouldBeSerializedInDocumentedOrder() throws IOException {
+        URIUtils.setBaseURI("http://localhost:8080");
+
+        // relations output by the API follow their documented order whatever the order in which they were added
+        Links links = new Links(Links.ALL);
+        final Href self = Href.of("/api/jcr/v1/default/en/nodes/1234");
+        links.put(API.TYPE, Href.of("/api/jcr/v1/default/en/paths/jcr__system/jcr__nodeTypes/nt__unstructured"));
+        links.put(JSONConstants.VERSIONS, self.child(JSONConstants.VERSIONS, false));
+        links.put(JSONConstants.CHILDREN, self.child(JSONConstants.CHILDREN, false));
+        links.put(JSONConstants.MIXINS, self.child(JSONConstants.MIXINS, false));
+        links.put(JSONConstants.PROPERTIES, self.child(JSONConstants.PROPERTIES, false));
+        links.put(API.PATH, Href.of("/api/jcr/v1/default/en/paths/foo"));
+        links.put(API.PARENT, Href.of("/api/jcr/v1/default/en/nodes/5678"));
+        links.put(API.SELF, self);
+        links.put(API.ABSOLUTE, self);
+        checkSerialization(links, "{" +
+                link(API.ABSOLUTE, "http://localhost:8080/api/jcr/v1/default/en/nodes/1234") + "," +
+                link(API.SELF, "/api/jcr/v1/default/en/nodes/1234") + "," +
+                link(API.TYPE, "/api/jcr/v1/default/en/paths/jcr__system/jcr__nodeTypes/nt__unstructured") + "," +
+                link(API.PARENT, "/api/jcr/v1/default/en/nodes/5678") + "," +
+                link(API.PATH, "/api/jcr/v1/default/en/paths/foo") + "," +
+                link(JSONConstants.PROPERTIES, "/api/jcr/v1/default/en/nodes/1234/properties") + "," +
+                link(JSONConstants.MIXINS, "/api/jcr/v1/default/en/nodes/1234/mixins") + "," +
+                link(JSONConstants.CHILDREN, "/api/jcr/v1/default/en/nodes/1234/children") + "," +
+                link(JSONConstants.VERSIONS, "/api/jcr/v1/default/en/nodes/1234/versions") +
+                "}");
+
+        // multiple targets, other relations being output last in insertion order and unselected relations being skipped
+        links = new Links(Links.getMask(Collections.singleton(API.TARGET)));
+        links.put("foo", Href.of("/foo"));
+        links.put(API.TARGET, new Href[]{Href.of("/api/jcr/v1/default/en/nodes/1"), Href.of("/api/jcr/v1/default/en/nodes/\"2\"")});
+        links.put(API.ABSOLUTE, self);
+        links.put(API.SELF, self);
+        links.put("bar", new Href[]{Href.of("/bar")});
+        checkSerialization(links, "{" +
+                "\"target\":{\"rel\":\"target\",\"href\":[\"/api/jcr/v1/default/en/nodes/1\",\"/api/jcr/v1/default/en/nodes/\\\"2\\\"\"]}," +
+                link("foo", "/foo") + "," +
+                "\"bar\":{\"rel\":\"bar\",\"href\":[\"/bar\"]}" +
+                "}");
+    }
+
+    @Test
+    public void addedLinksShouldNotBeRejected() throws IOException {
+        URIUtils.setBaseURI("http://localhost:8080");
+
+        final APIDecorator decorator = new APIDecorator(true, false);
+        decorator.addLink(JSONLink.createLink(API.SELF, "/api/jcr/v1/default/en/nodes/1234"));
+        decorator.addLink(JSONLink.createLink("custom", "/custom"));
+        decorator.addLink(JSONLink.createLink(API.ABSOLUTE, "http://example.com/nodes/1234"));
+
+        assertThat(decorator.getLinks().keySet()).containsExactly(API.ABSOLUTE, API.SELF, "custom");
+        assertThat(decorator.getLinks().get(API.ABSOLUTE).getURIAsString()).isEqualTo("http://example.com/nodes/1234");
+        assertThat(decorator.getLinks().get("custom").getURIAsString()).isEqualTo("/custom");
+        checkSerialization(decorator.getSerializableLinks(), "{" +
+                link(API.ABSOLUTE, "http://example.com/nodes/1234") + "," +
+                link(API.SELF, "/api/jcr/v1/default/en/nodes/1234") + "," +
+                link("custom", "/custom") +
+                "}");
+    }
+
+    @Test
+    public void propertyDefinitionIndexShouldFollowNodeTypeChanges() {
+        PropertyDefinitionIndex.clear();
+
+        final NodeType nodeType = createNodeType("jnt:foo", "jcr:title", "*", "jcr:description");
+        PropertyDefinitionIndex index = PropertyDefinitionIndex.of(nodeType);
+        assertThat(index.getEscapedTypeName()).isEqualTo("jnt__foo");
+        assertThat(index.getSuffix("jcr:title")).isEqualTo(APIDecorator.JCR__PROPERTY_DEFINITION);
+        assertThat(index.getSuffix("jcr:description")).isEqualTo(APIDecorator.JCR__PROPERTY_DEFINITION + "--3");
+        assertThat(index.getSuffix("unknown")).isEqualTo(APIDecorator.JCR__PROPERTY_DEFINITION);
+        assertThat(PropertyDefinitionIndex.of(nodeType)).isSameAs(index);
+
+        // new definitions for the same type invalidate the previous index
+        final NodeType redefined = createNodeType("jnt:foo", "jcr:description", "jcr:title");
+        index = PropertyDefinitionIndex.of(redefined);
+        assertThat(index.getSuffix("jcr:title")).isEqualTo(APIDecorator.JCR__PROPERTY_DEFINITION + "--2");
+
+        // a single definition doesn't need an index
+        index = PropertyDefinitionIndex.of(createNodeType("jnt:bar", "jcr:title"));
+        assertThat(index.getSuffix("jcr:title")).isEqualTo(APIDecorator.JCR__PROPERTY_DEFINITION);
+    }
+
+    private static NodeType createNodeType(String name, String... propertyNames) {
+        final PropertyDefinition[] definitions = new PropertyDefinition[propertyNames.length];
+        for (int i = 0; i < propertyNames.length; i++) {
+            definitions[i] = Mockito.mock(PropertyDefinition.class);
+            Mockito.when(definitions[i].getName()).thenReturn(propertyNames[i]);
+        }
+
+        final NodeType nodeType = Mockito.mock(NodeType.class);
+        Mockito.when(nodeType.getName()).thenReturn(name);
+        Mockito.when(nodeType.getDeclaredPropertyDefinitions()).thenReturn(definitions);
+        return nodeType;
+    }
+
+    private static String link(String relation, String href) {
+        return "\"" + relation + "\":{\"rel\":\"" + relation + "\",\"href\":\"" + href + "\"}";
+    }
+
+    private void checkSerialization(Links links, String expected) throws IOException {
+        assertThat(mapper.writeValueAsString(links)).isEqualTo(expected);
+        // the links map follows the same order
+        assertThat(mapper.writeValueAsString(links.asMap())).isEqualTo(expected);
+    }
+}